@@ -0,0 +1,548 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Builds the lookup accelerator sections of the final DWARF sections, so the
+// debuggers don't need to scan the whole .debug_info when loading the file:
+// the address ranges of every unit in .debug_aranges, the names of the
+// functions, variables and types in .debug_names and optionally both in
+// .gdb_index
+public class AcceleratorTables
+{
+    private static final int gdbIndexVersion = 8;
+    private static final int gdbKindType = 1;
+    private static final int gdbKindVariable = 2;
+    private static final int gdbKindFunction = 3;
+
+    // An indexed DIE at the top level of its unit
+    private static class Entry
+    {
+	String name;
+	// the offset of the name in .debug_str if it is already there, -1 otherwise
+	long nameOffset;
+	int tag;
+	int unit;
+	long dieOffset;
+    }
+
+    private static class Unit
+    {
+	// the offset of the unit in .debug_info, the header's offsets are relative to the unit
+	long offset;
+	DwarfReader.UnitHeader header;
+	// sorted and coalesced [low, high) pairs
+	long[] ranges = new long[16];
+	int rangeCount;
+    }
+
+    private ByteOrder byteOrder;
+    private ArrayList<Unit> units = new ArrayList<Unit>();
+    private ArrayList<Entry> entries = new ArrayList<Entry>();
+
+    private AcceleratorTables(ByteOrder byteOrder)
+    {
+	this.byteOrder = byteOrder;
+    }
+
+    // Adds the accelerator sections to the sections, the names are added to .debug_str
+    public static void addTo(ArrayList<SectionInfo> sections, ByteOrder byteOrder, boolean gdbIndex) throws Exception
+    {
+	SectionInfo info = DwarfReader.find(sections, ".debug_info");
+	SectionInfo abbrev = DwarfReader.find(sections, ".debug_abbrev");
+	if (info == null || abbrev == null)
+	    return;
+	SectionInfo str = DwarfReader.find(sections, ".debug_str");
+	SectionInfo addr = DwarfReader.find(sections, ".debug_addr");
+
+	AcceleratorTables tables = new AcceleratorTables(byteOrder);
+	tables.readUnits(new SectionReader(info, byteOrder), DwarfReader.toByteBuffer(abbrev, byteOrder),
+		str != null ? new SectionReader(str, byteOrder) : null,
+		addr != null ? new SectionReader(addr, byteOrder) : null);
+
+	sections.add(new SectionInfo(".debug_aranges", tables.buildAranges()));
+	if (!tables.entries.isEmpty())
+	{
+	    if (str == null)
+	    {
+		str = new SectionInfo(".debug_str");
+		sections.add(str);
+	    }
+	    sections.add(new SectionInfo(".debug_names", tables.buildNames(str)));
+	}
+	if (gdbIndex)
+	    sections.add(new SectionInfo(".gdb_index", tables.buildGdbIndex()));
+    }
+
+    // The units are read one at a time, so .debug_info may be over 2 GB
+    private void readUnits(SectionReader info, ByteBuffer abbrev, SectionReader str, SectionReader addr) throws Exception
+    {
+	HashMap<Long, HashMap<Long, DwarfReader.Abbreviation>> abbrevTables = new HashMap<>();
+	long offset = 0;
+	while (offset < info.size())
+	{
+	    long end = info.getEntryEnd(offset);
+	    ByteBuffer content = info.slice(offset, end - offset);
+	    Unit unit = new Unit();
+	    unit.offset = offset;
+	    unit.header = DwarfReader.readUnitHeader(content, 0);
+	    if (!unit.header.is64BitFormat && offset > 0xFFFFFFFFL)
+		throw new Exception("Error with the accelerator tables: the unit at " + offset
+			+ " is beyond the 4 GB of the 32-bit DWARF format");
+	    HashMap<Long, DwarfReader.Abbreviation> abbreviations = abbrevTables.computeIfAbsent(unit.header.abbrevOffset,
+		    tableOffset -> DwarfReader.readAbbreviations(abbrev, (int) (long) tableOffset));
+	    readDies(content, abbreviations, str, addr, unit);
+	    coalesceRanges(unit);
+	    units.add(unit);
+	    offset = end;
+	}
+    }
+
+    // Collects the address ranges of the unit and its named functions, variables
+    // and types, the indexed addresses are read from the unit's table in addr
+    private void readDies(ByteBuffer info, HashMap<Long, DwarfReader.Abbreviation> abbreviations, SectionReader str,
+	    SectionReader addr, Unit unit) throws Exception
+    {
+	DwarfReader.UnitHeader header = unit.header;
+	info.position(header.dieOffset);
+	int depth = 0;
+	long addrBase = -1;
+	while (info.position() < header.end)
+	{
+	    long dieOffset = info.position() - header.offset;
+	    long code = DwarfReader.readUleb128(info);
+	    if (code == 0)
+	    {
+		depth--;
+		continue;
+	    }
+	    DwarfReader.Abbreviation decl = abbreviations.get(code);
+	    if (decl == null)
+		throw new Exception("Error with the accelerator tables: abbreviation " + code + " not found");
+
+	    String name = null;
+	    long nameOffset = -1;
+	    long lowPc = 0;
+	    long highPc = 0;
+	    boolean hasLowPc = false;
+	    boolean hasHighPc = false;
+	    boolean isHighPcOffset = false;
+	    boolean isDeclaration = false;
+	    for (int i = 0; i < decl.attributes.length; i++)
+	    {
+		int form = decl.forms[i];
+		switch (decl.attributes[i])
+		{
+		case LibdwarfLibrary.DW_AT_name:
+		    if (form == LibdwarfLibrary.DW_FORM_string)
+		    {
+			name = DwarfReader.readCString(info);
+		    }
+		    else if (form == LibdwarfLibrary.DW_FORM_strp && str != null)
+		    {
+			nameOffset = DwarfReader.readAttribute(info, form, header.addressSize, header.offsetSize);
+			name = str.readCString(nameOffset);
+		    }
+		    else
+		    {
+			DwarfReader.skipAttribute(info, form, header.addressSize, header.offsetSize);
+		    }
+		    break;
+		case LibdwarfLibrary.DW_AT_low_pc:
+		    lowPc = DwarfReader.readAttribute(info, form, header.addressSize, header.offsetSize);
+		    hasLowPc = form == LibdwarfLibrary.DW_FORM_addr;
+		    if (isAddressIndex(form) && addr != null && addrBase >= 0)
+		    {
+			lowPc = addr.readFixed(addrBase + lowPc * header.addressSize, header.addressSize);
+			hasLowPc = true;
+		    }
+		    break;
+		case LibdwarfLibrary.DW_AT_high_pc:
+		    highPc = DwarfReader.readAttribute(info, form, header.addressSize, header.offsetSize);
+		    hasHighPc = true;
+		    // the constant forms are the length of the range
+		    isHighPcOffset = form != LibdwarfLibrary.DW_FORM_addr;
+		    break;
+		case LibdwarfLibrary.DW_AT_addr_base:
+		    addrBase = DwarfReader.readAttribute(info, form, header.addressSize, header.offsetSize);
+		    break;
+		case LibdwarfLibrary.DW_AT_declaration:
+		    isDeclaration = DwarfReader.readAttribute(info, form, header.addressSize, header.offsetSize) != 0
+			    || form == LibdwarfLibrary.DW_FORM_flag_present;
+		    break;
+		default:
+		    DwarfReader.skipAttribute(info, form, header.addressSize, header.offsetSize);
+		}
+	    }
+
+	    if (hasLowPc && hasHighPc && (decl.tag == LibdwarfLibrary.DW_TAG_subprogram || depth == 0))
+		addRange(unit, lowPc, isHighPcOffset ? lowPc + highPc : highPc);
+	    if (depth == 1 && name != null && !isDeclaration && isIndexed(decl.tag))
+	    {
+		Entry entry = new Entry();
+		entry.name = name;
+		entry.nameOffset = nameOffset;
+		entry.tag = decl.tag;
+		entry.unit = units.size();
+		entry.dieOffset = dieOffset;
+		entries.add(entry);
+	    }
+	    if (decl.hasChildren)
+		depth++;
+	}
+    }
+
+    private static boolean isAddressIndex(int form)
+    {
+	switch (form)
+	{
+	case LibdwarfLibrary.DW_FORM_addrx:
+	case LibdwarfLibrary.DW_FORM_addrx1:
+	case LibdwarfLibrary.DW_FORM_addrx2:
+	case LibdwarfLibrary.DW_FORM_addrx3:
+	case LibdwarfLibrary.DW_FORM_addrx4:
+	    return true;
+	default:
+	    return false;
+	}
+    }
+
+    private static boolean isIndexed(int tag)
+    {
+	switch (tag)
+	{
+	case LibdwarfLibrary.DW_TAG_subprogram:
+	case LibdwarfLibrary.DW_TAG_variable:
+	case LibdwarfLibrary.DW_TAG_base_type:
+	case LibdwarfLibrary.DW_TAG_structure_type:
+	case LibdwarfLibrary.DW_TAG_union_type:
+	case LibdwarfLibrary.DW_TAG_enumeration_type:
+	case LibdwarfLibrary.DW_TAG_typedef:
+	    return true;
+	default:
+	    return false;
+	}
+    }
+
+    private static void addRange(Unit unit, long low, long high)
+    {
+	if (high <= low)
+	    return;
+	if (unit.rangeCount * 2 == unit.ranges.length)
+	    unit.ranges = Arrays.copyOf(unit.ranges, unit.ranges.length * 2);
+	unit.ranges[unit.rangeCount * 2] = low;
+	unit.ranges[unit.rangeCount * 2 + 1] = high;
+	unit.rangeCount++;
+    }
+
+    private static void coalesceRanges(Unit unit)
+    {
+	// the functions are usually added in address order already
+	Integer[] order = new Integer[unit.rangeCount];
+	for (int i = 0; i < order.length; i++)
+	    order[i] = i;
+	long[] ranges = unit.ranges;
+	Arrays.sort(order, (a, b) -> Long.compareUnsigned(ranges[a * 2], ranges[b * 2]));
+
+	long[] coalesced = new long[Math.max(2, unit.rangeCount * 2)];
+	int count = 0;
+	for (int i : order)
+	{
+	    long low = ranges[i * 2];
+	    long high = ranges[i * 2 + 1];
+	    if (count > 0 && Long.compareUnsigned(low, coalesced[count * 2 - 1]) <= 0)
+	    {
+		if (Long.compareUnsigned(high, coalesced[count * 2 - 1]) > 0)
+		    coalesced[count * 2 - 1] = high;
+		continue;
+	    }
+	    coalesced[count * 2] = low;
+	    coalesced[count * 2 + 1] = high;
+	    count++;
+	}
+	unit.ranges = coalesced;
+	unit.rangeCount = count;
+    }
+
+    // One address range set per unit
+    private byte[] buildAranges()
+    {
+	DwarfBuffer aranges = new DwarfBuffer(byteOrder);
+	for (Unit unit : units)
+	{
+	    DwarfReader.UnitHeader header = unit.header;
+	    int setStart = aranges.size();
+	    if (header.is64BitFormat)
+	    {
+		aranges.put32(0xFFFFFFFFL);
+		aranges.put64(0);
+	    }
+	    else
+	    {
+		aranges.put32(0);
+	    }
+	    int lengthEnd = aranges.size();
+	    aranges.put16(2);
+	    aranges.putFixed(unit.offset, header.offsetSize);
+	    aranges.put8(header.addressSize);
+	    // no segment selector
+	    aranges.put8(0);
+	    // the tuples are aligned on their size
+	    while ((aranges.size() - setStart) % (2 * header.addressSize) != 0)
+		aranges.put8(0);
+	    for (int i = 0; i < unit.rangeCount; i++)
+	    {
+		aranges.putFixed(unit.ranges[i * 2], header.addressSize);
+		aranges.putFixed(unit.ranges[i * 2 + 1] - unit.ranges[i * 2], header.addressSize);
+	    }
+	    aranges.putFixed(0, header.addressSize);
+	    aranges.putFixed(0, header.addressSize);
+	    long length = aranges.size() - lengthEnd;
+	    if (header.is64BitFormat)
+		aranges.setFixed(setStart + 4, length, 8);
+	    else
+		aranges.setFixed(setStart, length, 4);
+	}
+	return aranges.toByteArray();
+    }
+
+    // Groups the entries by name, in the order of their first occurrence
+    private LinkedHashMap<String, ArrayList<Entry>> groupByName()
+    {
+	LinkedHashMap<String, ArrayList<Entry>> names = new LinkedHashMap<String, ArrayList<Entry>>();
+	for (Entry entry : entries)
+	    names.computeIfAbsent(entry.name, name -> new ArrayList<Entry>()).add(entry);
+	return names;
+    }
+
+    // The DWARF 5 name index, with an empty augmentation string, in the 64-bit
+    // DWARF format along with the units
+    private byte[] buildNames(SectionInfo str) throws Exception
+    {
+	boolean is64BitFormat = units.get(0).header.is64BitFormat;
+	int offsetSize = is64BitFormat ? 8 : 4;
+	LinkedHashMap<String, ArrayList<Entry>> grouped = groupByName();
+	int nameCount = grouped.size();
+	int bucketCount = nameCount / 2 + 1;
+	String[] names = grouped.keySet().toArray(new String[nameCount]);
+	int[] hashes = new int[nameCount];
+	for (int i = 0; i < nameCount; i++)
+	    hashes[i] = djbHash(names[i]);
+	// the names of a bucket are contiguous
+	Integer[] order = new Integer[nameCount];
+	for (int i = 0; i < nameCount; i++)
+	    order[i] = i;
+	Arrays.sort(order, Comparator.comparingInt(i -> Integer.remainderUnsigned(hashes[i], bucketCount)));
+
+	// one abbreviation per tag
+	LinkedHashMap<Integer, Integer> abbrevCodes = new LinkedHashMap<Integer, Integer>();
+	for (Entry entry : entries)
+	    abbrevCodes.putIfAbsent(entry.tag, abbrevCodes.size() + 1);
+	DwarfBuffer abbrev = new DwarfBuffer(byteOrder);
+	for (int tag : abbrevCodes.keySet())
+	{
+	    abbrev.putUleb128(abbrevCodes.get(tag));
+	    abbrev.putUleb128(tag);
+	    abbrev.putUleb128(LibdwarfLibrary.DW_IDX_compile_unit);
+	    abbrev.putUleb128(LibdwarfLibrary.DW_FORM_udata);
+	    abbrev.putUleb128(LibdwarfLibrary.DW_IDX_die_offset);
+	    abbrev.putUleb128(LibdwarfLibrary.DW_FORM_ref4);
+	    abbrev.putUleb128(0);
+	    abbrev.putUleb128(0);
+	}
+	abbrev.putUleb128(0);
+
+	// the names not in .debug_str yet are appended to it, the entries of a name end with a 0
+	long strOffset = str.size();
+	DwarfBuffer strings = new DwarfBuffer(byteOrder);
+	DwarfBuffer pool = new DwarfBuffer(byteOrder);
+	long[] stringOffsets = new long[nameCount];
+	int[] entryOffsets = new int[nameCount];
+	for (int i : order)
+	{
+	    ArrayList<Entry> nameEntries = grouped.get(names[i]);
+	    stringOffsets[i] = nameEntries.get(0).nameOffset;
+	    if (stringOffsets[i] < 0)
+	    {
+		stringOffsets[i] = strOffset + strings.size();
+		strings.putCString(names[i]);
+	    }
+	    entryOffsets[i] = pool.size();
+	    for (Entry entry : nameEntries)
+	    {
+		pool.putUleb128(abbrevCodes.get(entry.tag));
+		pool.putUleb128(entry.unit);
+		pool.put32(entry.dieOffset);
+	    }
+	    pool.put8(0);
+	}
+	str.chunks.add(ByteBuffer.wrap(strings.toByteArray()));
+	if (!is64BitFormat && str.size() > 0xFFFFFFFFL)
+	    throw new Exception("Error with the accelerator tables: .debug_str is beyond the 4 GB of the 32-bit DWARF format");
+
+	DwarfBuffer index = new DwarfBuffer(byteOrder);
+	if (is64BitFormat)
+	{
+	    index.put32(0xFFFFFFFFL);
+	    index.put64(0);
+	}
+	else
+	{
+	    index.put32(0);
+	}
+	int lengthEnd = index.size();
+	index.put16(5);
+	// padding
+	index.put16(0);
+	index.put32(units.size());
+	// no type units
+	index.put32(0);
+	index.put32(0);
+	index.put32(bucketCount);
+	index.put32(nameCount);
+	index.put32(abbrev.size());
+	// no augmentation string
+	index.put32(0);
+	for (Unit unit : units)
+	    index.putFixed(unit.offset, offsetSize);
+
+	int[] buckets = new int[bucketCount];
+	for (int position = 0; position < nameCount; position++)
+	{
+	    int bucket = Integer.remainderUnsigned(hashes[order[position]], bucketCount);
+	    if (buckets[bucket] == 0)
+		buckets[bucket] = position + 1;
+	}
+	for (int bucket : buckets)
+	    index.put32(bucket);
+	for (int i : order)
+	    index.put32(hashes[i] & 0xFFFFFFFFL);
+	for (int i : order)
+	    index.putFixed(stringOffsets[i], offsetSize);
+	for (int i : order)
+	    index.putFixed(entryOffsets[i], offsetSize);
+	index.putBytes(abbrev.toByteArray());
+	index.putBytes(pool.toByteArray());
+	if (is64BitFormat)
+	    index.setFixed(4, index.size() - lengthEnd, 8);
+	else
+	    index.setFixed(0, index.size() - lengthEnd, 4);
+	return index.toByteArray();
+    }
+
+    // The hash of .debug_names, case folded as the consumers look the names up case insensitively
+    private static int djbHash(String name)
+    {
+	int hash = 5381;
+	for (byte b : name.getBytes(StandardCharsets.UTF_8))
+	{
+	    int c = b & 0xFF;
+	    if (c >= 'A' && c <= 'Z')
+		c += 'a' - 'A';
+	    hash = hash * 33 + c;
+	}
+	return hash;
+    }
+
+    // The hash of the symbol table of .gdb_index
+    private static int gdbHash(String name)
+    {
+	int hash = 0;
+	for (byte b : name.getBytes(StandardCharsets.UTF_8))
+	{
+	    int c = b & 0xFF;
+	    if (c >= 'A' && c <= 'Z')
+		c += 'a' - 'A';
+	    hash = hash * 67 + c - 113;
+	}
+	return hash;
+    }
+
+    // The index read by GDB, always little endian
+    private byte[] buildGdbIndex()
+    {
+	LinkedHashMap<String, ArrayList<Entry>> grouped = groupByName();
+	DwarfBuffer index = new DwarfBuffer(ByteOrder.LITTLE_ENDIAN);
+	final int headerSize = 6 * 4;
+	int cuListOffset = headerSize;
+	int typesOffset = cuListOffset + units.size() * 16;
+	int addressOffset = typesOffset;
+	int addressCount = 0;
+	for (Unit unit : units)
+	    addressCount += unit.rangeCount;
+	int symbolTableOffset = addressOffset + addressCount * 20;
+	// keep the open addressing table at most 3/4 full
+	int symbolTableSize = Integer.highestOneBit(Math.max(1, grouped.size() * 4 / 3)) * 2;
+	int constantPoolOffset = symbolTableOffset + symbolTableSize * 8;
+
+	index.put32(gdbIndexVersion);
+	index.put32(cuListOffset);
+	index.put32(typesOffset);
+	index.put32(addressOffset);
+	index.put32(symbolTableOffset);
+	index.put32(constantPoolOffset);
+	for (Unit unit : units)
+	{
+	    index.put64(unit.offset);
+	    index.put64(unit.header.end);
+	}
+	for (int i = 0; i < units.size(); i++)
+	{
+	    Unit unit = units.get(i);
+	    for (int j = 0; j < unit.rangeCount; j++)
+	    {
+		index.put64(unit.ranges[j * 2]);
+		index.put64(unit.ranges[j * 2 + 1]);
+		index.put32(i);
+	    }
+	}
+
+	// the constant pool has the unit vectors, then the names
+	DwarfBuffer vectors = new DwarfBuffer(ByteOrder.LITTLE_ENDIAN);
+	DwarfBuffer names = new DwarfBuffer(ByteOrder.LITTLE_ENDIAN);
+	int[] slots = new int[symbolTableSize * 2];
+	int mask = symbolTableSize - 1;
+	ArrayList<int[]> symbols = new ArrayList<int[]>();
+	for (String name : grouped.keySet())
+	{
+	    ArrayList<Long> values = new ArrayList<Long>();
+	    for (Entry entry : grouped.get(name))
+	    {
+		long value = entry.unit;
+		if (entry.tag == LibdwarfLibrary.DW_TAG_subprogram)
+		    value |= (long) gdbKindFunction << 28;
+		else if (entry.tag == LibdwarfLibrary.DW_TAG_variable)
+		    value |= (long) gdbKindVariable << 28;
+		else
+		    value |= (long) gdbKindType << 28 | 1L << 31;
+		if (!values.contains(value))
+		    values.add(value);
+	    }
+	    symbols.add(new int[] { gdbHash(name), names.size(), vectors.size() });
+	    names.putCString(name);
+	    vectors.put32(values.size());
+	    for (long value : values)
+		vectors.put32(value);
+	}
+	for (int[] symbol : symbols)
+	{
+	    int hash = symbol[0];
+	    int slot = hash & mask;
+	    int step = ((hash * 17) & mask) | 1;
+	    while (slots[slot * 2] != 0 || slots[slot * 2 + 1] != 0)
+		slot = (slot + step) & mask;
+	    slots[slot * 2] = vectors.size() + symbol[1];
+	    slots[slot * 2 + 1] = symbol[2];
+	}
+	for (int slot : slots)
+	    index.put32(slot & 0xFFFFFFFFL);
+	index.putBytes(vectors.toByteArray());
+	index.putBytes(names.toByteArray());
+	return index.toByteArray();
+    }
+}
@@ -0,0 +1,175 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+
+// Sidecar file of an incremental export. It maps each compile unit to a
+// fingerprint of its functions and to where the unit and its line program
+// were written in the .debug_info and .debug_line of the previous ELF so
+// unchanged units can be copied from it.
+public class CompileUnitCache
+{
+    public static class Entry
+    {
+	public long fingerprint;
+	public long offset;
+	public long length;
+	public long lineOffset;
+	public long lineLength;
+    }
+
+    private static final int cacheMagic = 0x44574355;
+    private static final int cacheVersion = 3;
+
+    private static final long fnvOffsetBasis = 0xcbf29ce484222325L;
+    private static final long fnvPrime = 0x100000001b3L;
+
+    private final String configuration;
+    private final HashMap<String, Entry> entries = new HashMap<>();
+
+    // The configuration describes how the units were encoded, a cache made
+    // with another one is never reused
+    public CompileUnitCache(String configuration)
+    {
+	this.configuration = configuration;
+    }
+
+    public static File getSidecarFile(File elfFile)
+    {
+	return new File(elfFile.getPath() + ".cucache");
+    }
+
+    // Returns an empty cache if the file is missing, invalid or was made with another configuration
+    public static CompileUnitCache load(File file, String configuration)
+    {
+	CompileUnitCache cache = new CompileUnitCache(configuration);
+	if (!file.isFile())
+	    return cache;
+
+	try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+	{
+	    if (in.readInt() != cacheMagic || in.readInt() != cacheVersion || !in.readUTF().equals(configuration))
+		return cache;
+
+	    int count = in.readInt();
+	    for (int i = 0; i < count; i++)
+	    {
+		String key = in.readUTF();
+		Entry entry = new Entry();
+		entry.fingerprint = in.readLong();
+		entry.offset = in.readLong();
+		entry.length = in.readLong();
+		entry.lineOffset = in.readLong();
+		entry.lineLength = in.readLong();
+		cache.entries.put(key, entry);
+	    }
+	}
+	catch (IOException e)
+	{
+	    cache.entries.clear();
+	}
+	return cache;
+    }
+
+    // Written next to the file then moved over it, so it's never partially written
+    public void save(File file) throws IOException
+    {
+	ElfWriter.writeAtomically(file, channel ->
+	{
+	    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+	    out.writeInt(cacheMagic);
+	    out.writeInt(cacheVersion);
+	    out.writeUTF(configuration);
+	    out.writeInt(entries.size());
+	    for (var kv : entries.entrySet())
+	    {
+		out.writeUTF(kv.getKey());
+		out.writeLong(kv.getValue().fingerprint);
+		out.writeLong(kv.getValue().offset);
+		out.writeLong(kv.getValue().length);
+		out.writeLong(kv.getValue().lineOffset);
+		out.writeLong(kv.getValue().lineLength);
+	    }
+	    out.flush();
+	});
+    }
+
+    public boolean isEmpty()
+    {
+	return entries.isEmpty();
+    }
+
+    public Entry get(String key)
+    {
+	return entries.get(key);
+    }
+
+    public void put(String key, long fingerprint, long offset, long length, long lineOffset, long lineLength)
+    {
+	Entry entry = new Entry();
+	entry.fingerprint = fingerprint;
+	entry.offset = offset;
+	entry.length = length;
+	entry.lineOffset = lineOffset;
+	entry.lineLength = lineLength;
+	entries.put(key, entry);
+    }
+
+    // FNV-1a over everything that ends up in a function's DIE
+    public static long hashFunction(long hash, String name, long entry, long bodyMin, long bodyMax, long bodySize)
+    {
+	hash = hashString(hash, name);
+	hash = (hash ^ entry) * fnvPrime;
+	hash = (hash ^ bodyMin) * fnvPrime;
+	hash = (hash ^ bodyMax) * fnvPrime;
+	hash = (hash ^ bodySize) * fnvPrime;
+	return hash;
+    }
+
+    public static long hashVariable(long hash, String name, long address, int typeId)
+    {
+	hash = hashString(hash, name);
+	hash = (hash ^ address) * fnvPrime;
+	hash = (hash ^ typeId) * fnvPrime;
+	return hash;
+    }
+
+    // The type is identified by its id among the types of typesFingerprint
+    public static long hashLocal(long hash, String name, boolean parameter, int typeId, long typesFingerprint,
+	    int register, long frameOffset)
+    {
+	hash = hashString(hash, name);
+	hash = (hash ^ (parameter ? 1 : 0)) * fnvPrime;
+	if (typeId >= 0)
+	{
+	    hash = (hash ^ typeId) * fnvPrime;
+	    hash = (hash ^ typesFingerprint) * fnvPrime;
+	}
+	hash = (hash ^ register) * fnvPrime;
+	hash = (hash ^ frameOffset) * fnvPrime;
+	return hash;
+    }
+
+    public static long hashAddresses(long hash, long[] addresses, int offset, int count)
+    {
+	if (hash == 0)
+	    hash = fnvOffsetBasis;
+	for (int i = offset; i < offset + count; i++)
+	    hash = (hash ^ addresses[i]) * fnvPrime;
+	return (hash ^ count) * fnvPrime;
+    }
+
+    public static long hashString(long hash, String str)
+    {
+	if (hash == 0)
+	    hash = fnvOffsetBasis;
+	for (int i = 0; i < str.length(); i++)
+	    hash = (hash ^ str.charAt(i)) * fnvPrime;
+	return (hash ^ str.length()) * fnvPrime;
+    }
+}
@@ -0,0 +1,154 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Growable byte buffer with the encodings needed to write DWARF data
+public class DwarfBuffer
+{
+    // the largest array most JVMs allocate
+    private static final int maxSize = Integer.MAX_VALUE - 8;
+
+    private byte[] data;
+    private int size;
+    private final ByteOrder byteOrder;
+    private final boolean littleEndian;
+
+    public DwarfBuffer(ByteOrder byteOrder)
+    {
+	this(byteOrder, 256);
+    }
+
+    public DwarfBuffer(ByteOrder byteOrder, int initialCapacity)
+    {
+	data = new byte[Math.max(initialCapacity, 16)];
+	this.byteOrder = byteOrder;
+	littleEndian = byteOrder == ByteOrder.LITTLE_ENDIAN;
+    }
+
+    public ByteOrder byteOrder()
+    {
+	return byteOrder;
+    }
+
+    public int size()
+    {
+	return size;
+    }
+
+    public void clear()
+    {
+	size = 0;
+    }
+
+    // The arrays are limited to 2 GB, the modes splitting the functions in
+    // several compile units keep each buffer well below
+    private void ensureCapacity(int extra)
+    {
+	long needed = (long) size + extra;
+	if (needed <= data.length)
+	    return;
+	if (needed > maxSize)
+	    throw new IllegalStateException("Error with the DWARF buffer: more than 2 GB in a single compile unit, "
+		    + "use a mode splitting the functions in several ones");
+	data = Arrays.copyOf(data, (int) Math.min(Math.max(data.length * 2L, needed), maxSize));
+    }
+
+    public void put8(int value)
+    {
+	ensureCapacity(1);
+	data[size++] = (byte) value;
+    }
+
+    public void put16(int value)
+    {
+	putFixed(value, 2);
+    }
+
+    public void put32(long value)
+    {
+	putFixed(value, 4);
+    }
+
+    public void put64(long value)
+    {
+	putFixed(value, 8);
+    }
+
+    // Writes the lowest byteCount bytes of value in the buffer's byte order
+    public void putFixed(long value, int byteCount)
+    {
+	ensureCapacity(byteCount);
+	setFixed(size, value, byteCount);
+	size += byteCount;
+    }
+
+    public void setFixed(int offset, long value, int byteCount)
+    {
+	for (int i = 0; i < byteCount; i++)
+	{
+	    int shift = littleEndian ? i * 8 : (byteCount - 1 - i) * 8;
+	    data[offset + i] = (byte) (value >>> shift);
+	}
+    }
+
+    public void putUleb128(long value)
+    {
+	ensureCapacity(10);
+	do
+	{
+	    byte b = (byte) (value & 0x7F);
+	    value >>>= 7;
+	    if (value != 0)
+		b |= 0x80;
+	    data[size++] = b;
+	} while (value != 0);
+    }
+
+    public void putSleb128(long value)
+    {
+	ensureCapacity(10);
+	boolean more = true;
+	while (more)
+	{
+	    byte b = (byte) (value & 0x7F);
+	    value >>= 7;
+	    if ((value == 0 && (b & 0x40) == 0) || (value == -1 && (b & 0x40) != 0))
+		more = false;
+	    else
+		b |= 0x80;
+	    data[size++] = b;
+	}
+    }
+
+    public void putBytes(byte[] bytes)
+    {
+	putBytes(bytes, 0, bytes.length);
+    }
+
+    public void putBytes(byte[] bytes, int offset, int length)
+    {
+	ensureCapacity(length);
+	System.arraycopy(bytes, offset, data, size, length);
+	size += length;
+    }
+
+    public void putBytes(ByteBuffer bytes)
+    {
+	int length = bytes.remaining();
+	ensureCapacity(length);
+	bytes.duplicate().get(data, size, length);
+	size += length;
+    }
+
+    public void putCString(String str)
+    {
+	putBytes(str.getBytes(StandardCharsets.UTF_8));
+	put8(0);
+    }
+
+    public byte[] toByteArray()
+    {
+	return Arrays.copyOf(data, size);
+    }
+}
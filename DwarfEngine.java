@@ -0,0 +1,34 @@
+import java.util.ArrayList;
+
+// A producer of the DWARF sections for a single compile unit
+public interface DwarfEngine
+{
+    void addFunction(String name, long start, long end) throws Exception;
+
+    // Adds a line sequence of the function ending at end, one pseudo-line per
+    // address, engines created without a line table ignore it
+    void addLines(long[] addresses, int offset, int count, long end) throws Exception;
+
+    // Adds the call frame information of the code in [start, end], the CFA
+    // offset changes to cfaOffsets[i] at addresses[i], engines created
+    // without a frame convention ignore it
+    void addFrame(long start, long end, long[] addresses, int[] cfaOffsets, int offset, int count) throws Exception;
+
+    // Adds the DIEs of every type of the table to the compile unit
+    void addTypes(TypeTable types) throws Exception;
+
+    // Adds a global variable at address, typeId is the id of its type in the
+    // table given to addTypes or -1 when it has none
+    void addVariable(String name, long address, int typeId) throws Exception;
+
+    // Adds a parameter or a local variable to the last function added, it is
+    // in the DWARF register when register isn't negative, otherwise at
+    // frameOffset from the frame base, which is the CFA
+    void addLocal(String name, boolean parameter, int typeId, int register, long frameOffset) throws Exception;
+
+    // The sections may reference memory owned by the engine, they are only
+    // valid until finish() is called
+    ArrayList<SectionInfo> generateSections() throws Exception;
+
+    void finish() throws Exception;
+}
@@ -0,0 +1,354 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+
+// Minimal reader of the DWARF sections produced by the engines, enough to
+// walk the unit headers and the DIEs of .debug_info
+public class DwarfReader
+{
+    public static class UnitHeader
+    {
+	public int offset;
+	public boolean is64BitFormat;
+	public int offsetSize;
+	public int version;
+	public int addressSize;
+	public int abbrevOffsetPosition;
+	public long abbrevOffset;
+	// offset of the first DIE and of the next unit
+	public int dieOffset;
+	public int end;
+    }
+
+    public static class Abbreviation
+    {
+	public int tag;
+	public boolean hasChildren;
+	public int[] attributes;
+	public int[] forms;
+	public long[] implicitConstants;
+    }
+
+    public static UnitHeader readUnitHeader(ByteBuffer info, int offset)
+    {
+	UnitHeader header = new UnitHeader();
+	header.offset = offset;
+	header.is64BitFormat = info.getInt(offset) == 0xFFFFFFFF;
+	header.offsetSize = header.is64BitFormat ? 8 : 4;
+	long unitLength = header.is64BitFormat ? info.getLong(offset + 4) : info.getInt(offset) & 0xFFFFFFFFL;
+	int headerStart = offset + (header.is64BitFormat ? 12 : 4);
+	header.end = headerStart + (int) unitLength;
+	header.version = info.getShort(headerStart) & 0xFFFF;
+	// DWARF 5 has the unit type and address size before the abbreviation offset
+	if (header.version >= 5)
+	{
+	    header.addressSize = info.get(headerStart + 3) & 0xFF;
+	    header.abbrevOffsetPosition = headerStart + 4;
+	    header.dieOffset = header.abbrevOffsetPosition + header.offsetSize;
+	}
+	else
+	{
+	    header.abbrevOffsetPosition = headerStart + 2;
+	    header.addressSize = info.get(header.abbrevOffsetPosition + header.offsetSize) & 0xFF;
+	    header.dieOffset = header.abbrevOffsetPosition + header.offsetSize + 1;
+	}
+	header.abbrevOffset = readFixed(info, header.abbrevOffsetPosition, header.offsetSize);
+	return header;
+    }
+
+    // Reads the abbreviation table at tableOffset, indexed by code
+    public static HashMap<Long, Abbreviation> readAbbreviations(ByteBuffer abbrev, int tableOffset)
+    {
+	HashMap<Long, Abbreviation> abbreviations = new HashMap<Long, Abbreviation>();
+	ByteBuffer buf = abbrev.duplicate();
+	buf.position(tableOffset);
+	while (buf.hasRemaining())
+	{
+	    long code = readUleb128(buf);
+	    if (code == 0)
+		break;
+	    Abbreviation abbreviation = new Abbreviation();
+	    abbreviation.tag = (int) readUleb128(buf);
+	    abbreviation.hasChildren = buf.get() != 0;
+
+	    int start = buf.position();
+	    int count = 0;
+	    while (true)
+	    {
+		long attribute = readUleb128(buf);
+		long form = readUleb128(buf);
+		if (attribute == 0 && form == 0)
+		    break;
+		if (form == LibdwarfLibrary.DW_FORM_implicit_const)
+		    readSleb128(buf);
+		count++;
+	    }
+
+	    abbreviation.attributes = new int[count];
+	    abbreviation.forms = new int[count];
+	    abbreviation.implicitConstants = new long[count];
+	    buf.position(start);
+	    for (int i = 0; i < count; i++)
+	    {
+		abbreviation.attributes[i] = (int) readUleb128(buf);
+		abbreviation.forms[i] = (int) readUleb128(buf);
+		if (abbreviation.forms[i] == LibdwarfLibrary.DW_FORM_implicit_const)
+		    abbreviation.implicitConstants[i] = readSleb128(buf);
+	    }
+	    // the terminating pair
+	    readUleb128(buf);
+	    readUleb128(buf);
+	    abbreviations.put(code, abbreviation);
+	}
+	return abbreviations;
+    }
+
+    // Returns the value of an attribute of a constant, address, reference or
+    // offset form, skips the attribute and returns 0 for the other forms
+    public static long readAttribute(ByteBuffer buf, int form, int addressSize, int offsetSize) throws Exception
+    {
+	int position = buf.position();
+	switch (form)
+	{
+	case LibdwarfLibrary.DW_FORM_data1:
+	case LibdwarfLibrary.DW_FORM_ref1:
+	case LibdwarfLibrary.DW_FORM_flag:
+	case LibdwarfLibrary.DW_FORM_strx1:
+	case LibdwarfLibrary.DW_FORM_addrx1:
+	    buf.position(position + 1);
+	    return buf.get(position) & 0xFFL;
+	case LibdwarfLibrary.DW_FORM_data2:
+	case LibdwarfLibrary.DW_FORM_ref2:
+	case LibdwarfLibrary.DW_FORM_strx2:
+	case LibdwarfLibrary.DW_FORM_addrx2:
+	    buf.position(position + 2);
+	    return buf.getShort(position) & 0xFFFFL;
+	case LibdwarfLibrary.DW_FORM_data4:
+	case LibdwarfLibrary.DW_FORM_ref4:
+	case LibdwarfLibrary.DW_FORM_strx4:
+	case LibdwarfLibrary.DW_FORM_addrx4:
+	    buf.position(position + 4);
+	    return buf.getInt(position) & 0xFFFFFFFFL;
+	case LibdwarfLibrary.DW_FORM_data8:
+	case LibdwarfLibrary.DW_FORM_ref8:
+	    buf.position(position + 8);
+	    return buf.getLong(position);
+	case LibdwarfLibrary.DW_FORM_addr:
+	    buf.position(position + addressSize);
+	    return readFixed(buf, position, addressSize);
+	case LibdwarfLibrary.DW_FORM_strp:
+	case LibdwarfLibrary.DW_FORM_line_strp:
+	case LibdwarfLibrary.DW_FORM_sec_offset:
+	case LibdwarfLibrary.DW_FORM_ref_addr:
+	    buf.position(position + offsetSize);
+	    return readFixed(buf, position, offsetSize);
+	case LibdwarfLibrary.DW_FORM_udata:
+	case LibdwarfLibrary.DW_FORM_ref_udata:
+	case LibdwarfLibrary.DW_FORM_strx:
+	case LibdwarfLibrary.DW_FORM_addrx:
+	    return readUleb128(buf);
+	case LibdwarfLibrary.DW_FORM_sdata:
+	    return readSleb128(buf);
+	default:
+	    skipAttribute(buf, form, addressSize, offsetSize);
+	    return 0;
+	}
+    }
+
+    public static void skipAttribute(ByteBuffer buf, int form, int addressSize, int offsetSize) throws Exception
+    {
+	int position = buf.position();
+	switch (form)
+	{
+	case LibdwarfLibrary.DW_FORM_flag_present:
+	case LibdwarfLibrary.DW_FORM_implicit_const:
+	    break;
+	case LibdwarfLibrary.DW_FORM_strx3:
+	case LibdwarfLibrary.DW_FORM_addrx3:
+	    buf.position(position + 3);
+	    break;
+	case LibdwarfLibrary.DW_FORM_data16:
+	    buf.position(position + 16);
+	    break;
+	case LibdwarfLibrary.DW_FORM_string:
+	    while (buf.get() != 0)
+		;
+	    break;
+	case LibdwarfLibrary.DW_FORM_block1:
+	    buf.position(position + 1 + (buf.get(position) & 0xFF));
+	    break;
+	case LibdwarfLibrary.DW_FORM_block2:
+	    buf.position(position + 2 + (buf.getShort(position) & 0xFFFF));
+	    break;
+	case LibdwarfLibrary.DW_FORM_block4:
+	    buf.position(position + 4 + buf.getInt(position));
+	    break;
+	case LibdwarfLibrary.DW_FORM_block:
+	case LibdwarfLibrary.DW_FORM_exprloc:
+	    long length = readUleb128(buf);
+	    buf.position(buf.position() + (int) length);
+	    break;
+	case LibdwarfLibrary.DW_FORM_data1:
+	case LibdwarfLibrary.DW_FORM_ref1:
+	case LibdwarfLibrary.DW_FORM_flag:
+	case LibdwarfLibrary.DW_FORM_strx1:
+	case LibdwarfLibrary.DW_FORM_addrx1:
+	case LibdwarfLibrary.DW_FORM_data2:
+	case LibdwarfLibrary.DW_FORM_ref2:
+	case LibdwarfLibrary.DW_FORM_strx2:
+	case LibdwarfLibrary.DW_FORM_addrx2:
+	case LibdwarfLibrary.DW_FORM_data4:
+	case LibdwarfLibrary.DW_FORM_ref4:
+	case LibdwarfLibrary.DW_FORM_strx4:
+	case LibdwarfLibrary.DW_FORM_addrx4:
+	case LibdwarfLibrary.DW_FORM_data8:
+	case LibdwarfLibrary.DW_FORM_ref8:
+	case LibdwarfLibrary.DW_FORM_addr:
+	case LibdwarfLibrary.DW_FORM_strp:
+	case LibdwarfLibrary.DW_FORM_line_strp:
+	case LibdwarfLibrary.DW_FORM_sec_offset:
+	case LibdwarfLibrary.DW_FORM_ref_addr:
+	case LibdwarfLibrary.DW_FORM_udata:
+	case LibdwarfLibrary.DW_FORM_ref_udata:
+	case LibdwarfLibrary.DW_FORM_strx:
+	case LibdwarfLibrary.DW_FORM_addrx:
+	case LibdwarfLibrary.DW_FORM_sdata:
+	    readAttribute(buf, form, addressSize, offsetSize);
+	    break;
+	default:
+	    throw new Exception("Error with DWARF form " + form + ": unsupported");
+	}
+    }
+
+    // Counts the DIEs of every unit of .debug_info, the null entries ending the lists of children excluded
+    // The units are read one at a time, the section may be over 2 GB
+    public static long countDies(SectionInfo info, SectionInfo abbrevSection, ByteOrder byteOrder) throws Exception
+    {
+	SectionReader reader = new SectionReader(info, byteOrder);
+	ByteBuffer abbrev = toByteBuffer(abbrevSection, byteOrder);
+	HashMap<Long, HashMap<Long, Abbreviation>> abbrevTables = new HashMap<>();
+	long count = 0;
+	long offset = 0;
+	while (offset < reader.size())
+	{
+	    long end = reader.getEntryEnd(offset);
+	    ByteBuffer unit = reader.slice(offset, end - offset);
+	    UnitHeader header = readUnitHeader(unit, 0);
+	    HashMap<Long, Abbreviation> abbreviations = abbrevTables.computeIfAbsent(header.abbrevOffset,
+		    tableOffset -> readAbbreviations(abbrev, (int) (long) tableOffset));
+	    unit.position(header.dieOffset);
+	    while (unit.position() < header.end)
+	    {
+		long code = readUleb128(unit);
+		if (code == 0)
+		    continue;
+		Abbreviation decl = abbreviations.get(code);
+		if (decl == null)
+		    throw new Exception("Error with the DIE at " + (offset + unit.position() - 1) + ": abbreviation " + code
+			    + " not found");
+		for (int form : decl.forms)
+		    skipAttribute(unit, form, header.addressSize, header.offsetSize);
+		count++;
+	    }
+	    offset = end;
+	}
+	return count;
+    }
+
+    public static String readCString(ByteBuffer buf)
+    {
+	int start = buf.position();
+	while (buf.get() != 0)
+	    ;
+	byte[] bytes = new byte[buf.position() - start - 1];
+	buf.duplicate().position(start).get(bytes);
+	return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static long readUleb128(ByteBuffer buf)
+    {
+	long value = 0;
+	int shift = 0;
+	byte b;
+	do
+	{
+	    b = buf.get();
+	    value |= (long) (b & 0x7F) << shift;
+	    shift += 7;
+	} while ((b & 0x80) != 0);
+	return value;
+    }
+
+    public static long readSleb128(ByteBuffer buf)
+    {
+	long value = 0;
+	int shift = 0;
+	byte b;
+	do
+	{
+	    b = buf.get();
+	    value |= (long) (b & 0x7F) << shift;
+	    shift += 7;
+	} while ((b & 0x80) != 0);
+	if (shift < 64 && (b & 0x40) != 0)
+	    value |= -1L << shift;
+	return value;
+    }
+
+    public static long readFixed(ByteBuffer buf, int position, int size)
+    {
+	switch (size)
+	{
+	case 1:
+	    return buf.get(position) & 0xFFL;
+	case 2:
+	    return buf.getShort(position) & 0xFFFFL;
+	case 8:
+	    return buf.getLong(position);
+	default:
+	    return buf.getInt(position) & 0xFFFFFFFFL;
+	}
+    }
+
+    public static void writeFixed(ByteBuffer buf, int position, long value, int size)
+    {
+	if (size == 8)
+	    buf.putLong(position, value);
+	else
+	    buf.putInt(position, (int) value);
+    }
+
+    public static SectionInfo find(List<SectionInfo> sections, String name)
+    {
+	for (SectionInfo section : sections)
+	{
+	    if (section.name.equals(name))
+		return section;
+	}
+	return null;
+    }
+
+    // A view on the content when it is a single chunk, a copy otherwise
+    public static ByteBuffer toByteBuffer(SectionInfo section, ByteOrder byteOrder)
+    {
+	if (section.chunks.size() == 1)
+	    return section.chunks.get(0).slice().order(byteOrder);
+	return ByteBuffer.wrap(toByteArray(section)).order(byteOrder);
+    }
+
+    public static byte[] toByteArray(SectionInfo section)
+    {
+	// only for the sections bounded by the engines, the others use a SectionReader
+	byte[] content = new byte[Math.toIntExact(section.size())];
+	int offset = 0;
+	for (ByteBuffer chunk : section.chunks)
+	{
+	    int length = chunk.remaining();
+	    chunk.duplicate().get(content, offset, length);
+	    offset += length;
+	}
+	return content;
+    }
+}
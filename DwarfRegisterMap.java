@@ -0,0 +1,105 @@
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ghidra.program.model.lang.Register;
+
+// Maps the registers of a processor to their DWARF register numbers. The map
+// of a processor is built once and shared by every export, and the number of
+// a register is only searched by name the first time the register is met.
+public class DwarfRegisterMap
+{
+    private static final ConcurrentHashMap<String, DwarfRegisterMap> maps =
+	    new ConcurrentHashMap<String, DwarfRegisterMap>();
+
+    // the DWARF numbers by lower case register name
+    private final HashMap<String, Integer> numbers = new HashMap<String, Integer>();
+    private final ConcurrentHashMap<Register, Integer> registers = new ConcurrentHashMap<Register, Integer>();
+
+    // The map of the processor, empty if its registers aren't known
+    public static DwarfRegisterMap get(String processor, int pointerSize)
+    {
+	return maps.computeIfAbsent(processor + ":" + pointerSize, key -> new DwarfRegisterMap(processor, pointerSize));
+    }
+
+    private DwarfRegisterMap(String processor, int pointerSize)
+    {
+	switch (processor)
+	{
+	case "ARM":
+	    addRange("r", 0, 13, 0);
+	    add(13, "sp", "lr", "pc");
+	    addRange("s", 0, 32, 64);
+	    addRange("d", 0, 32, 256);
+	    break;
+	case "AArch64":
+	    addRange("x", 0, 31, 0);
+	    add(31, "sp");
+	    addRange("q", 0, 32, 64);
+	    addRange("d", 0, 32, 64);
+	    addRange("s", 0, 32, 64);
+	    break;
+	case "PowerPC":
+	    addRange("r", 0, 32, 0);
+	    addRange("f", 0, 32, 32);
+	    break;
+	case "MIPS":
+	    add(0, "zero", "at", "v0", "v1", "a0", "a1", "a2", "a3", "t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7",
+		    "s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7", "t8", "t9", "k0", "k1", "gp", "sp", "s8", "ra");
+	    add(30, "fp");
+	    addRange("f", 0, 32, 32);
+	    break;
+	case "x86":
+	    if (pointerSize <= 4)
+	    {
+		add(0, "eax", "ecx", "edx", "ebx", "esp", "ebp", "esi", "edi", "eip");
+		addRange("st", 0, 8, 11);
+		addRange("xmm", 0, 8, 21);
+	    }
+	    else
+	    {
+		add(0, "rax", "rdx", "rcx", "rbx", "rsi", "rdi", "rbp", "rsp");
+		addRange("r", 8, 16, 8);
+		add(16, "rip");
+		addRange("xmm", 0, 16, 17);
+		addRange("st", 0, 8, 33);
+	    }
+	    break;
+	}
+    }
+
+    // Numbers the names from first
+    private void add(int first, String... names)
+    {
+	for (int i = 0; i < names.length; i++)
+	    numbers.put(names[i], first + i);
+    }
+
+    // Numbers <prefix><from> to <prefix><to - 1> from first
+    private void addRange(String prefix, int from, int to, int first)
+    {
+	for (int i = from; i < to; i++)
+	    numbers.put(prefix + i, first + i - from);
+    }
+
+    // Returns the DWARF number of the register, or of the first of its
+    // parents having one, -1 if there is none
+    public int getNumber(Register register)
+    {
+	Integer number = registers.get(register);
+	if (number != null)
+	    return number;
+
+	number = -1;
+	for (Register r = register; r != null; r = r.getParentRegister())
+	{
+	    Integer found = numbers.get(r.getName().toLowerCase());
+	    if (found != null)
+	    {
+		number = found;
+		break;
+	    }
+	}
+	registers.put(register, number);
+	return number;
+    }
+}
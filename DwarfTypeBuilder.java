@@ -0,0 +1,236 @@
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import ghidra.program.model.data.AbstractFloatDataType;
+import ghidra.program.model.data.AbstractIntegerDataType;
+import ghidra.program.model.data.Array;
+import ghidra.program.model.data.BooleanDataType;
+import ghidra.program.model.data.CharDataType;
+import ghidra.program.model.data.Composite;
+import ghidra.program.model.data.DataType;
+import ghidra.program.model.data.DataTypeComponent;
+import ghidra.program.model.data.DataTypeManager;
+import ghidra.program.model.data.Enum;
+import ghidra.program.model.data.Pointer;
+import ghidra.program.model.data.Structure;
+import ghidra.program.model.data.TypeDef;
+import ghidra.program.model.data.Union;
+import ghidra.program.model.data.VoidDataType;
+
+// Converts Ghidra data types to a canonical TypeTable.
+//
+// The key of a type describes its structure, but named types (composites,
+// enums and typedefs) are identified by their path, category and name, both
+// in their own key and in the keys of the types referring to them. Recursive
+// types through pointers then have finite keys, and a named type and every
+// reference to it agree on a single DIE, the types of the same name in
+// different categories staying apart.
+public class DwarfTypeBuilder
+{
+    private final TypeTable table = new TypeTable();
+    private final IdentityHashMap<DataType, Integer> converted = new IdentityHashMap<DataType, Integer>();
+    private final int pointerSize;
+
+    public DwarfTypeBuilder(int pointerSize)
+    {
+	this.pointerSize = pointerSize;
+    }
+
+    public TypeTable getTypes()
+    {
+	return table;
+    }
+
+    public void addAll(DataTypeManager dtm)
+    {
+	Iterator<DataType> dataTypes = dtm.getAllDataTypes();
+	while (dataTypes.hasNext())
+	    getTypeId(dataTypes.next());
+    }
+
+    // Returns the id of the type in the table, -1 for void or types without a size
+    public int getTypeId(DataType dt)
+    {
+	if (isVoid(dt))
+	    return -1;
+	Integer id = converted.get(dt);
+	if (id != null)
+	    return id;
+
+	String key = getKey(dt);
+	int existing = table.find(key);
+	if (existing >= 0)
+	{
+	    converted.put(dt, existing);
+	    return existing;
+	}
+
+	TypeTable.Type type = new TypeTable.Type();
+	int newId = table.add(key, type);
+	converted.put(dt, newId);
+	fill(dt, type);
+	return newId;
+    }
+
+    // Returns the id of a type structurally identical to one already in the
+    // table, -1 if there is none, without adding anything to the table
+    public int findTypeId(DataType dt)
+    {
+	if (isVoid(dt))
+	    return -1;
+	Integer id = converted.get(dt);
+	if (id != null)
+	    return id;
+	return table.find(getKey(dt));
+    }
+
+    private boolean isVoid(DataType dt)
+    {
+	if (dt == null || dt instanceof VoidDataType)
+	    return true;
+	if (dt instanceof Pointer || dt instanceof TypeDef || dt instanceof Composite || dt instanceof Enum)
+	    return false;
+	return dt.getLength() <= 0;
+    }
+
+    private String getKey(DataType dt)
+    {
+	if (dt instanceof Pointer)
+	    return "P" + getPointerSize(dt) + "(" + getReferenceKey(((Pointer) dt).getDataType()) + ")";
+	if (dt instanceof Array)
+	{
+	    Array array = (Array) dt;
+	    return "A" + array.getNumElements() + "(" + getReferenceKey(array.getDataType()) + ")";
+	}
+	if (dt instanceof TypeDef)
+	    return "T" + dt.getPathName() + "(" + getReferenceKey(((TypeDef) dt).getDataType()) + ")";
+	if (dt instanceof Enum)
+	{
+	    Enum enumType = (Enum) dt;
+	    StringBuilder key = new StringBuilder("E" + dt.getPathName() + ":" + dt.getLength() + "{");
+	    for (String name : enumType.getNames())
+		key.append(name).append('=').append(enumType.getValue(name)).append(';');
+	    return key.append('}').toString();
+	}
+	if (dt instanceof Composite)
+	{
+	    StringBuilder key = new StringBuilder((dt instanceof Union ? "U" : "S") + dt.getPathName() + ":"
+		    + dt.getLength() + "{");
+	    for (DataTypeComponent component : getMembers((Composite) dt))
+	    {
+		key.append(getMemberName(component)).append('@').append(component.getOffset()).append(':')
+			.append(getReferenceKey(component.getDataType())).append(';');
+	    }
+	    return key.append('}').toString();
+	}
+	return "B" + dt.getName() + ":" + dt.getLength() + ":" + getEncoding(dt);
+    }
+
+    private String getReferenceKey(DataType dt)
+    {
+	if (isVoid(dt))
+	    return "V";
+	if (dt instanceof Composite || dt instanceof Enum || dt instanceof TypeDef)
+	    return "N" + (dt instanceof Union ? "U" : dt instanceof Enum ? "E" : dt instanceof TypeDef ? "T" : "S")
+		    + dt.getPathName() + ":" + dt.getLength();
+	return getKey(dt);
+    }
+
+    private void fill(DataType dt, TypeTable.Type type)
+    {
+	type.name = dt.getName();
+	if (dt instanceof Pointer)
+	{
+	    type.tag = LibdwarfLibrary.DW_TAG_pointer_type;
+	    type.name = null;
+	    type.byteSize = getPointerSize(dt);
+	    type.typeId = getTypeId(((Pointer) dt).getDataType());
+	}
+	else if (dt instanceof Array)
+	{
+	    Array array = (Array) dt;
+	    type.tag = LibdwarfLibrary.DW_TAG_array_type;
+	    type.name = null;
+	    type.count = array.getNumElements();
+	    type.typeId = getTypeId(array.getDataType());
+	}
+	else if (dt instanceof TypeDef)
+	{
+	    type.tag = LibdwarfLibrary.DW_TAG_typedef;
+	    type.typeId = getTypeId(((TypeDef) dt).getDataType());
+	}
+	else if (dt instanceof Enum)
+	{
+	    Enum enumType = (Enum) dt;
+	    type.tag = LibdwarfLibrary.DW_TAG_enumeration_type;
+	    type.byteSize = dt.getLength();
+	    for (String name : enumType.getNames())
+	    {
+		type.enumeratorNames.add(name);
+		type.enumeratorValues.add(enumType.getValue(name));
+	    }
+	}
+	else if (dt instanceof Composite)
+	{
+	    type.tag = dt instanceof Union ? LibdwarfLibrary.DW_TAG_union_type : LibdwarfLibrary.DW_TAG_structure_type;
+	    type.byteSize = Math.max(dt.getLength(), 0);
+	    for (DataTypeComponent component : getMembers((Composite) dt))
+	    {
+		int memberTypeId = getTypeId(component.getDataType());
+		if (memberTypeId < 0)
+		    continue;
+		TypeTable.Member member = new TypeTable.Member();
+		member.name = getMemberName(component);
+		member.offset = component.getOffset();
+		member.typeId = memberTypeId;
+		type.members.add(member);
+	    }
+	}
+	else
+	{
+	    type.tag = LibdwarfLibrary.DW_TAG_base_type;
+	    type.byteSize = dt.getLength();
+	    type.encoding = getEncoding(dt);
+	}
+    }
+
+    private DataTypeComponent[] getMembers(Composite composite)
+    {
+	// bitfields aren't exported, and a structure's undefined filler isn't a member
+	DataTypeComponent[] components = composite instanceof Structure ? composite.getDefinedComponents()
+		: composite.getComponents();
+	int count = 0;
+	for (DataTypeComponent component : components)
+	{
+	    if (!component.isBitFieldComponent())
+		components[count++] = component;
+	}
+	return java.util.Arrays.copyOf(components, count);
+    }
+
+    private static String getMemberName(DataTypeComponent component)
+    {
+	String name = component.getFieldName();
+	return name != null ? name : component.getDefaultFieldName();
+    }
+
+    private int getPointerSize(DataType dt)
+    {
+	return dt.getLength() > 0 ? dt.getLength() : pointerSize;
+    }
+
+    private static int getEncoding(DataType dt)
+    {
+	if (dt instanceof CharDataType)
+	    return ((CharDataType) dt).isSigned() ? LibdwarfLibrary.DW_ATE_signed_char
+		    : LibdwarfLibrary.DW_ATE_unsigned_char;
+	if (dt instanceof BooleanDataType)
+	    return LibdwarfLibrary.DW_ATE_boolean;
+	if (dt instanceof AbstractFloatDataType)
+	    return LibdwarfLibrary.DW_ATE_float;
+	if (dt instanceof AbstractIntegerDataType && ((AbstractIntegerDataType) dt).isSigned())
+	    return LibdwarfLibrary.DW_ATE_signed;
+	// undefined and everything else is shown as unsigned data
+	return LibdwarfLibrary.DW_ATE_unsigned;
+    }
+}
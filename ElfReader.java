@@ -0,0 +1,149 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Minimal reader for the section only ELF files made by ElfWriter
+public class ElfReader
+{
+    private static final int chunkSize = 1 << 30;
+
+    // Returns the content of the named section or null if the file or section
+    // doesn't exist, read in chunks as it may be over 2 GB and inflated if the
+    // section is compressed
+    public static SectionReader readSection(File file, String name) throws IOException
+    {
+	if (!file.isFile())
+	    return null;
+
+	try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+	{
+	    ByteBuffer ident = read(channel, 0, 16);
+	    if (ident.getInt(0) != 0x7F454C46)
+		return null;
+	    boolean is64Bit = ident.get(4) == 2;
+	    ByteOrder byteOrder = ident.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+	    ByteBuffer header = read(channel, 0, is64Bit ? 0x40 : 0x34).order(byteOrder);
+	    long sectionHeadersOffset = is64Bit ? header.getLong(0x28) : header.getInt(0x20) & 0xFFFFFFFFL;
+	    int entrySize = header.getShort(is64Bit ? 0x3A : 0x2E) & 0xFFFF;
+	    int sectionCount = header.getShort(is64Bit ? 0x3C : 0x30) & 0xFFFF;
+	    int namesIndex = header.getShort(is64Bit ? 0x3E : 0x32) & 0xFFFF;
+
+	    ByteBuffer sectionHeaders = read(channel, sectionHeadersOffset, entrySize * sectionCount).order(byteOrder);
+	    int namesHeader = namesIndex * entrySize;
+	    ByteBuffer names = read(channel, getWord(sectionHeaders, namesHeader + (is64Bit ? 0x18 : 0x10), is64Bit),
+		    (int) getWord(sectionHeaders, namesHeader + (is64Bit ? 0x20 : 0x14), is64Bit));
+	    byte[] wanted = name.getBytes(StandardCharsets.UTF_8);
+	    for (int i = 1; i < sectionCount; i++)
+	    {
+		int sectionHeader = i * entrySize;
+		int nameOffset = sectionHeaders.getInt(sectionHeader);
+		if (!nameMatches(names, nameOffset, wanted))
+		    continue;
+		long flags = getWord(sectionHeaders, sectionHeader + 0x08, is64Bit);
+		long offset = getWord(sectionHeaders, sectionHeader + (is64Bit ? 0x18 : 0x10), is64Bit);
+		long size = getWord(sectionHeaders, sectionHeader + (is64Bit ? 0x20 : 0x14), is64Bit);
+		SectionInfo section = new SectionInfo(name);
+		for (long position = 0; position < size; position += chunkSize)
+		    section.chunks.add(read(channel, offset + position, (int) Math.min(size - position, chunkSize)));
+		if ((flags & ElfWriter.elfSectionFlagCompressed) != 0)
+		    section = inflate(section, is64Bit, byteOrder);
+		return new SectionReader(section, byteOrder);
+	    }
+	    return null;
+	}
+    }
+
+    // The content of a SHF_COMPRESSED section, made of its compression header
+    // and of the zlib stream of the content
+    private static SectionInfo inflate(SectionInfo compressed, boolean is64Bit, ByteOrder byteOrder) throws IOException
+    {
+	int headerSize = is64Bit ? 0x18 : 0x0C;
+	ByteBuffer first = compressed.chunks.isEmpty() ? ByteBuffer.allocate(0) : compressed.chunks.get(0).duplicate();
+	first.order(byteOrder);
+	if (first.remaining() < headerSize || first.getInt(0) != SectionCompressor.elfCompressZlib)
+	    throw new IOException("Error with the section " + compressed.name + ": unsupported compression");
+	long size = is64Bit ? first.getLong(8) : first.getInt(4) & 0xFFFFFFFFL;
+	first.position(headerSize);
+
+	SectionInfo section = new SectionInfo(compressed.name);
+	Inflater inflater = new Inflater();
+	try
+	{
+	    byte[] block = null;
+	    int blockUsed = 0;
+	    long inflated = 0;
+	    int index = 0;
+	    while (inflated < size)
+	    {
+		if (inflater.needsInput())
+		{
+		    if (index == compressed.chunks.size())
+			throw new IOException("Error with the section " + compressed.name + ": truncated zlib stream");
+		    inflater.setInput(index == 0 ? first : compressed.chunks.get(index).duplicate());
+		    index++;
+		    continue;
+		}
+		if (block == null)
+		{
+		    block = new byte[(int) Math.min(size - inflated, chunkSize)];
+		    blockUsed = 0;
+		}
+		int count = inflater.inflate(block, blockUsed, block.length - blockUsed);
+		if (count == 0 && (inflater.finished() || inflater.needsDictionary()))
+		    throw new IOException("Error with the section " + compressed.name + ": truncated zlib stream");
+		blockUsed += count;
+		inflated += count;
+		if (blockUsed == block.length)
+		{
+		    section.chunks.add(ByteBuffer.wrap(block));
+		    block = null;
+		}
+	    }
+	}
+	catch (DataFormatException e)
+	{
+	    throw new IOException("Error with the section " + compressed.name + ": " + e.getMessage(), e);
+	}
+	finally
+	{
+	    inflater.end();
+	}
+	return section;
+    }
+
+    private static boolean nameMatches(ByteBuffer names, int offset, byte[] wanted)
+    {
+	if (offset + wanted.length >= names.limit())
+	    return false;
+	for (int i = 0; i < wanted.length; i++)
+	{
+	    if (names.get(offset + i) != wanted[i])
+		return false;
+	}
+	return names.get(offset + wanted.length) == 0;
+    }
+
+    private static long getWord(ByteBuffer buf, int offset, boolean is64Bit)
+    {
+	return is64Bit ? buf.getLong(offset) : buf.getInt(offset) & 0xFFFFFFFFL;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException
+    {
+	ByteBuffer buf = ByteBuffer.allocate(length);
+	while (buf.hasRemaining())
+	{
+	    if (channel.read(buf, position + buf.position()) < 0)
+		throw new IOException("Unexpected end of the ELF file");
+	}
+	buf.flip();
+	return buf;
+    }
+}
@@ -0,0 +1,185 @@
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// The function symbols of .symtab kept as parallel arrays, their names
+// appended to the .strtab content as they are added. The sections are
+// written in a single pass over the symbols sorted by address. Each symbol is
+// in a SHT_NOBITS code section covering the memory of its function, so GDB
+// reads them as text symbols it can find the function of a pc with.
+public class ElfSymbolTable
+{
+    private static final int symbolEntrySize32Bit = 0x10;
+    private static final int symbolEntrySize64Bit = 0x18;
+    // STB_GLOBAL and STT_FUNC
+    private static final int symbolInfoGlobalFunction = (1 << 4) | 2;
+    private static final int sectionIndexAbsolute = 0xFFF1;
+    // SHF_ALLOC and SHF_EXECINSTR
+    private static final long codeSectionFlags = 0x2 | 0x4;
+
+    private int[] nameOffsets;
+    private long[] values;
+    private long[] sizes;
+    private int size;
+    private boolean isSorted = true;
+    private DwarfBuffer names = new DwarfBuffer(ByteOrder.LITTLE_ENDIAN);
+    // the memory holding the functions, as inclusive address ranges
+    private final ArrayList<String> codeNames = new ArrayList<String>();
+    private final ArrayList<long[]> codeRanges = new ArrayList<long[]>();
+
+    public ElfSymbolTable(int initialCapacity)
+    {
+	int capacity = Math.max(initialCapacity, 1);
+	nameOffsets = new int[capacity];
+	values = new long[capacity];
+	sizes = new long[capacity];
+	// the empty name of the null symbol
+	names.put8(0);
+    }
+
+    public int size()
+    {
+	return size;
+    }
+
+    // Adds memory holding functions, a code section covers it along with the
+    // overlapping or adjacent ranges
+    public void addCode(String name, long start, long end)
+    {
+	codeNames.add(name);
+	codeRanges.add(new long[] { start, end });
+    }
+
+    public void add(String name, long value, long symbolSize)
+    {
+	if (size == values.length)
+	{
+	    int capacity = size * 2;
+	    nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+	    values = Arrays.copyOf(values, capacity);
+	    sizes = Arrays.copyOf(sizes, capacity);
+	}
+	if (size > 0 && Long.compareUnsigned(value, values[size - 1]) < 0)
+	    isSorted = false;
+	nameOffsets[size] = names.size();
+	names.putCString(name);
+	values[size] = value;
+	sizes[size] = symbolSize;
+	size++;
+    }
+
+    // Returns the code sections then the .symtab and .strtab sections, the
+    // code sections being at firstSectionIndex in the file. The symbols
+    // outside of the code are absolute.
+    public ArrayList<SectionInfo> generateSections(boolean is64Bit, ByteOrder byteOrder, int firstSectionIndex)
+    {
+	ArrayList<SectionInfo> sections = buildCodeSections();
+	long[] codeStarts = new long[sections.size()];
+	long[] codeEnds = new long[sections.size()];
+	for (int i = 0; i < codeStarts.length; i++)
+	{
+	    codeStarts[i] = sections.get(i).address;
+	    codeEnds[i] = sections.get(i).address + sections.get(i).noBitsSize - 1;
+	}
+
+	int[] order = sortedOrder();
+	int entrySize = is64Bit ? symbolEntrySize64Bit : symbolEntrySize32Bit;
+	DwarfBuffer symbols = new DwarfBuffer(byteOrder, (size + 1) * entrySize);
+	// the null symbol
+	for (int i = 0; i < entrySize; i++)
+	    symbols.put8(0);
+	// the symbols and the code sections are both by address
+	int code = 0;
+	for (int i = 0; i < size; i++)
+	{
+	    int symbol = order != null ? order[i] : i;
+	    while (code < codeEnds.length && Long.compareUnsigned(codeEnds[code], values[symbol]) < 0)
+		code++;
+	    int sectionIndex = sectionIndexAbsolute;
+	    if (code < codeStarts.length && Long.compareUnsigned(codeStarts[code], values[symbol]) <= 0)
+		sectionIndex = firstSectionIndex + code;
+	    symbols.put32(nameOffsets[symbol]);
+	    if (is64Bit)
+	    {
+		symbols.put8(symbolInfoGlobalFunction);
+		// default visibility
+		symbols.put8(0);
+		symbols.put16(sectionIndex);
+		symbols.put64(values[symbol]);
+		symbols.put64(sizes[symbol]);
+	    }
+	    else
+	    {
+		symbols.put32(values[symbol]);
+		symbols.put32(sizes[symbol]);
+		symbols.put8(symbolInfoGlobalFunction);
+		symbols.put8(0);
+		symbols.put16(sectionIndex);
+	    }
+	}
+
+	SectionInfo strtab = new SectionInfo(".strtab", names.toByteArray());
+	strtab.type = ElfWriter.elfSectionTypeStrTab;
+	SectionInfo symtab = new SectionInfo(".symtab", symbols.toByteArray());
+	symtab.type = ElfWriter.elfSectionTypeSymTab;
+	symtab.alignment = is64Bit ? 8 : 4;
+	symtab.link = strtab.name;
+	// every symbol but the null one is global
+	symtab.info = 1;
+	symtab.entrySize = entrySize;
+
+	sections.add(symtab);
+	sections.add(strtab);
+	return sections;
+    }
+
+    // A code section for each set of overlapping or adjacent code ranges by
+    // address, only .text when there's one
+    private ArrayList<SectionInfo> buildCodeSections()
+    {
+	Integer[] order = new Integer[codeRanges.size()];
+	for (int i = 0; i < order.length; i++)
+	    order[i] = i;
+	Arrays.sort(order, (a, b) -> Long.compareUnsigned(codeRanges.get(a)[0], codeRanges.get(b)[0]));
+
+	ArrayList<SectionInfo> sections = new ArrayList<SectionInfo>();
+	long end = 0;
+	for (int range : order)
+	{
+	    long[] bounds = codeRanges.get(range);
+	    SectionInfo last = sections.isEmpty() ? null : sections.get(sections.size() - 1);
+	    if (last != null && (end == -1 || Long.compareUnsigned(bounds[0], end + 1) <= 0))
+	    {
+		if (Long.compareUnsigned(bounds[1], end) > 0)
+		    end = bounds[1];
+		last.noBitsSize = end - last.address + 1;
+		continue;
+	    }
+	    SectionInfo section = new SectionInfo(".text." + codeNames.get(range));
+	    section.type = ElfWriter.elfSectionTypeNoBits;
+	    section.flags = codeSectionFlags;
+	    section.address = bounds[0];
+	    section.noBitsSize = bounds[1] - bounds[0] + 1;
+	    end = bounds[1];
+	    sections.add(section);
+	}
+	if (sections.size() == 1)
+	    sections.get(0).name = ".text";
+	return sections;
+    }
+
+    // The symbols by address, null if they were added in order
+    private int[] sortedOrder()
+    {
+	if (isSorted)
+	    return null;
+	Integer[] order = new Integer[size];
+	for (int i = 0; i < size; i++)
+	    order[i] = i;
+	Arrays.sort(order, (a, b) -> Long.compareUnsigned(values[a], values[b]));
+	int[] sorted = new int[size];
+	for (int i = 0; i < size; i++)
+	    sorted[i] = order[i];
+	return sorted;
+    }
+}
@@ -0,0 +1,285 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+
+// Writes an ELF file made only of sections. The whole layout is computed
+// first, then the ELF header and section header table are encoded in a single
+// buffer and written along with the sections' content in one gathering write.
+public class ElfWriter
+{
+    private static final byte[] elfMagic = { 0x7F, 0x45, 0x4C, 0x46 };
+
+    private static final byte elfClass32Bit = 1;
+    private static final byte elfClass64Bit = 2;
+
+    private static final byte elfDataLittleEndian = 1;
+    private static final byte elfDataBigEndian = 2;
+
+    private static final byte elfVersion = 1;
+    private static final short elfTypeDyn = 3;
+
+    public static final int elfSectionTypeNull = 0;
+    public static final int elfSectionTypeProgBits = 1;
+    public static final int elfSectionTypeSymTab = 2;
+    public static final int elfSectionTypeStrTab = 3;
+    public static final int elfSectionTypeNoBits = 8;
+
+    public static final long elfSectionFlagCompressed = 0x800;
+
+    private static final int elfHeaderSize32Bit = 0x34;
+    private static final int elfSectionHeaderEntrySize32Bit = 0x28;
+    private static final int elfHeaderSize64Bit = 0x40;
+    private static final int elfSectionHeaderEntrySize64Bit = 0x40;
+
+    private final boolean is64Bit;
+    private final ByteOrder byteOrder;
+    private final short machine;
+    private final long entryPoint;
+    private final int headerSize;
+    private final int sectionHeaderEntrySize;
+
+    // Writes the content of a file to its channel
+    public interface ContentWriter
+    {
+	void write(FileChannel channel) throws IOException;
+    }
+
+    public ElfWriter(boolean is64Bit, ByteOrder byteOrder, short machine, long entryPoint)
+    {
+	this.is64Bit = is64Bit;
+	this.byteOrder = byteOrder;
+	this.machine = machine;
+	this.entryPoint = entryPoint;
+	headerSize = is64Bit ? elfHeaderSize64Bit : elfHeaderSize32Bit;
+	sectionHeaderEntrySize = is64Bit ? elfSectionHeaderEntrySize64Bit : elfSectionHeaderEntrySize32Bit;
+    }
+
+    // The index in the file of the section at position in the sections written
+    public static int getSectionIndex(int position)
+    {
+	// after the NULL section and .shstrtab
+	return position + 2;
+    }
+
+    public void write(File file, List<SectionInfo> sections) throws IOException
+    {
+	// The NULL section is needed due to gdb assuming its presence and the
+	// section names are always in the second one
+	ArrayList<SectionInfo> allSections = new ArrayList<SectionInfo>(sections.size() + 2);
+	SectionInfo nullSection = new SectionInfo("");
+	nullSection.type = elfSectionTypeNull;
+	allSections.add(nullSection);
+	allSections.add(null);
+	allSections.addAll(sections);
+	int[] nameOffsets = new int[allSections.size()];
+	SectionInfo shstrtab = new SectionInfo(".shstrtab", buildSectionNames(allSections, nameOffsets));
+	shstrtab.type = elfSectionTypeStrTab;
+	allSections.set(1, shstrtab);
+
+	// layout: header, section header table then the content of each section
+	int sectionCount = allSections.size();
+	long[] offsets = new long[sectionCount];
+	long offset = headerSize + (long) sectionHeaderEntrySize * sectionCount;
+	for (int i = 1; i < sectionCount; i++)
+	{
+	    offset = alignUp(offset, allSections.get(i).alignment);
+	    offsets[i] = offset;
+	    offset += allSections.get(i).size();
+	}
+	if (!is64Bit && offset > 0xFFFFFFFFL)
+	    throw new IOException("Error with the ELF file: its " + offset + " bytes are beyond the 4 GB of the 32-bit format");
+
+	ByteBuffer headers = ByteBuffer.allocate(headerSize + sectionHeaderEntrySize * sectionCount).order(byteOrder);
+	putElfHeader(headers, sectionCount);
+	for (int i = 0; i < sectionCount; i++)
+	    putSectionHeader(headers, allSections.get(i), nameOffsets[i], offsets[i], findLink(allSections, allSections.get(i)));
+	headers.flip();
+
+	ArrayList<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+	buffers.add(headers);
+	long position = headers.remaining();
+	for (int i = 1; i < sectionCount; i++)
+	{
+	    if (offsets[i] > position)
+		buffers.add(ByteBuffer.allocate((int) (offsets[i] - position)));
+	    for (ByteBuffer chunk : allSections.get(i).chunks)
+		buffers.add(chunk.duplicate());
+	    position = offsets[i] + allSections.get(i).size();
+	}
+
+	long size = position;
+	writeAtomically(file, channel ->
+	{
+	    ByteBuffer[] gather = buffers.toArray(new ByteBuffer[0]);
+	    long remaining = size;
+	    while (remaining > 0)
+		remaining -= channel.write(gather);
+	});
+    }
+
+    // The file is written next to the destination then moved over it so
+    // readers of the previous file never see a partially written one, the
+    // temporary file is unique as several exports may write the same file.
+    // Its permissions are the ones of a file created as usual, not owner only.
+    public static void writeAtomically(File file, ContentWriter writer) throws IOException
+    {
+	Path directory = file.getAbsoluteFile().getParentFile().toPath();
+	FileAttribute<?>[] attributes = new FileAttribute<?>[0];
+	if (directory.getFileSystem().supportedFileAttributeViews().contains("posix"))
+	    attributes = new FileAttribute<?>[] {
+		    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-r--r--")) };
+	Path tempPath = Files.createTempFile(directory, file.getName(), ".tmp", attributes);
+	boolean moved = false;
+	try
+	{
+	    try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE,
+		    StandardOpenOption.TRUNCATE_EXISTING))
+	    {
+		writer.write(channel);
+	    }
+
+	    try
+	    {
+		Files.move(tempPath, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	    }
+	    catch (AtomicMoveNotSupportedException e)
+	    {
+		Files.move(tempPath, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	    }
+	    moved = true;
+	}
+	finally
+	{
+	    if (!moved)
+		Files.deleteIfExists(tempPath);
+	}
+    }
+
+    private static int findLink(ArrayList<SectionInfo> sections, SectionInfo section) throws IOException
+    {
+	if (section.link == null)
+	    return 0;
+	for (int i = 2; i < sections.size(); i++)
+	{
+	    if (sections.get(i).name.equals(section.link))
+		return i;
+	}
+	throw new IOException("Section " + section.name + " links to the missing section " + section.link);
+    }
+
+    private static long alignUp(long value, long alignment)
+    {
+	if (alignment <= 1)
+	    return value;
+	return (value + alignment - 1) / alignment * alignment;
+    }
+
+    private static byte[] buildSectionNames(ArrayList<SectionInfo> sections, int[] nameOffsets)
+    {
+	DwarfBuffer names = new DwarfBuffer(ByteOrder.LITTLE_ENDIAN);
+	// the NULL section's empty name
+	names.put8(0);
+	names.putCString(".shstrtab");
+	nameOffsets[1] = 1;
+	for (int i = 2; i < sections.size(); i++)
+	{
+	    nameOffsets[i] = names.size();
+	    names.putCString(sections.get(i).name);
+	}
+	return names.toByteArray();
+    }
+
+    private void putElfHeader(ByteBuffer buf, int sectionCount)
+    {
+	// magic
+	buf.put(elfMagic);
+	// class
+	buf.put(is64Bit ? elfClass64Bit : elfClass32Bit);
+	// data
+	buf.put(byteOrder == ByteOrder.LITTLE_ENDIAN ? elfDataLittleEndian : elfDataBigEndian);
+	// version
+	buf.put(elfVersion);
+	// os abi, unimportant
+	buf.put((byte) 0);
+	// os abi version, unimportant
+	buf.put((byte) 0);
+	// padding
+	buf.put(new byte[7]);
+	// type, always DYN
+	buf.putShort(elfTypeDyn);
+	// machine
+	buf.putShort(machine);
+	// version
+	buf.putInt(elfVersion);
+	// entry
+	putWord(buf, entryPoint);
+	// program header table start (not used here)
+	putWord(buf, 0);
+	// section header table start
+	putWord(buf, headerSize);
+	// flags
+	buf.putInt(0);
+	// this header size
+	buf.putShort((short) headerSize);
+	// program header table entry size (not used here)
+	buf.putShort((short) 0);
+	// program header table number of entry (not used here)
+	buf.putShort((short) 0);
+	// section header table entry size
+	buf.putShort((short) sectionHeaderEntrySize);
+	// section header table number of entry
+	buf.putShort((short) sectionCount);
+	// section names index, always will be the second one here
+	buf.putShort((short) 1);
+    }
+
+    private void putSectionHeader(ByteBuffer buf, SectionInfo section, int nameOffset, long offset, int link)
+    {
+	// The null section must be all blanks
+	if (section.type == elfSectionTypeNull)
+	{
+	    buf.position(buf.position() + sectionHeaderEntrySize);
+	    return;
+	}
+
+	// name offset
+	buf.putInt(nameOffset);
+	// type
+	buf.putInt(section.type);
+	// flags
+	putWord(buf, section.flags);
+	// virtual address
+	putWord(buf, section.address);
+	// section offset
+	putWord(buf, offset);
+	// section size
+	putWord(buf, section.type == elfSectionTypeNoBits ? section.noBitsSize : section.size());
+	// linked section index
+	buf.putInt(link);
+	// section info
+	buf.putInt(section.info);
+	// alignement
+	putWord(buf, section.alignment);
+	// entry size
+	putWord(buf, section.entrySize);
+    }
+
+    private void putWord(ByteBuffer buf, long value)
+    {
+	if (is64Bit)
+	    buf.putLong(value);
+	else
+	    buf.putInt((int) value);
+    }
+}
@@ -7,499 +7,1070 @@
 //@author aldelaro5
 //@category DWARF
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
-import com.sun.jna.Pointer;
-import com.sun.jna.ptr.IntByReference;
-import com.sun.jna.ptr.LongByReference;
-import com.sun.jna.ptr.PointerByReference;
-
+import ghidra.app.cmd.function.CallDepthChangeInfo;
 import ghidra.app.script.GhidraScript;
+import ghidra.framework.model.DomainFile;
+import ghidra.framework.model.DomainFolder;
+import ghidra.program.model.address.Address;
+import ghidra.program.model.address.AddressRange;
+import ghidra.program.model.address.AddressSet;
+import ghidra.program.model.address.AddressSetView;
 import ghidra.program.model.lang.Endian;
+import ghidra.program.model.listing.Data;
 import ghidra.program.model.listing.Function;
 import ghidra.program.model.listing.FunctionIterator;
 import ghidra.program.model.listing.FunctionManager;
+import ghidra.program.model.listing.Instruction;
+import ghidra.program.model.listing.Listing;
+import ghidra.program.model.listing.Parameter;
 import ghidra.program.model.listing.Program;
+import ghidra.program.model.listing.Variable;
+import ghidra.program.model.mem.MemoryBlock;
+import ghidra.program.model.symbol.SourceType;
+import ghidra.program.model.symbol.Symbol;
+import ghidra.program.model.symbol.SymbolTable;
+import ghidra.program.model.symbol.SymbolType;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
 import docking.widgets.filechooser.GhidraFileChooser;
 import docking.widgets.filechooser.GhidraFileChooserMode;
 
 public class ExportDwarfELFSymbols extends GhidraScript
 {
-    private class SectionInfo
-    {
-	public String name;
-	public byte[] content;
-    }
-    
-    class SectionsCallback implements LibdwarfLibrary.Dwarf_Callback_Func
-    {
-	public ArrayList<String> sections = new ArrayList<>();
+    private static final String engineLibdwarf = "libdwarf";
+    private static final String engineJava = "Java";
+
+    private static final String modeSingle = "Single compile unit";
+    private static final String modeIncremental = "Incremental";
+    private static final String modeParallel = "Parallel";
+    private static final String modeStreaming = "Streaming";
+
+    private static final String outputDwarf = "DWARF";
+    private static final String outputSymbols = "Symbol table";
+    private static final String outputBoth = "DWARF and symbol table";
+
+    private static final String indexNone = "None";
+    private static final String indexDwarf = "DWARF";
+    private static final String indexGdb = "DWARF and GDB";
+
+    // each incremental compile unit covers an aligned range of this many bits of address
+    private static final int compileUnitRangeBits = 16;
 
-	@Override
-	public int apply(Pointer charPtr1, int int1, long Dwarf_Unsigned1, long Dwarf_Unsigned2, long Dwarf_Unsigned3,
-		long Dwarf_Unsigned4, LongByReference Dwarf_UnsignedPtr1, Pointer voidPtr1, IntByReference intPtr1)
+    @Override
+    protected void run() throws Exception
+    {
+	if (isRunningHeadless())
 	{
-	    String name = new String(charPtr1.getString(0));
-	    println("Generated Dwarf section " + name);
-	    sections.add(name);
-	    return sections.size() - 1;
+	    runHeadless();
+	    return;
 	}
-    }
 
-    private static final byte[] elfMagic = { 0x7F, 0x45, 0x4C, 0x46 };
-
-    private static final byte elfClass32Bit = 1;
-    private static final byte elfClass64Bit = 1;
+	ExportJob job = new ExportJob();
+	job.prog = currentProgram;
+	GhidraFileChooser fileChooser = new GhidraFileChooser(null);
+	fileChooser.setTitle("Select an output file");
+	fileChooser.setFileSelectionMode(GhidraFileChooserMode.FILES_ONLY);
+	job.outputFile = fileChooser.getSelectedFile(true);
+	if (job.outputFile == null) 
+	{
+	    println("No output file was provided, exiting...");
+	    return;
+	}
+	if (LiveExport.stop(job.outputFile))
+	    println("Stopped the live export to " + job.outputFile.getPath());
 
-    private static final byte elfDataLittleEndian = 1;
-    private static final byte elfDataBigEndian = 2;
+	job.output = askChoice("Output", "Select what the ELF file contains, the symbol table only gives the functions",
+		List.of(outputDwarf, outputSymbols, outputBoth), outputDwarf);
+	job.splitBlocks = askYesNo("Split per memory block", "Write one ELF file per memory block, overlay or bank "
+		+ "next to the selected file, so only the mapped ones need to be loaded?");
+	if (job.output.equals(outputSymbols))
+	{
+	    job.writeReport = askYesNo("Export report",
+		    "Write the timings and counters of the export as a JSON report next to the ELF file?");
+	    exportLive(job);
+	    return;
+	}
 
-    private static final byte elfVersion = 1;
-    private static final short elfTypeDyn = 3;
+	job.engineName = askChoice("DWARF engine", "Select the engine producing the DWARF sections",
+		List.of(engineLibdwarf, engineJava), engineLibdwarf);
+	List<String> modes = job.engineName.equals(engineJava)
+		? List.of(modeSingle, modeIncremental, modeParallel, modeStreaming)
+		: List.of(modeSingle, modeParallel, modeStreaming);
+	job.exportMode = askChoice("Export mode", "Select how the compile units are generated", modes, modeSingle);
+	job.exportTypes = askYesNo("Export types", "Also export the program's data types?");
+	job.exportVariables = askYesNo("Export variables",
+		"Also export the named defined data and the global labels outside of the code as variables?");
+	job.exportLocals = askYesNo("Export locals", "Also export the parameters and local variables of the "
+		+ "functions? The ones on the stack are only exported along with the call frames.");
+	job.exportLines = askYesNo("Export line table", "Also export a line table with one line per instruction?");
+	job.exportFrames = askYesNo("Export call frames",
+		"Also export the call frame information computed from the stack depth analysis?");
+	if (!job.exportMode.equals(modeIncremental))
+	{
+	    job.useStringPool = askYesNo("String pool",
+		    "Store each name once in a .debug_str string pool instead of inline?");
+	    job.compactEncoding = askYesNo("Compact encoding", "Use the compact DWARF 5 forms, function lengths "
+		    + "and indexed addresses, for a smaller file GDB reads faster?");
+	}
+	job.lookupIndex = askChoice("Lookup indexes",
+		"Select the indexes generated to speed up the symbol loading, GDB only reads its own .gdb_index",
+		List.of(indexNone, indexDwarf, indexGdb), indexGdb);
+	job.compressSections = askYesNo("Compress sections",
+		"Compress the Dwarf sections with zlib? GDB decompresses them when loading the file.");
+	job.writeReport = askYesNo("Export report",
+		"Write the timings and counters of the export as a JSON report next to the ELF file?");
+	exportLive(job);
+    }
 
-    private static final int elfSectionTypeProgBits = 1;
-    private static final int elfSectionTypeStrTab = 3;
+    // Exports the program then, if asked, again each time its functions change
+    void exportLive(ExportJob job) throws Exception
+    {
+	boolean live = askYesNo("Live export", "Export the program again in the background each time its functions "
+		+ "change, until it is closed? Running the script again with the same output file stops it.");
+	job.export();
+	if (!live)
+	    return;
+	LiveExport.start(job.prog, job.outputFile, (liveMonitor, liveLog) ->
+	{
+	    // the script is over by then, only the live export's monitor and log are used
+	    ExportJob liveJob = new ExportJob(job);
+	    liveJob.prog = job.prog;
+	    liveJob.outputFile = job.outputFile;
+	    liveJob.taskMonitor = liveMonitor;
+	    liveJob.logSink = liveLog;
+	    return liveJob.export();
+	}, LiveExport.defaultDelayMillis);
+	println("Exporting to " + job.outputFile.getPath() + " each time the functions change");
+    }
 
-    private static final int elfHeaderSize32Bit = 0x34;
-    private static final int elfSectionHeaderEntrySize32Bit = 0x28;
-    private static final int elfHeaderSize64Bit = 0x40;
-    private static final int elfSectionHeaderEntrySize64Bit = 0x40;
+    // Headless script arguments:
+    // <output directory> [program glob] [engine=libdwarf|Java] [mode=<export mode>] [threads=<count>] [types=true|false]
+    // [variables=true|false] [locals=true|false] [lines=true|false] [frames=true|false] [strings=pool|inline]
+    // [encoding=compact|standard] [index=none|dwarf|gdb]
+    // [output=dwarf|symbols|both] [split=true|false] [compress=true|false] [report=true|false]
+    // The glob is matched against the program's name, or its project path if it contains a '/'
+    void runHeadless() throws Exception
+    {
+	String[] args = getScriptArgs();
+	if (args.length == 0)
+	{
+	    println("Usage: ExportDwarfELFSymbols.java <output directory> [program glob] [engine=libdwarf|Java] "
+		    + "[mode=" + modeSingle + "|" + modeIncremental + "|" + modeParallel + "|" + modeStreaming + "] "
+		    + "[threads=<count>] "
+		    + "[types=true|false] [variables=true|false] [locals=true|false] "
+		    + "[lines=true|false] [frames=true|false] "
+		    + "[strings=pool|inline] [encoding=compact|standard] "
+		    + "[index=none|dwarf|gdb] [output=dwarf|symbols|both] [split=true|false] "
+		    + "[compress=true|false] "
+		    + "[report=true|false]");
+	    return;
+	}
 
-    PointerByReference dbgRef = new PointerByReference();
-    PointerByReference errRef = new PointerByReference();
-    LibdwarfLibrary.Dwarf_P_Debug dbg;
-    SectionsCallback sectionsCallback = new SectionsCallback();
-    
-    File outputFile;
+	File outputDir = new File(args[0]);
+	String glob = "*";
+	HashMap<String, String> options = new HashMap<String, String>();
+	for (int i = 1; i < args.length; i++)
+	{
+	    int separator = args[i].indexOf('=');
+	    if (separator > 0)
+		options.put(args[i].substring(0, separator), args[i].substring(separator + 1));
+	    else
+		glob = args[i];
+	}
 
-    @Override
-    protected void run() throws Exception
-    {	
-	GhidraFileChooser fileChooser = new GhidraFileChooser(null);
-        fileChooser.setTitle("Select an output file");
-        fileChooser.setFileSelectionMode(GhidraFileChooserMode.FILES_ONLY);
-        outputFile = fileChooser.getSelectedFile(true);
-        if (outputFile == null) 
-        {
-            println("No output file was provided, exiting...");
-            return;
-        }
-	
-        println("Initialising...");
-        int pointerSize = currentProgram.getDefaultPointerSize();
-        String processorStr = currentProgram.getLanguage().getProcessor().toString();
-	boolean is64Bit = pointerSize > 4;
-	Endian endianness = currentProgram.getLanguage().getLanguageDescription().getEndian();
-	println("Pointer size: " + pointerSize);
-	println("Endianness: " + endianness.toString());
-	println("Processor: " + processorStr);	
-	int bitNessFlags = LibdwarfLibrary.DW_DLC_POINTER32 | LibdwarfLibrary.DW_DLC_OFFSET32;
-	if (is64Bit)
-	    bitNessFlags = LibdwarfLibrary.DW_DLC_POINTER64 | LibdwarfLibrary.DW_DLC_OFFSET64;
-	int endiannessFlag = LibdwarfLibrary.DW_DLC_TARGET_LITTLEENDIAN;
-	if (endianness == Endian.BIG)
-	    endiannessFlag = LibdwarfLibrary.DW_DLC_TARGET_BIGENDIAN;
-	
-	int err = LibdwarfLibrary.INSTANCE.dwarf_producer_init(
-		  LibdwarfLibrary.DW_DLC_WRITE | LibdwarfLibrary.DW_DLC_SYMBOLIC_RELOCATIONS | 
-		  bitNessFlags | endiannessFlag, sectionsCallback, null, null, null, 
-		  getProgramLibdwarfAbiName(currentProgram), "V5", null, dbgRef,
-		  errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	{
-	    printLibdwarfError("Error with dwarf_producer_init");
+	// the settings shared by the jobs of every program
+	ExportJob settings = new ExportJob();
+	settings.exportMode = options.getOrDefault("mode", modeSingle);
+	// libdwarf by default as in the GUI, the Incremental mode only exists with the Java engine
+	settings.engineName = options.getOrDefault("engine",
+		settings.exportMode.equals(modeIncremental) ? engineJava : engineLibdwarf);
+	settings.exportTypes = Boolean.parseBoolean(options.getOrDefault("types", "false"));
+	settings.exportVariables = Boolean.parseBoolean(options.getOrDefault("variables", "false"));
+	settings.exportLocals = Boolean.parseBoolean(options.getOrDefault("locals", "false"));
+	settings.exportLines = Boolean.parseBoolean(options.getOrDefault("lines", "false"));
+	settings.exportFrames = Boolean.parseBoolean(options.getOrDefault("frames", "false"));
+	String strings = options.getOrDefault("strings", "inline");
+	settings.useStringPool = strings.equals("pool");
+	String encoding = options.getOrDefault("encoding", "standard");
+	settings.compactEncoding = encoding.equals("compact");
+	String index = options.getOrDefault("index", "gdb");
+	settings.lookupIndex = index.equals("none") ? indexNone : index.equals("dwarf") ? indexDwarf : indexGdb;
+	settings.splitBlocks = Boolean.parseBoolean(options.getOrDefault("split", "false"));
+	settings.compressSections = Boolean.parseBoolean(options.getOrDefault("compress", "false"));
+	settings.writeReport = Boolean.parseBoolean(options.getOrDefault("report", "false"));
+	String output = options.getOrDefault("output", "dwarf");
+	settings.output = output.equals("symbols") ? outputSymbols : output.equals("both") ? outputBoth : outputDwarf;
+	int threadCount = Integer.parseInt(options.getOrDefault("threads",
+		Integer.toString(Math.min(4, Runtime.getRuntime().availableProcessors()))));
+	if (!List.of(engineLibdwarf, engineJava).contains(settings.engineName)
+		|| !List.of(modeSingle, modeIncremental, modeParallel, modeStreaming).contains(settings.exportMode)
+		|| (settings.exportMode.equals(modeIncremental) && !settings.engineName.equals(engineJava)))
+	{
+	    println("Invalid engine " + settings.engineName + " or export mode " + settings.exportMode);
 	    return;
 	}
-	dbg = new LibdwarfLibrary.Dwarf_P_Debug(dbgRef.getValue());
-	ArrayList<SectionInfo> sections;
-	try
+	if (!List.of("pool", "inline").contains(strings) || !List.of("compact", "standard").contains(encoding)
+		|| !List.of("none", "dwarf", "gdb").contains(index) || !List.of("dwarf", "symbols", "both").contains(output))
 	{
-	    println("Done, adding debug info...");
-	    addDebugInfo(currentProgram);
-	    println("Done, generating the Dwarf sections...");
-	    sections = generateDwarfSections();
+	    println("Invalid strings " + strings + ", encoding " + encoding + ", lookup indexes " + index + " or output "
+		    + output);
+	    return;
 	}
-	catch (Exception ex)
+	if (!outputDir.isDirectory() && !outputDir.mkdirs())
 	{
-	    printLibdwarfError(ex.getMessage());
+	    println("Could not create the output directory " + outputDir.getPath());
 	    return;
 	}
 
-	println("Done, finalising...");
-	err = LibdwarfLibrary.INSTANCE.dwarf_producer_finish_a(dbg, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
+	ArrayList<DomainFile> programs = new ArrayList<DomainFile>();
+	collectPrograms(state.getProject().getProjectData().getRootFolder(), glob.contains("/"),
+		globToPattern(glob), programs);
+	println("Exporting " + programs.size() + " programs with " + threadCount + " threads");
+
+	ExecutorService pool = Executors.newFixedThreadPool(Math.max(threadCount, 1));
+	int exportedCount = 0;
+	try
 	{
-	    printLibdwarfError("Error with dwarf_producer_finish_a");
-	    return;
+	    ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+	    for (DomainFile file : programs)
+		results.add(pool.submit(() -> exportDomainFile(file, outputDir, settings)));
+	    for (Future<Boolean> result : results)
+	    {
+		if (result.get())
+		    exportedCount++;
+	    }
+	}
+	finally
+	{
+	    pool.shutdownNow();
 	}
-	println("Done, generating the ELF file...");
-	makeElf(sections, currentProgram);
-	println("Sucessfully written the ELF file to " + outputFile.getPath());
+	println("Exported " + exportedCount + " of " + programs.size() + " programs to " + outputDir.getPath());
     }
 
-    String getProgramLibdwarfAbiName(Program prog)
+    void collectPrograms(DomainFolder folder, boolean matchPath, Pattern pattern, ArrayList<DomainFile> programs)
     {
-	int pointerSize = prog.getDefaultPointerSize();
-	switch (prog.getLanguage().getProcessor().toString())
+	for (DomainFile file : folder.getFiles())
 	{
-	case "ARM":
-	    return "arm";
-	case "AArch64":
-	    return "arm64";
-	case "PowerPC":
-	    return pointerSize <= 4 ? "ppc" : "ppc64";
-	case "MIPS":
-	    return "mips";
-	// default to x86
-	case "x86":
-	default:
-	    return pointerSize <= 4 ? "x86" : "x86_64";
+	    if (!Program.class.isAssignableFrom(file.getDomainObjectClass()))
+		continue;
+	    if (pattern.matcher(matchPath ? file.getPathname() : file.getName()).matches())
+		programs.add(file);
+	}
+	for (DomainFolder subFolder : folder.getFolders())
+	    collectPrograms(subFolder, matchPath, pattern, programs);
+    }
+
+    // '*' and '?' don't match a '/' while '**' matches anything
+    static Pattern globToPattern(String glob)
+    {
+	StringBuilder regex = new StringBuilder();
+	for (int i = 0; i < glob.length(); i++)
+	{
+	    char c = glob.charAt(i);
+	    if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*')
+	    {
+		regex.append(".*");
+		i++;
+	    }
+	    else if (c == '*')
+	    {
+		regex.append("[^/]*");
+	    }
+	    else if (c == '?')
+	    {
+		regex.append("[^/]");
+	    }
+	    else
+	    {
+		regex.append(Pattern.quote(String.valueOf(c)));
+	    }
 	}
+	return Pattern.compile(regex.toString());
     }
 
-    private void printLibdwarfError(String msg)
+    boolean exportDomainFile(DomainFile file, File outputDir, ExportJob settings)
     {
-	var dErr = new LibdwarfLibrary.Dwarf_Error(errRef.getValue());
-	long errno = LibdwarfLibrary.INSTANCE.dwarf_errno(dErr);
-	String errStr = LibdwarfLibrary.INSTANCE.dwarf_errmsg_by_number(errno);
-	println(msg + ": " + errStr);
+	Program prog;
+	try
+	{
+	    prog = (Program) file.getDomainObject(this, false, false, monitor);
+	}
+	catch (Exception e)
+	{
+	    println(file.getPathname() + ": Could not open the program: " + e.getMessage());
+	    return false;
+	}
+
+	try
+	{
+	    ExportJob job = new ExportJob(settings);
+	    job.prog = prog;
+	    // the project path keeps the names unique across folders
+	    job.outputFile = new File(outputDir, file.getPathname().substring(1).replace('/', '_') + ".elf");
+	    job.logPrefix = file.getPathname() + ": ";
+	    return job.export();
+	}
+	finally
+	{
+	    prog.release(this);
+	}
     }
 
-    void addDebugInfo(Program prog) throws Exception
+    interface VariableConsumer
     {
-	int err = LibdwarfLibrary.INSTANCE.dwarf_pro_set_default_string_form(dbg, LibdwarfLibrary.DW_FORM_string, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_pro_set_default_string_form");
-	
-	PointerByReference cuRef = new PointerByReference();
-	err = LibdwarfLibrary.INSTANCE.dwarf_new_die_a(dbg, LibdwarfLibrary.DW_TAG_compile_unit, null, null, null, null, cuRef, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_new_die_a cu");
-	
-	var cu = new LibdwarfLibrary.Dwarf_P_Die(cuRef.getValue());
-
-	println("addDebugInfo -> Adding functions...");
-	FunctionIterator funcs = getFunctions(prog);
-	for (Function f : funcs)
-	    addFunction(cu, f);
-	println("addDebugInfo -> Done adding functions");
-
-	err = LibdwarfLibrary.INSTANCE.dwarf_add_die_to_debug_a(dbg, cu, null);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_add_die_to_debug_a");
+	void addVariable(String name, long address, int typeId) throws Exception;
     }
 
-    FunctionIterator getFunctions(Program prog)
+    interface LocalConsumer
     {
-	FunctionManager fm = prog.getFunctionManager();
-	return fm.getFunctions(true);
+	void addLocal(String name, boolean parameter, int typeId, int register, long frameOffset) throws Exception;
     }
 
-    void addFunction(LibdwarfLibrary.Dwarf_P_Die cu, Function func) throws Exception
+    // The export of one program, jobs for different programs or for the memory
+    // blocks of a program can run concurrently
+    class ExportJob
     {
-	String fname = func.getName();
-	PointerByReference dieRef = new PointerByReference();
-	int err = LibdwarfLibrary.INSTANCE.dwarf_new_die_a(dbg, LibdwarfLibrary.DW_TAG_subprogram, cu, null, null, null, dieRef, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_new_die_a function " + fname);
-	
-	var die = new LibdwarfLibrary.Dwarf_P_Die(dieRef.getValue());
-	
-	PointerByReference exprRef = new PointerByReference();
-	err = LibdwarfLibrary.INSTANCE.dwarf_new_expr_a(dbg, exprRef, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_new_expr_a function " + fname);
-
-	var expr = new LibdwarfLibrary.Dwarf_P_Expr(exprRef.getValue());
-	PointerByReference attrRef = new PointerByReference();
-	LongByReference offsetRef = new LongByReference();
-	err = LibdwarfLibrary.INSTANCE.dwarf_add_expr_gen_a(expr, (byte) LibdwarfLibrary.DW_OP_call_frame_cfa, 0, 0, offsetRef, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_add_expr_gen_a function " + fname);
-	err = LibdwarfLibrary.INSTANCE.dwarf_add_AT_location_expr_a(dbg, die, (short) LibdwarfLibrary.DW_AT_frame_base, expr, attrRef, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_add_AT_location_expr_a function " + fname);
-
-	err = LibdwarfLibrary.INSTANCE.dwarf_add_AT_name_a(die, fname, attrRef, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_add_AT_name_a function " + fname);
-	err = LibdwarfLibrary.INSTANCE.dwarf_add_AT_string_a(dbg, die, (short) LibdwarfLibrary.DW_AT_linkage_name, fname, attrRef, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_add_AT_string_a function " + fname);
+	Program prog;
+	File outputFile;
+	// the addresses of the exported memory block, null for the whole program
+	AddressSetView scope;
+	boolean splitBlocks;
+	String engineName = engineLibdwarf;
+	String exportMode = modeSingle;
+	boolean exportTypes;
+	boolean exportVariables;
+	boolean exportLocals;
+	boolean exportLines;
+	boolean exportFrames;
+	boolean useStringPool;
+	boolean compactEncoding;
+	String lookupIndex = indexNone;
+	String output = outputDwarf;
+	boolean compressSections;
+	boolean writeReport;
+	ExportReport report;
+	String logPrefix = "";
+	// the script's monitor and console, a live export has its own
+	TaskMonitor taskMonitor = monitor;
+	Consumer<String> logSink = ExportDwarfELFSymbols.this::println;
+	// converts the data types of the variables, null when the types aren't exported
+	DwarfTypeBuilder typeBuilder;
+	long[] lineAddresses = new long[256];
+	// the DWARF numbers of the registers holding locals, null when the locals aren't exported
+	DwarfRegisterMap registerMap;
+	FrameConvention frameConvention;
+	long[] frameAddresses = new long[16];
+	int[] frameCfaOffsets = new int[16];
 
-	long fstart = func.getEntryPoint().getOffset();
-	long fend = func.getBody().getMaxAddress().getOffset();
+	ExportJob()
+	{
+	}
 
-	err = LibdwarfLibrary.INSTANCE.dwarf_add_AT_targ_address_c(dbg, die, (short) LibdwarfLibrary.DW_AT_low_pc, fstart, 0, attrRef, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_add_AT_targ_address_c low function " + fname);
-	err = LibdwarfLibrary.INSTANCE.dwarf_add_AT_targ_address_c(dbg, die, (short) LibdwarfLibrary.DW_AT_high_pc, fend - 1, 0, attrRef, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_add_AT_targ_address_c high function " + fname);
-    }
+	// A job with the same settings
+	ExportJob(ExportJob settings)
+	{
+	    engineName = settings.engineName;
+	    exportMode = settings.exportMode;
+	    exportTypes = settings.exportTypes;
+	    exportVariables = settings.exportVariables;
+	    exportLocals = settings.exportLocals;
+	    exportLines = settings.exportLines;
+	    exportFrames = settings.exportFrames;
+	    useStringPool = settings.useStringPool;
+	    compactEncoding = settings.compactEncoding;
+	    lookupIndex = settings.lookupIndex;
+	    output = settings.output;
+	    splitBlocks = settings.splitBlocks;
+	    compressSections = settings.compressSections;
+	    writeReport = settings.writeReport;
+	    taskMonitor = settings.taskMonitor;
+	    logSink = settings.logSink;
+	}
 
-    ArrayList<SectionInfo> generateDwarfSections() throws Exception
-    {
-	LongByReference sectionCountRef = new LongByReference();
-	int err = LibdwarfLibrary.INSTANCE.dwarf_transform_to_disk_form_a(dbg, sectionCountRef, errRef);
-	if (err != LibdwarfLibrary.DW_DLV_OK)
-	    throw new Exception("Error with dwarf_transform_to_disk_form_a");
-	
-	long sectionCount = sectionCountRef.getValue();
-
-	HashMap<String, byte[]> sections = new HashMap<String, byte[]>();
-	for (long i = 0; i < sectionCount; i++)
-	{
-	    LongByReference section_index = new LongByReference();
-	    LongByReference length = new LongByReference();
-	    PointerByReference contentRef = new PointerByReference();
-	    err = LibdwarfLibrary.INSTANCE.dwarf_get_section_bytes_a(dbg, i, section_index, length, contentRef, errRef);
-	    if (err != LibdwarfLibrary.DW_DLV_OK)
-		throw new Exception("Error with dwarf_get_section_bytes_a section " + Long.toString(i));
-	    
-	    byte[] content = contentRef.getValue().getByteArray(0, (int) length.getValue());
-	    String section_name = sectionsCallback.sections.get((int) section_index.getValue());
-	    if (!sections.containsKey(section_name))
+	void log(String msg)
+	{
+	    logSink.accept(logPrefix + msg);
+	}
+
+	boolean export()
+	{
+	    if (splitBlocks)
+		return exportBlocks();
+
+	    report = new ExportReport();
+	    report.startPhase("init");
+	    log("Initialising...");
+	    int pointerSize = prog.getDefaultPointerSize();
+	    String processorStr = prog.getLanguage().getProcessor().toString();
+	    Endian endianness = prog.getLanguage().getLanguageDescription().getEndian();
+	    log("Pointer size: " + pointerSize);
+	    log("Endianness: " + endianness.toString());
+	    log("Processor: " + processorStr);
+	    log("Output: " + output);
+	    report.set("program", prog.getName());
+	    report.set("processor", processorStr);
+	    report.set("output", output);
+	    boolean exportDwarf = !output.equals(outputSymbols);
+	    if (exportDwarf)
 	    {
-		sections.put(section_name, content);
-	    } 
-	    else
+		log("Engine: " + engineName);
+		log("Mode: " + exportMode);
+		report.set("engine", engineName);
+		report.set("mode", exportMode);
+	    }
+
+	    boolean success = false;
+	    try
+	    {
+		ArrayList<SectionInfo> sections = new ArrayList<SectionInfo>();
+		DwarfEngine engine = null;
+		IncrementalExport incrementalExport = null;
+		if (exportDwarf)
+		{
+		    if (useStringPool && exportMode.equals(modeIncremental))
+		    {
+			// the reused units would point into the string pool of the previous export
+			log("The string pool isn't available in the incremental mode, the names will be inline");
+			useStringPool = false;
+		    }
+		    if (compactEncoding && exportMode.equals(modeIncremental))
+		    {
+			// the reused units would point into the address table of the previous export
+			log("The compact encoding isn't available in the incremental mode, the standard one will be used");
+			compactEncoding = false;
+		    }
+		    if (exportFrames)
+		    {
+			frameConvention = getFrameConvention(prog);
+			if (frameConvention == null)
+			    log("No call frame convention for this processor, the call frames won't be exported");
+		    }
+		    if (exportLocals)
+		    {
+			registerMap = DwarfRegisterMap.get(processorStr, pointerSize);
+			if (frameConvention == null)
+			    log("Without call frames, only the locals in registers will be exported");
+		    }
+
+		    // libdwarf is only loaded when its engine is used
+		    if (engineName.equals(engineLibdwarf))
+			log(LibdwarfLoader.getLoadDescription());
+		    if (exportMode.equals(modeParallel))
+		    {
+			int threadCount = Runtime.getRuntime().availableProcessors();
+			log("Using " + threadCount + " threads");
+			engine = new ShardedDwarfEngine(
+				() -> createEngine(engineName, prog, getSourceName(), frameConvention, useStringPool,
+					compactEncoding),
+				getByteOrder(prog), threadCount);
+		    }
+		    else if (exportMode.equals(modeStreaming))
+		    {
+			// the spill files are next to the output, where there's room for the sections
+			log("Using compile units of " + StreamingDwarfEngine.defaultFunctionsPerUnit + " functions");
+			engine = new StreamingDwarfEngine(
+				() -> createEngine(engineName, prog, getSourceName(), frameConvention, useStringPool,
+					compactEncoding),
+				getByteOrder(prog), StreamingDwarfEngine.defaultFunctionsPerUnit,
+				outputFile.getAbsoluteFile().getParentFile());
+		    }
+		    else
+		    {
+			engine = createEngine(engineName, prog, getSourceName(), frameConvention, useStringPool,
+				compactEncoding);
+			if (engine instanceof LibdwarfEngine && ((LibdwarfEngine) engine).isBatching())
+			    log("Using the batched libdwarf shim");
+		    }
+		    log("Done, adding debug info...");
+		    TypeTable types = null;
+		    if (exportTypes)
+		    {
+			// the jobs of the memory blocks share the types converted for the program
+			if (scope == null)
+			{
+			    report.startPhase("buildTypes");
+			    buildTypes();
+			}
+			types = typeBuilder.getTypes();
+			report.count("types", types.size());
+		    }
+		    report.startPhase("addDebugInfo");
+		    if (exportMode.equals(modeIncremental))
+			incrementalExport = addDebugInfoIncremental((JavaDwarfEngine) engine, types);
+		    else
+			addDebugInfo(engine, types);
+		    log("Done, generating the Dwarf sections...");
+		    report.startPhase("generateSections");
+		    sections.addAll(engine.generateSections());
+		    if (engine instanceof ShardedDwarfEngine)
+			log("Generated " + ((ShardedDwarfEngine) engine).getShardCount() + " compile units");
+		    else if (engine instanceof StreamingDwarfEngine)
+		    {
+			log("Generated " + ((StreamingDwarfEngine) engine).getUnitCount() + " compile units");
+			report.count("compileUnits", ((StreamingDwarfEngine) engine).getUnitCount());
+		    }
+		    if (!lookupIndex.equals(indexNone))
+		    {
+			report.startPhase("lookupIndexes");
+			AcceleratorTables.addTo(sections, getByteOrder(prog), lookupIndex.equals(indexGdb));
+		    }
+		    for (SectionInfo section : sections)
+			log("Generated Dwarf section " + section.name);
+		    if (writeReport)
+		    {
+			report.startPhase("countDies");
+			report.count("dies", countDies(sections));
+		    }
+		}
+		if (!output.equals(outputDwarf))
+		{
+		    report.startPhase("buildSymbolTable");
+		    sections.addAll(buildSymbolTable(ElfWriter.getSectionIndex(sections.size())));
+		}
+
+		// the sections may point into the engine's memory, write them before finishing
+		log("Done, generating the ELF file...");
+		makeElf(sections);
+		if (incrementalExport != null)
+		{
+		    report.startPhase("saveCache");
+		    incrementalExport.saveCache();
+		}
+		log("Done, finalising...");
+		if (engine != null)
+		{
+		    report.startPhase("finish");
+		    engine.finish();
+		    if (engine instanceof LibdwarfEngine)
+			report.count("nativeCalls", ((LibdwarfEngine) engine).getNativeCallCount());
+		    else if (engine instanceof ShardedDwarfEngine)
+			report.count("nativeCalls", ((ShardedDwarfEngine) engine).getNativeCallCount());
+		    else if (engine instanceof StreamingDwarfEngine)
+			report.count("nativeCalls", ((StreamingDwarfEngine) engine).getNativeCallCount());
+		}
+		report.endPhase();
+		success = true;
+	    }
+	    catch (Exception ex)
+	    {
+		log(ex.getMessage());
+		report.set("error", String.valueOf(ex.getMessage()));
+	    }
+
+	    if (writeReport)
 	    {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		File reportFile = new File(outputFile.getPath() + ".report.json");
+		report.setSuccess(success);
 		try
 		{
-		    baos.write(sections.get(section_name));
-		    baos.write(content);
-		} 
-		catch (IOException e)
+		    report.write(reportFile);
+		    log("Written the export report to " + reportFile.getPath());
+		}
+		catch (IOException ex)
 		{
-		    e.printStackTrace();
+		    log("Could not write the export report: " + ex.getMessage());
 		}
-		sections.put(section_name, baos.toByteArray());
 	    }
+	    if (!success)
+		return false;
+
+	    log("Sucessfully written the ELF file to " + outputFile.getPath());
+	    return true;
 	}
 
-	ArrayList<SectionInfo> listSections = new ArrayList<SectionInfo>();
-	for (String sectionName : sections.keySet())
+	// Exports each memory block holding functions, or variables when they are
+	// exported, to its own ELF file named after outputFile and the block. The
+	// overlays and banks sharing addresses end up in different files and the
+	// blocks are exported concurrently.
+	boolean exportBlocks()
 	{
-	    listSections.add(new SectionInfo() 
-	    {{
-		name = sectionName;
-		content = sections.get(sectionName);
-	    }});
+	    boolean withVariables = exportVariables && !output.equals(outputSymbols);
+	    ArrayList<ExportJob> jobs = new ArrayList<ExportJob>();
+	    for (MemoryBlock block : prog.getMemory().getBlocks())
+	    {
+		AddressSet blockScope = new AddressSet(block.getStart(), block.getEnd());
+		if (!getFunctions(prog, blockScope).hasNext()
+			&& !(withVariables && prog.getListing().getDefinedData(blockScope, true).hasNext()))
+		    continue;
+		ExportJob job = new ExportJob(this);
+		job.prog = prog;
+		job.scope = blockScope;
+		job.splitBlocks = false;
+		job.outputFile = getBlockOutputFile(block);
+		job.logPrefix = logPrefix + block.getName() + ": ";
+		jobs.add(job);
+	    }
+	    log("Exporting " + jobs.size() + " memory blocks to separate ELF files");
+	    if (jobs.isEmpty())
+		return true;
+	    if (exportTypes && !output.equals(outputSymbols))
+	    {
+		buildTypes();
+		for (ExportJob job : jobs)
+		    job.typeBuilder = typeBuilder;
+	    }
+
+	    ExecutorService pool = Executors.newFixedThreadPool(
+		    Math.min(jobs.size(), Runtime.getRuntime().availableProcessors()));
+	    int exportedCount = 0;
+	    try
+	    {
+		ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (ExportJob job : jobs)
+		    results.add(pool.submit(() -> job.export()));
+		for (Future<Boolean> result : results)
+		{
+		    if (result.get())
+			exportedCount++;
+		}
+	    }
+	    catch (Exception ex)
+	    {
+		log(ex.getMessage());
+	    }
+	    finally
+	    {
+		pool.shutdownNow();
+	    }
+	    log("Exported " + exportedCount + " of " + jobs.size() + " memory blocks");
+	    return exportedCount == jobs.size();
 	}
 
-	return listSections;
-    }
+	// <output>.<block>.elf for <output>.elf
+	File getBlockOutputFile(MemoryBlock block)
+	{
+	    String name = outputFile.getName();
+	    int extension = name.lastIndexOf('.');
+	    if (extension <= 0)
+		extension = name.length();
+	    String blockName = block.getName().replaceAll("[^A-Za-z0-9_.-]", "_");
+	    return new File(outputFile.getParentFile(),
+		    name.substring(0, extension) + "." + blockName + name.substring(extension));
+	}
 
-    void makeElf(ArrayList<SectionInfo> sections, Program prog)
-    {
-	try
+	long countDies(ArrayList<SectionInfo> sections) throws Exception
+	{
+	    SectionInfo info = DwarfReader.find(sections, ".debug_info");
+	    SectionInfo abbrev = DwarfReader.find(sections, ".debug_abbrev");
+	    if (info == null || abbrev == null)
+		return 0;
+	    return DwarfReader.countDies(info, abbrev, getByteOrder(prog));
+	}
+
+	// The function symbols, written in address order with the size from the entry point to the end of the body,
+	// in the code sections of the memory blocks holding functions which start at firstSectionIndex
+	ArrayList<SectionInfo> buildSymbolTable(int firstSectionIndex)
+	{
+	    log("buildSymbolTable -> Adding functions...");
+	    ElfSymbolTable symbols = new ElfSymbolTable(prog.getFunctionManager().getFunctionCount());
+	    for (MemoryBlock block : prog.getMemory().getBlocks())
+	    {
+		AddressSet blockScope = new AddressSet(block.getStart(), block.getEnd());
+		if (scope != null)
+		    blockScope = blockScope.intersect(scope);
+		if (!blockScope.isEmpty() && getFunctions(prog, blockScope).hasNext())
+		    symbols.addCode(block.getName().replaceAll("[^A-Za-z0-9_.-]", "_"),
+			    blockScope.getMinAddress().getOffset(), blockScope.getMaxAddress().getOffset());
+	    }
+	    for (Function f : getFunctions(prog, scope))
+	    {
+		long start = f.getEntryPoint().getOffset();
+		symbols.add(f.getName(), start, f.getBody().getMaxAddress().getOffset() - start + 1);
+	    }
+	    log("buildSymbolTable -> Done, " + symbols.size() + " symbols");
+	    report.count("symbols", symbols.size());
+	    return symbols.generateSections(prog.getDefaultPointerSize() > 4, getByteOrder(prog), firstSectionIndex);
+	}
+
+	TypeTable buildTypes()
 	{
-	    FileOutputStream fout = new FileOutputStream(outputFile);
+	    log("buildTypes -> Converting data types...");
+	    typeBuilder = new DwarfTypeBuilder(prog.getDefaultPointerSize());
+	    typeBuilder.addAll(prog.getDataTypeManager());
+	    log("buildTypes -> Done, " + typeBuilder.getTypes().size() + " distinct types");
+	    return typeBuilder.getTypes();
+	}
 
-	    prepandNullAndShstrtabSections(sections);
-	    writeElfHeader(fout, sections, prog);
-	    writeElfSectionHeader(fout, sections, prog);
+	void addDebugInfo(DwarfEngine engine, TypeTable types) throws Exception
+	{
+	    if (types != null)
+		engine.addTypes(types);
+	    if (exportVariables)
+		addVariables(engine::addVariable);
+	    log("addDebugInfo -> Adding functions...");
+	    long functionCount = 0;
+	    long lineCount = 0;
+	    long frameCount = 0;
+	    long localCount = 0;
+	    FunctionIterator funcs = getFunctions(prog, scope);
+	    for (Function f : funcs)
+	    {
+		addFunction(engine, f);
+		functionCount++;
+		if (exportLines)
+		{
+		    int count = collectLineAddresses(f);
+		    engine.addLines(lineAddresses, 0, count, f.getBody().getMaxAddress().getOffset());
+		    lineCount += count;
+		}
+		boolean hasFrame = false;
+		if (frameConvention != null)
+		{
+		    AddressRange range = f.getBody().getRangeContaining(f.getEntryPoint());
+		    int rowCount = collectFrameRows(f, range);
+		    if (rowCount >= 0)
+		    {
+			engine.addFrame(range.getMinAddress().getOffset(), range.getMaxAddress().getOffset(),
+				frameAddresses, frameCfaOffsets, 0, rowCount);
+			frameCount++;
+			hasFrame = true;
+		    }
+		}
+		if (exportLocals)
+		    localCount += addLocals(engine::addLocal, f, hasFrame);
+	    }
+	    report.count("functions", functionCount);
+	    report.count("lineAddresses", lineCount);
+	    report.count("frames", frameCount);
+	    report.count("locals", localCount);
+	    log("addDebugInfo -> Done adding functions");
+	}
 
-	    // section table
-	    for (SectionInfo section : sections)
+	// Streams the defined data with a name, then the other global labels
+	// outside of the code, as variables. The types of the variables are only
+	// known when they were converted with the program's data types.
+	void addVariables(VariableConsumer consumer) throws Exception
+	{
+	    log("addDebugInfo -> Adding variables...");
+	    Listing listing = prog.getListing();
+	    long variableCount = 0;
+	    for (Data data : scope != null ? listing.getDefinedData(scope, true) : listing.getDefinedData(true))
 	    {
-		if (section.content != null)
-		    fout.write(section.content);
+		Symbol symbol = data.getPrimarySymbol();
+		if (symbol == null)
+		    continue;
+		int typeId = typeBuilder != null ? typeBuilder.findTypeId(data.getDataType()) : -1;
+		consumer.addVariable(symbol.getName(), data.getAddress().getOffset(), typeId);
+		variableCount++;
 	    }
-	    
-	    fout.close();
-	} 
-	catch (Exception e)
+	    SymbolTable symbolTable = prog.getSymbolTable();
+	    for (Symbol symbol : scope != null ? symbolTable.getPrimarySymbolIterator(scope, true)
+		    : symbolTable.getPrimarySymbolIterator(true))
+	    {
+		Address address = symbol.getAddress();
+		if (symbol.getSymbolType() != SymbolType.LABEL || !symbol.isGlobal() || symbol.isExternal()
+			|| symbol.getSource() == SourceType.DEFAULT || !address.isMemoryAddress()
+			|| listing.getInstructionAt(address) != null || listing.getDefinedDataAt(address) != null)
+		    continue;
+		consumer.addVariable(symbol.getName(), address.getOffset(), -1);
+		variableCount++;
+	    }
+	    report.count("variables", variableCount);
+	    log("addDebugInfo -> Added " + variableCount + " variables");
+	}
+
+	// Adds the parameters and the local variables of the function held in a
+	// single register or stack slot, returns how many were added. The stack
+	// offsets are from the stack pointer at the entry point while the frame
+	// base is the CFA, so the stack ones need the function's call frame.
+	int addLocals(LocalConsumer consumer, Function func, boolean hasFrame) throws Exception
 	{
-	    e.printStackTrace();
+	    int count = 0;
+	    for (Parameter parameter : func.getParameters())
+	    {
+		if (addLocal(consumer, parameter, true, hasFrame))
+		    count++;
+	    }
+	    for (Variable local : func.getLocalVariables())
+	    {
+		if (addLocal(consumer, local, false, hasFrame))
+		    count++;
+	    }
+	    return count;
+	}
+
+	boolean addLocal(LocalConsumer consumer, Variable variable, boolean parameter, boolean hasFrame)
+		throws Exception
+	{
+	    int register = -1;
+	    long frameOffset = 0;
+	    if (variable.isRegisterVariable())
+	    {
+		register = registerMap.getNumber(variable.getRegister());
+		if (register < 0)
+		    return false;
+	    }
+	    else if (variable.isStackVariable() && hasFrame)
+	    {
+		frameOffset = variable.getStackOffset() - frameConvention.initialCfaOffset;
+	    }
+	    else
+	    {
+		return false;
+	    }
+	    int typeId = typeBuilder != null ? typeBuilder.findTypeId(variable.getDataType()) : -1;
+	    consumer.addLocal(variable.getName(), parameter, typeId, register, frameOffset);
+	    return true;
+	}
+
+	// Computes where the CFA offset of the function's entry range changes from
+	// the stack depth analysis, returns the number of changes or -1 if the
+	// call frame can't be described
+	int collectFrameRows(Function func, AddressRange range) throws CancelledException
+	{
+	    CallDepthChangeInfo depths = new CallDepthChangeInfo(func, taskMonitor);
+	    long min = range.getMinAddress().getOffset();
+	    long max = range.getMaxAddress().getOffset();
+	    int count = 0;
+	    int cfaOffset = frameConvention.initialCfaOffset;
+	    for (Instruction instruction : prog.getListing().getInstructions(func.getBody(), true))
+	    {
+		Address address = instruction.getAddress();
+		if (address.getOffset() < min || address.getOffset() > max)
+		    continue;
+
+		int depth = depths.getDepth(address);
+		if (depth == Function.UNKNOWN_STACK_DEPTH_CHANGE || depth == Function.INVALID_STACK_DEPTH_CHANGE)
+		    return -1;
+		// where a return address register gets saved isn't known, so
+		// only functions keeping it in the register can be described
+		if (!frameConvention.isReturnAddressOnStack() && (depth != 0 || instruction.getFlowType().isCall()))
+		    return -1;
+		int instructionCfaOffset = frameConvention.initialCfaOffset - depth;
+		if (instructionCfaOffset < 0)
+		    return -1;
+
+		if (instructionCfaOffset != cfaOffset)
+		{
+		    if (count == frameAddresses.length)
+		    {
+			frameAddresses = Arrays.copyOf(frameAddresses, count * 2);
+			frameCfaOffsets = Arrays.copyOf(frameCfaOffsets, count * 2);
+		    }
+		    frameAddresses[count] = address.getOffset();
+		    frameCfaOffsets[count] = instructionCfaOffset;
+		    count++;
+		    cfaOffset = instructionCfaOffset;
+		}
+	    }
+	    return count;
+	}
+
+	// The pseudo source file of the line table, null without line table
+	String getSourceName()
+	{
+	    return exportLines ? prog.getName() + ".lst" : null;
+	}
+
+	// Streams the addresses of the function's instructions into lineAddresses, returns their count
+	int collectLineAddresses(Function func)
+	{
+	    int count = 0;
+	    for (Instruction instruction : prog.getListing().getInstructions(func.getBody(), true))
+	    {
+		if (count == lineAddresses.length)
+		    lineAddresses = Arrays.copyOf(lineAddresses, count * 2);
+		lineAddresses[count++] = instruction.getAddress().getOffset();
+	    }
+	    return count;
+	}
+
+	IncrementalExport addDebugInfoIncremental(JavaDwarfEngine engine, TypeTable types) throws Exception
+	{
+	    String configuration = prog.getDefaultPointerSize() + ":"
+		    + prog.getLanguage().getLanguageDescription().getEndian().toString()
+		    + (exportLines ? ":lines" : "");
+	    IncrementalExport incrementalExport = new IncrementalExport(engine, outputFile, configuration);
+	    if (types != null)
+		incrementalExport.addTypes(types, exportLocals);
+	    if (exportVariables)
+		addVariables(incrementalExport::addVariable);
+
+	    log("addDebugInfo -> Adding functions per address range...");
+	    long functionCount = 0;
+	    long lineCount = 0;
+	    long frameCount = 0;
+	    long localCount = 0;
+	    for (Function f : getFunctions(prog, scope))
+	    {
+		Address entry = f.getEntryPoint();
+		AddressSetView body = f.getBody();
+		incrementalExport.addFunction(getCompileUnitKey(entry), f.getName(), entry.getOffset(),
+			body.getMaxAddress().getOffset(), body.getMinAddress().getOffset(), body.getNumAddresses());
+		functionCount++;
+		if (exportLines)
+		{
+		    int count = collectLineAddresses(f);
+		    incrementalExport.addLines(lineAddresses, count);
+		    lineCount += count;
+		}
+		boolean hasFrame = false;
+		if (frameConvention != null)
+		{
+		    AddressRange range = body.getRangeContaining(entry);
+		    int rowCount = collectFrameRows(f, range);
+		    if (rowCount >= 0)
+		    {
+			incrementalExport.addFrame(range.getMinAddress().getOffset(), range.getMaxAddress().getOffset(),
+				frameAddresses, frameCfaOffsets, rowCount);
+			frameCount++;
+			hasFrame = true;
+		    }
+		}
+		if (exportLocals)
+		    localCount += addLocals(incrementalExport::addLocal, f, hasFrame);
+	    }
+	    incrementalExport.finish();
+	    report.count("functions", functionCount);
+	    report.count("lineAddresses", lineCount);
+	    report.count("frames", frameCount);
+	    report.count("locals", localCount);
+	    report.count("compileUnits", incrementalExport.getUnitCount());
+	    report.count("reusedCompileUnits", incrementalExport.getReusedCount());
+	    log("addDebugInfo -> Reused " + incrementalExport.getReusedCount() + " of "
+		    + incrementalExport.getUnitCount() + " compile units from the previous export");
+	    return incrementalExport;
+	}
+
+	void makeElf(ArrayList<SectionInfo> sections) throws Exception
+	{
+	    boolean is64Bit = prog.getDefaultPointerSize() > 4;
+	    if (compressSections)
+	    {
+		report.startPhase("compress");
+		log("makeElf -> Compressing the Dwarf sections...");
+		sections = SectionCompressor.compress(sections, is64Bit, getByteOrder(prog),
+			Runtime.getRuntime().availableProcessors());
+	    }
+	    report.startPhase("makeElf");
+	    report.setSections(sections);
+	    ElfWriter writer = new ElfWriter(is64Bit, getByteOrder(prog), getElfMachine(prog), findEntryPointAddress(prog));
+	    writer.write(outputFile, sections);
 	}
     }
 
-    private void prepandNullAndShstrtabSections(ArrayList<SectionInfo> sections)
+    DwarfEngine createEngine(String engineName, Program prog, String sourceName, FrameConvention frameConvention,
+	    boolean useStringPool, boolean compactEncoding) throws Exception
     {
-	// Build the .shstrtab section (including the NULL section empty name)
-	ByteArrayOutputStream baos = new ByteArrayOutputStream();
-	baos.write(0);
-	baos.writeBytes((".shstrtab").getBytes());
-	baos.write(0);
-	for (SectionInfo section : sections)
-	{
-	    baos.writeBytes(section.name.getBytes());
-	    baos.write(0);
-	}
-
-	// Add the NULL and .shstrtab sections
-	// The NULL section is needed due to gdb assuming its presence
-	sections.add(0, new SectionInfo() 
-	{{
-	    name = ".shstrtab";
-	    content = baos.toByteArray();
-	}});
-	sections.add(0, new SectionInfo() 
-	{{
-	    name = "";
-	    content = null;
-	}});
+	int pointerSize = prog.getDefaultPointerSize();
+	if (engineName.equals(engineJava))
+	    return new JavaDwarfEngine(pointerSize, getByteOrder(prog), sourceName, frameConvention, useStringPool,
+		    compactEncoding);
+	return new LibdwarfEngine(pointerSize, getByteOrder(prog) == ByteOrder.BIG_ENDIAN, getProgramLibdwarfAbiName(prog),
+		sourceName, frameConvention, useStringPool, compactEncoding);
     }
 
-    private void writeElfHeader(FileOutputStream fout, ArrayList<SectionInfo> sections, Program prog) throws IOException
+    ByteOrder getByteOrder(Program prog)
     {
-	boolean is64Bit = prog.getDefaultPointerSize() > 4;
 	Endian endianness = prog.getLanguage().getLanguageDescription().getEndian();
-	ByteOrder byteOrder = endianness == Endian.LITTLE ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
-
-	int headerSize = is64Bit ? elfHeaderSize64Bit : elfHeaderSize32Bit;
-	int sectionHeaderEntrySize = is64Bit ? elfSectionHeaderEntrySize64Bit : elfSectionHeaderEntrySize32Bit;
-
-	// magic
-	fout.write(elfMagic);
-	// class
-	fout.write(is64Bit ? elfClass64Bit : elfClass32Bit);
-	// data
-	fout.write(endianness == Endian.LITTLE ? elfDataLittleEndian : elfDataBigEndian);
-	// version
-	fout.write(elfVersion);
-	// os abi, unimportant
-	fout.write(0);
-	// os abi version, unimportant
-	fout.write(0);
-	// padding
-	fout.write(new byte[7]);
-	// type, always DYN
-	writeInt16ToFout(fout, byteOrder, elfTypeDyn);
-	// machine
-	writeInt16ToFout(fout, byteOrder, getElfMachine(prog));
-	// version
-	writeInt32ToFout(fout, byteOrder, elfVersion);
-	// entry
-	writeIntWithBitness(fout, byteOrder, findEntryPointAddress(prog), is64Bit);
-	// program header table start (not used here)
-	writeIntWithBitness(fout, byteOrder, 0, is64Bit);
-	// section header table start
-	writeIntWithBitness(fout, byteOrder, headerSize, is64Bit);
-	// flags
-	writeInt32ToFout(fout, byteOrder, 0);
-	// this header size
-	writeInt16ToFout(fout, byteOrder, (short) headerSize);
-	// program header table entry size (not used here)
-	writeInt16ToFout(fout, byteOrder, (short) 0);
-	// program header table number of entry (not used here)
-	writeInt16ToFout(fout, byteOrder, (short) 0);
-	// section header table entry size
-	writeInt16ToFout(fout, byteOrder, (short) sectionHeaderEntrySize);
-	// section header table number of entry
-	writeInt16ToFout(fout, byteOrder, (short) sections.size());
-	// section names index, always will be the second one here
-	writeInt16ToFout(fout, byteOrder, (short) 1);
+	return endianness == Endian.LITTLE ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
     }
 
-    short getElfMachine(Program prog)
+    String getProgramLibdwarfAbiName(Program prog)
     {
 	int pointerSize = prog.getDefaultPointerSize();
 	switch (prog.getLanguage().getProcessor().toString())
 	{
 	case "ARM":
-	    return 0x28;
+	    return "arm";
 	case "AArch64":
-	    return 0xB7;
+	    return "arm64";
 	case "PowerPC":
-	    return (short) (pointerSize <= 4 ? 0x14 : 0x15);
+	    return pointerSize <= 4 ? "ppc" : "ppc64";
 	case "MIPS":
-	    return 0x08;
+	    return "mips";
 	// default to x86
 	case "x86":
 	default:
-	    return (short) (pointerSize <= 4 ? 0x03 : 0x3E);
+	    return pointerSize <= 4 ? "x86" : "x86_64";
 	}
     }
-    
-    long findEntryPointAddress(Program prog)
+
+    String getCompileUnitKey(Address address)
     {
-	// We assume the first entry point is the right one
-	var entryPoints = currentProgram.getSymbolTable().getExternalEntryPointIterator();
-	if (entryPoints.hasNext())
-	    return entryPoints.next().getOffset();
-	return 0;
+	return address.getAddressSpace().getName() + ":"
+		+ Long.toHexString(address.getOffset() >>> compileUnitRangeBits);
     }
 
-    private void writeElfSectionHeader(FileOutputStream fout, ArrayList<SectionInfo> sections, Program prog) throws IOException
+    // The functions with their entry point in scope, all of them if scope is null
+    FunctionIterator getFunctions(Program prog, AddressSetView scope)
     {
-	boolean is64Bit = prog.getDefaultPointerSize() > 4;
-	Endian endianness = prog.getLanguage().getLanguageDescription().getEndian();
-	ByteOrder byteOrder = endianness == Endian.LITTLE ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
-	int headerSize = is64Bit ? elfHeaderSize64Bit : elfHeaderSize32Bit;
-	int sectionHeaderEntrySize = is64Bit ? elfSectionHeaderEntrySize64Bit : elfSectionHeaderEntrySize32Bit;
-
-	// SECTION TABLE HEADER
-	int accumulatedSectionOffset = (sectionHeaderEntrySize * (sections.size())) + headerSize;
-	int accumulatedNameOffset = 0;
-	for (SectionInfo section : sections)
-	{
-	    // The null section must be all blanks
-	    if (section.name.isEmpty())
-	    {
-		fout.write(new byte[sectionHeaderEntrySize]);
-		accumulatedNameOffset++;
-		continue;
-	    }
-
-	    // name offset
-	    writeInt32ToFout(fout, byteOrder, accumulatedNameOffset);
-	    accumulatedNameOffset += section.name.length() + 1;
-	    // type
-	    if (section.name == ".shstrtab")
-		writeInt32ToFout(fout, byteOrder, elfSectionTypeStrTab);
-	    else
-		writeInt32ToFout(fout, byteOrder, elfSectionTypeProgBits);
-	    // flags
-	    writeIntWithBitness(fout, byteOrder, 0, is64Bit);
-	    // virtual address
-	    writeIntWithBitness(fout, byteOrder, 0, is64Bit);
-	    // section offset
-	    writeIntWithBitness(fout, byteOrder, accumulatedSectionOffset, is64Bit);
-	    accumulatedSectionOffset += section.content.length;
-	    // section size
-	    writeIntWithBitness(fout, byteOrder, section.content.length, is64Bit);
-	    // linked section index
-	    writeInt32ToFout(fout, byteOrder, 0);
-	    // section info
-	    writeInt32ToFout(fout, byteOrder, 0);
-	    // alignement, no requirements in particular so just 1
-	    writeIntWithBitness(fout, byteOrder, 1, is64Bit);
-	    // entry size
-	    writeIntWithBitness(fout, byteOrder, 0, is64Bit);
-	}
+	FunctionManager fm = prog.getFunctionManager();
+	if (scope != null)
+	    return fm.getFunctions(scope, true);
+	return fm.getFunctions(true);
     }
 
-    void writeIntWithBitness(FileOutputStream fout, ByteOrder endianness, long number, boolean is64Bit) throws IOException
+    void addFunction(DwarfEngine engine, Function func) throws Exception
     {
-	if (is64Bit)
-	    writeInt64ToFout(fout, endianness, number);
-	else
-	    writeInt32ToFout(fout, endianness, (int) number);
+	long fstart = func.getEntryPoint().getOffset();
+	long fend = func.getBody().getMaxAddress().getOffset();
+	engine.addFunction(func.getName(), fstart, fend);
     }
 
-    void writeInt64ToFout(FileOutputStream fout, ByteOrder endianness, long number) throws IOException
+    // The DWARF registers of the stack pointer and the return address, null if the processor isn't known
+    FrameConvention getFrameConvention(Program prog)
     {
-	fout.write(ByteBuffer.allocate(8).order(endianness).putLong(number).array());
+	int pointerSize = prog.getDefaultPointerSize();
+	switch (prog.getLanguage().getProcessor().toString())
+	{
+	case "ARM":
+	    return new FrameConvention(13, 14, 0, 0);
+	case "AArch64":
+	    return new FrameConvention(31, 30, 0, 0);
+	case "PowerPC":
+	    return new FrameConvention(1, 65, 0, 0);
+	case "MIPS":
+	    return new FrameConvention(29, 31, 0, 0);
+	case "x86":
+	    // the call pushed the return address
+	    if (pointerSize <= 4)
+		return new FrameConvention(4, 8, 4, -4);
+	    return new FrameConvention(7, 16, 8, -8);
+	default:
+	    return null;
+	}
     }
 
-    void writeInt32ToFout(FileOutputStream fout, ByteOrder endianness, int number) throws IOException
+    short getElfMachine(Program prog)
     {
-	fout.write(ByteBuffer.allocate(4).order(endianness).putInt(number).array());
+	int pointerSize = prog.getDefaultPointerSize();
+	switch (prog.getLanguage().getProcessor().toString())
+	{
+	case "ARM":
+	    return 0x28;
+	case "AArch64":
+	    return 0xB7;
+	case "PowerPC":
+	    return (short) (pointerSize <= 4 ? 0x14 : 0x15);
+	case "MIPS":
+	    return 0x08;
+	// default to x86
+	case "x86":
+	default:
+	    return (short) (pointerSize <= 4 ? 0x03 : 0x3E);
+	}
     }
-
-    void writeInt16ToFout(FileOutputStream fout, ByteOrder endianness, short number) throws IOException
+    
+    long findEntryPointAddress(Program prog)
     {
-	fout.write(ByteBuffer.allocate(2).order(endianness).putShort(number).array());
+	// We assume the first entry point is the right one
+	var entryPoints = prog.getSymbolTable().getExternalEntryPointIterator();
+	if (entryPoints.hasNext())
+	    return entryPoints.next().getOffset();
+	return 0;
     }
 }
@@ -0,0 +1,145 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Wall time of each phase of an export along with its counters and the size
+// of the written sections, saved as a JSON report to compare exports across
+// versions and programs. The heap usage is only sampled at the start and end
+// of the phases, it is that of the whole JVM so it includes the exports running
+// concurrently.
+public class ExportReport
+{
+    private final long startTime = System.nanoTime();
+    private final LinkedHashMap<String, String> properties = new LinkedHashMap<String, String>();
+    private final LinkedHashMap<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+    private final LinkedHashMap<String, Long> counters = new LinkedHashMap<String, Long>();
+    private final ArrayList<SectionInfo> sections = new ArrayList<SectionInfo>();
+    private String phase;
+    private long phaseStart;
+    private boolean success;
+    private long peakHeapUsage = getHeapUsage();
+
+    public void set(String property, String value)
+    {
+	properties.put(property, value);
+    }
+
+    // Ends the current phase and starts this one
+    public void startPhase(String name)
+    {
+	endPhase();
+	sampleHeapUsage();
+	phase = name;
+	phaseStart = System.nanoTime();
+    }
+
+    public void endPhase()
+    {
+	if (phase == null)
+	    return;
+	phaseNanos.merge(phase, System.nanoTime() - phaseStart, Long::sum);
+	sampleHeapUsage();
+	phase = null;
+    }
+
+    public void count(String counter, long value)
+    {
+	counters.merge(counter, value, Long::sum);
+    }
+
+    // Records the sections as written in the ELF file
+    public void setSections(List<SectionInfo> writtenSections)
+    {
+	sections.clear();
+	sections.addAll(writtenSections);
+    }
+
+    public void setSuccess(boolean success)
+    {
+	this.success = success;
+    }
+
+    // The JVM-wide peak counters of the memory pools aren't reset, another
+    // export running concurrently would lose its peak
+    private static long getHeapUsage()
+    {
+	return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private void sampleHeapUsage()
+    {
+	peakHeapUsage = Math.max(peakHeapUsage, getHeapUsage());
+    }
+
+    public void write(File file) throws IOException
+    {
+	endPhase();
+	StringBuilder json = new StringBuilder();
+	json.append("{\n");
+	for (Map.Entry<String, String> property : properties.entrySet())
+	    json.append("  ").append(quote(property.getKey())).append(": ").append(quote(property.getValue())).append(",\n");
+	json.append("  \"success\": ").append(success).append(",\n");
+	json.append("  \"totalMillis\": ").append(toMillis(System.nanoTime() - startTime)).append(",\n");
+	json.append("  \"peakHeapBytes\": ").append(peakHeapUsage).append(",\n");
+
+	json.append("  \"phases\": [");
+	String separator = "\n";
+	for (Map.Entry<String, Long> entry : phaseNanos.entrySet())
+	{
+	    json.append(separator).append("    { \"name\": ").append(quote(entry.getKey())).append(", \"millis\": ")
+		    .append(toMillis(entry.getValue())).append(" }");
+	    separator = ",\n";
+	}
+	json.append("\n  ],\n");
+
+	json.append("  \"counters\": {");
+	separator = "\n";
+	for (Map.Entry<String, Long> entry : counters.entrySet())
+	{
+	    json.append(separator).append("    ").append(quote(entry.getKey())).append(": ").append(entry.getValue());
+	    separator = ",\n";
+	}
+	json.append("\n  },\n");
+
+	json.append("  \"sections\": [");
+	separator = "\n";
+	for (SectionInfo section : sections)
+	{
+	    json.append(separator).append("    { \"name\": ").append(quote(section.name)).append(", \"bytes\": ")
+		    .append(section.size()).append(", \"compressed\": ")
+		    .append((section.flags & ElfWriter.elfSectionFlagCompressed) != 0).append(" }");
+	    separator = ",\n";
+	}
+	json.append("\n  ]\n}\n");
+	Files.write(file.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String toMillis(long nanos)
+    {
+	return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String str)
+    {
+	StringBuilder quoted = new StringBuilder(str.length() + 2);
+	quoted.append('"');
+	for (int i = 0; i < str.length(); i++)
+	{
+	    char c = str.charAt(i);
+	    if (c == '"' || c == '\\')
+		quoted.append('\\').append(c);
+	    else if (c < 0x20)
+		quoted.append(String.format("\\u%04x", (int) c));
+	    else
+		quoted.append(c);
+	}
+	return quoted.append('"').toString();
+    }
+}
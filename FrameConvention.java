@@ -0,0 +1,61 @@
+import java.nio.ByteOrder;
+
+// How the call frames of an architecture are described in the CFI: the CFA
+// is the stack pointer plus an offset that only changes with the stack depth,
+// and the return address is either saved on the stack at a fixed offset from
+// the CFA or kept in a register.
+public class FrameConvention
+{
+    public static final int codeAlignmentFactor = 1;
+    public static final int dataAlignmentFactor = -1;
+
+    public final int stackPointerRegister;
+    public final int returnAddressRegister;
+    // CFA offset from the stack pointer at the entry point of a function
+    public final int initialCfaOffset;
+    // offset of the saved return address from the CFA, 0 if it stays in returnAddressRegister
+    public final int returnAddressOffset;
+
+    public FrameConvention(int stackPointerRegister, int returnAddressRegister, int initialCfaOffset,
+	    int returnAddressOffset)
+    {
+	this.stackPointerRegister = stackPointerRegister;
+	this.returnAddressRegister = returnAddressRegister;
+	this.initialCfaOffset = initialCfaOffset;
+	this.returnAddressOffset = returnAddressOffset;
+    }
+
+    public boolean isReturnAddressOnStack()
+    {
+	return returnAddressOffset != 0;
+    }
+
+    // The initial instructions of the CIE
+    public byte[] getInitialInstructions()
+    {
+	DwarfBuffer instructions = new DwarfBuffer(ByteOrder.LITTLE_ENDIAN);
+	instructions.put8(LibdwarfLibrary.DW_CFA_def_cfa);
+	instructions.putUleb128(stackPointerRegister);
+	instructions.putUleb128(initialCfaOffset);
+	if (isReturnAddressOnStack())
+	{
+	    long factoredOffset = returnAddressOffset / dataAlignmentFactor;
+	    if (returnAddressRegister < 0x40)
+	    {
+		instructions.put8(LibdwarfLibrary.DW_CFA_offset | returnAddressRegister);
+	    }
+	    else
+	    {
+		instructions.put8(LibdwarfLibrary.DW_CFA_offset_extended);
+		instructions.putUleb128(returnAddressRegister);
+	    }
+	    instructions.putUleb128(factoredOffset);
+	}
+	else
+	{
+	    instructions.put8(LibdwarfLibrary.DW_CFA_same_value);
+	    instructions.putUleb128(returnAddressRegister);
+	}
+	return instructions.toByteArray();
+    }
+}
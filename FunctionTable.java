@@ -0,0 +1,171 @@
+import java.util.Arrays;
+
+// Compact table of functions to export, kept as parallel arrays. The line
+// addresses, the call frame rows and the locals of all the functions are
+// packed in single arrays.
+public class FunctionTable
+{
+    private String[] names;
+    private long[] starts;
+    private long[] ends;
+    // the line addresses of function i are in [lineStarts[i], lineStarts[i + 1])
+    private int[] lineStarts;
+    private long[] lineAddresses = new long[0];
+    // the call frame of function i covers [frameStarts[i], frameEnds[i]], its
+    // rows are in [frameRowStarts[i], frameRowStarts[i + 1])
+    private boolean[] hasFrame;
+    private long[] frameStarts;
+    private long[] frameEnds;
+    private int[] frameRowStarts;
+    private long[] frameRowAddresses = new long[0];
+    private int[] frameRowCfaOffsets = new int[0];
+    // the locals of function i are in [localStarts[i], localStarts[i + 1])
+    private int[] localStarts;
+    private String[] localNames = new String[0];
+    private boolean[] localParameters = new boolean[0];
+    private int[] localTypeIds = new int[0];
+    private int[] localRegisters = new int[0];
+    private long[] localFrameOffsets = new long[0];
+    private int size;
+
+    public FunctionTable()
+    {
+	this(64);
+    }
+
+    public FunctionTable(int initialCapacity)
+    {
+	int capacity = Math.max(initialCapacity, 1);
+	names = new String[capacity];
+	starts = new long[capacity];
+	ends = new long[capacity];
+	lineStarts = new int[capacity + 1];
+	hasFrame = new boolean[capacity];
+	frameStarts = new long[capacity];
+	frameEnds = new long[capacity];
+	frameRowStarts = new int[capacity + 1];
+	localStarts = new int[capacity + 1];
+    }
+
+    public void add(String name, long start, long end)
+    {
+	if (size == names.length)
+	{
+	    int capacity = size * 2;
+	    names = Arrays.copyOf(names, capacity);
+	    starts = Arrays.copyOf(starts, capacity);
+	    ends = Arrays.copyOf(ends, capacity);
+	    lineStarts = Arrays.copyOf(lineStarts, capacity + 1);
+	    hasFrame = Arrays.copyOf(hasFrame, capacity);
+	    frameStarts = Arrays.copyOf(frameStarts, capacity);
+	    frameEnds = Arrays.copyOf(frameEnds, capacity);
+	    frameRowStarts = Arrays.copyOf(frameRowStarts, capacity + 1);
+	    localStarts = Arrays.copyOf(localStarts, capacity + 1);
+	}
+	names[size] = name;
+	starts[size] = start;
+	ends[size] = end;
+	size++;
+	lineStarts[size] = lineStarts[size - 1];
+	hasFrame[size - 1] = false;
+	frameRowStarts[size] = frameRowStarts[size - 1];
+	localStarts[size] = localStarts[size - 1];
+    }
+
+    // Adds line addresses to the last function
+    public void addLines(long[] addresses, int offset, int count)
+    {
+	int lineCount = lineStarts[size];
+	if (lineCount + count > lineAddresses.length)
+	    lineAddresses = Arrays.copyOf(lineAddresses, Math.max(lineAddresses.length * 2, lineCount + count));
+	System.arraycopy(addresses, offset, lineAddresses, lineCount, count);
+	lineStarts[size] += count;
+    }
+
+    // Sets the call frame of the last function
+    public void setFrame(long start, long end, long[] addresses, int[] cfaOffsets, int offset, int count)
+    {
+	int rowCount = frameRowStarts[size - 1];
+	if (rowCount + count > frameRowAddresses.length)
+	{
+	    int capacity = Math.max(frameRowAddresses.length * 2, rowCount + count);
+	    frameRowAddresses = Arrays.copyOf(frameRowAddresses, capacity);
+	    frameRowCfaOffsets = Arrays.copyOf(frameRowCfaOffsets, capacity);
+	}
+	System.arraycopy(addresses, offset, frameRowAddresses, rowCount, count);
+	System.arraycopy(cfaOffsets, offset, frameRowCfaOffsets, rowCount, count);
+	hasFrame[size - 1] = true;
+	frameStarts[size - 1] = start;
+	frameEnds[size - 1] = end;
+	frameRowStarts[size] = rowCount + count;
+    }
+
+    // Adds a parameter or a local variable to the last function
+    public void addLocal(String name, boolean parameter, int typeId, int register, long frameOffset)
+    {
+	int localCount = localStarts[size];
+	if (localCount == localNames.length)
+	{
+	    int capacity = Math.max(localCount * 2, 16);
+	    localNames = Arrays.copyOf(localNames, capacity);
+	    localParameters = Arrays.copyOf(localParameters, capacity);
+	    localTypeIds = Arrays.copyOf(localTypeIds, capacity);
+	    localRegisters = Arrays.copyOf(localRegisters, capacity);
+	    localFrameOffsets = Arrays.copyOf(localFrameOffsets, capacity);
+	}
+	localNames[localCount] = name;
+	localParameters[localCount] = parameter;
+	localTypeIds[localCount] = typeId;
+	localRegisters[localCount] = register;
+	localFrameOffsets[localCount] = frameOffset;
+	localStarts[size]++;
+    }
+
+    public int size()
+    {
+	return size;
+    }
+
+    public int getLocalCount()
+    {
+	return localStarts[size];
+    }
+
+    public String getName(int index)
+    {
+	return names[index];
+    }
+
+    public long getStart(int index)
+    {
+	return starts[index];
+    }
+
+    public long getEnd(int index)
+    {
+	return ends[index];
+    }
+
+    public void clear()
+    {
+	Arrays.fill(names, 0, size, null);
+	Arrays.fill(localNames, 0, localStarts[size], null);
+	size = 0;
+    }
+
+    public void addTo(DwarfEngine engine, int from, int to) throws Exception
+    {
+	for (int i = from; i < to; i++)
+	{
+	    engine.addFunction(names[i], starts[i], ends[i]);
+	    for (int j = localStarts[i]; j < localStarts[i + 1]; j++)
+		engine.addLocal(localNames[j], localParameters[j], localTypeIds[j], localRegisters[j],
+			localFrameOffsets[j]);
+	    if (lineStarts[i + 1] > lineStarts[i])
+		engine.addLines(lineAddresses, lineStarts[i], lineStarts[i + 1] - lineStarts[i], ends[i]);
+	    if (hasFrame[i])
+		engine.addFrame(frameStarts[i], frameEnds[i], frameRowAddresses, frameRowCfaOffsets, frameRowStarts[i],
+			frameRowStarts[i + 1] - frameRowStarts[i]);
+	}
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+// Incremental export on top of the Java engine: functions are grouped in
+// compile units per address range and a unit whose fingerprint didn't change
+// since the previous export is copied from the previous ELF instead of being
+// encoded again, along with its line program. Functions must be added in
+// address order.
+public class IncrementalExport
+{
+    private final JavaDwarfEngine engine;
+    private final File cacheFile;
+    private final CompileUnitCache previousCache;
+    private final CompileUnitCache cache;
+    private SectionReader previousInfo;
+    private SectionReader previousLines;
+
+    private static final String globalsUnitKey = "globals";
+
+    private TypeTable types;
+    private long typesFingerprint;
+    // whether the locals refer to the types, which are then always encoded again
+    private boolean localsTyped;
+    private final VariableTable variables = new VariableTable();
+    private long globalsFingerprint;
+    private boolean hasGlobals;
+
+    private final FunctionTable unitFunctions = new FunctionTable();
+    private String unitKey;
+    private long unitFingerprint;
+    private int unitCount;
+    private int reusedCount;
+
+    public IncrementalExport(JavaDwarfEngine engine, File elfFile, String configuration) throws IOException
+    {
+	this.engine = engine;
+	cacheFile = CompileUnitCache.getSidecarFile(elfFile);
+	previousCache = CompileUnitCache.load(cacheFile, configuration);
+	// the cache is only saved again once the ELF it describes is written, a
+	// failed export must not leave it next to another ELF
+	Files.deleteIfExists(cacheFile.toPath());
+	cache = new CompileUnitCache(configuration);
+	if (!previousCache.isEmpty())
+	{
+	    previousInfo = ElfReader.readSection(elfFile, ".debug_info");
+	    if (engine.hasLines())
+		previousLines = ElfReader.readSection(elfFile, ".debug_line");
+	}
+    }
+
+    public void addFunction(String unitKey, String name, long start, long end, long bodyMin, long bodySize) throws Exception
+    {
+	flushGlobals();
+	if (!unitKey.equals(this.unitKey))
+	{
+	    flushCompileUnit();
+	    this.unitKey = unitKey;
+	}
+
+	unitFingerprint = CompileUnitCache.hashFunction(unitFingerprint, name, start, bodyMin, end, bodySize);
+	unitFunctions.add(name, start, end);
+    }
+
+    // Adds a parameter or a local variable to the last function, its type is
+    // in the compile unit of the types and referred to with DW_FORM_ref_addr
+    public void addLocal(String name, boolean parameter, int typeId, int register, long frameOffset)
+    {
+	unitFingerprint = CompileUnitCache.hashLocal(unitFingerprint, name, parameter, typeId, typesFingerprint,
+		register, frameOffset);
+	unitFunctions.addLocal(name, parameter, typeId, register, frameOffset);
+    }
+
+    // Adds line addresses to the last function
+    public void addLines(long[] addresses, int count)
+    {
+	unitFingerprint = CompileUnitCache.hashAddresses(unitFingerprint, addresses, 0, count);
+	unitFunctions.addLines(addresses, 0, count);
+    }
+
+    // The call frames don't belong to a compile unit, they are always encoded again
+    public void addFrame(long start, long end, long[] addresses, int[] cfaOffsets, int count)
+    {
+	engine.addFrame(start, end, addresses, cfaOffsets, 0, count);
+    }
+
+    // The types and the variables, which refer to them, get a compile unit of
+    // their own reused as long as neither changes. They must be added before
+    // the functions. When the locals refer to them, the unit is encoded again
+    // to know the offsets of the type DIEs, which are the same as long as the
+    // types don't change since the unit is always the first one.
+    public void addTypes(TypeTable types, boolean localsTyped)
+    {
+	this.types = types;
+	this.localsTyped = localsTyped;
+	typesFingerprint = types.getFingerprint();
+	globalsFingerprint = typesFingerprint;
+	hasGlobals = true;
+    }
+
+    public void addVariable(String name, long address, int typeId)
+    {
+	globalsFingerprint = CompileUnitCache.hashVariable(globalsFingerprint, name, address, typeId);
+	variables.add(name, address, typeId);
+	hasGlobals = true;
+    }
+
+    private void flushGlobals() throws Exception
+    {
+	if (!hasGlobals)
+	    return;
+
+	addCompileUnit(globalsUnitKey, globalsFingerprint, !(types != null && localsTyped), () ->
+	{
+	    if (types != null)
+		engine.addTypes(types);
+	    variables.addTo(engine);
+	});
+	if (types != null && localsTyped)
+	    engine.setExternalTypes(engine.getTypeInfoOffsets());
+
+	hasGlobals = false;
+	types = null;
+	variables.clear();
+    }
+
+    private void flushCompileUnit() throws Exception
+    {
+	if (unitKey == null)
+	    return;
+
+	addCompileUnit(unitKey, unitFingerprint, true, () -> unitFunctions.addTo(engine, 0, unitFunctions.size()));
+
+	unitKey = null;
+	unitFingerprint = 0;
+	unitFunctions.clear();
+    }
+
+    private interface UnitEncoder
+    {
+	void encode() throws Exception;
+    }
+
+    private void addCompileUnit(String key, long fingerprint, boolean reusable, UnitEncoder encoder) throws Exception
+    {
+	CompileUnitCache.Entry previous = previousCache.get(key);
+	ByteBuffer previousUnit = null;
+	ByteBuffer previousLineProgram = null;
+	if (reusable && previous != null && previous.fingerprint == fingerprint)
+	{
+	    previousUnit = slice(previousInfo, previous.offset, previous.length);
+	    if (previousUnit != null && !engine.isEncodedCompileUnit(previousUnit))
+		previousUnit = null;
+	    if (engine.hasLines())
+	    {
+		previousLineProgram = slice(previousLines, previous.lineOffset, previous.lineLength);
+		if (previousLineProgram == null)
+		    previousUnit = null;
+	    }
+	}
+
+	int lineOffset = engine.getLineSize();
+	int offset;
+	int length;
+	if (previousUnit != null)
+	{
+	    offset = engine.addEncodedCompileUnit(previousUnit, previousLineProgram);
+	    length = previousUnit.remaining();
+	    reusedCount++;
+	}
+	else
+	{
+	    offset = engine.beginCompileUnit();
+	    encoder.encode();
+	    length = engine.endCompileUnit();
+	}
+	cache.put(key, fingerprint, offset, length, lineOffset, engine.getLineSize() - lineOffset);
+	unitCount++;
+    }
+
+    // Returns null if the range isn't within the section
+    private static ByteBuffer slice(SectionReader section, long offset, long length) throws Exception
+    {
+	if (section == null || length <= 0 || offset + length > section.size())
+	    return null;
+	return section.slice(offset, length);
+    }
+
+    public void finish() throws Exception
+    {
+	flushGlobals();
+	flushCompileUnit();
+	previousInfo = null;
+	previousLines = null;
+    }
+
+    // Must only be called once the ELF with the new units has been written
+    public void saveCache() throws IOException
+    {
+	cache.save(cacheFile);
+    }
+
+    public int getUnitCount()
+    {
+	return unitCount;
+    }
+
+    public int getReusedCount()
+    {
+	return reusedCount;
+    }
+}
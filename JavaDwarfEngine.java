@@ -0,0 +1,863 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+// Pure Java DWARF 5 producer writing the sections directly into Java buffers.
+// The output mirrors what the libdwarf engine produces for the same functions.
+//
+// Every compile unit shares the same fixed abbreviation table and only uses
+// unit relative references, so an encoded unit can be copied as is from a
+// previous export (see addEncodedCompileUnit), unless the names are in the
+// string pool of .debug_str. With a line table, each unit
+// also gets its own line program in .debug_line. The call frame information
+// is independent of the units: a single CIE followed by an FDE per function.
+//
+// The compact encoding writes DW_AT_high_pc as the length of the function,
+// the addresses of the DIEs as indexes into the unit's table of .debug_addr
+// and the size of the pointers of the target size in their abbreviation.
+public class JavaDwarfEngine implements DwarfEngine
+{
+    private static final int abbrevCompileUnit = 1;
+    private static final int abbrevSubprogram = 2;
+    private static final int abbrevBaseType = 3;
+    private static final int abbrevPointerType = 4;
+    private static final int abbrevVoidPointerType = 5;
+    private static final int abbrevTypedef = 6;
+    private static final int abbrevVoidTypedef = 7;
+    private static final int abbrevStructureType = 8;
+    private static final int abbrevUnionType = 9;
+    private static final int abbrevMember = 10;
+    private static final int abbrevArrayType = 11;
+    private static final int abbrevSubrange = 12;
+    private static final int abbrevEnumerationType = 13;
+    private static final int abbrevEnumerator = 14;
+    private static final int abbrevVariable = 15;
+    private static final int abbrevUntypedVariable = 16;
+    private static final int abbrevSubprogramWithLocals = 17;
+    private static final int abbrevParameter = 18;
+    private static final int abbrevUntypedParameter = 19;
+    private static final int abbrevLocal = 20;
+    private static final int abbrevUntypedLocal = 21;
+    private static final int abbrevTargetPointerType = 22;
+    private static final int abbrevVoidTargetPointerType = 23;
+    private static final int abbrevExternalTypeVariable = 24;
+    private static final int abbrevExternalTypeParameter = 25;
+    private static final int abbrevExternalTypeLocal = 26;
+
+    // line program parameters, a special opcode advances the line by 1 and
+    // the address by up to maxSpecialAddressAdvance
+    private static final int lineBase = -5;
+    private static final int lineRange = 14;
+    private static final int lineOpcodeBase = 13;
+    private static final int maxSpecialAddressAdvance = (255 - lineOpcodeBase - (1 - lineBase)) / lineRange;
+
+    private final int pointerSize;
+    private final boolean is64Bit;
+    private final DwarfBuffer info;
+    private final int unitLengthSize;
+    private int unitStart = -1;
+    private int compileUnitCount;
+    // the unit relative offsets of the type DIEs, only valid in the unit starting at typesUnitStart
+    private int[] typeOffsets;
+    private int typesUnitStart = -1;
+    // the .debug_info offsets of the type DIEs of another unit, referred to
+    // with DW_FORM_ref_addr by the DIEs outside the unit of the types
+    private long[] externalTypeOffsets;
+    // the abbreviation code of the last subprogram, patched when it gets
+    // locals, -1 once another DIE follows it
+    private int subprogramPosition = -1;
+    private boolean subprogramHasLocals;
+
+    // null when no line table is generated
+    private final String sourceName;
+    private final DwarfBuffer lines;
+    private int lineUnitStart;
+    private int lineHeaderLengthPosition;
+    private long lineNumber;
+
+    // null when no call frame information is generated
+    private final FrameConvention frameConvention;
+    private final DwarfBuffer frames;
+
+    // null when the names are inline
+    private final StringPool stringPool;
+    private final int stringForm;
+
+    // null without the compact encoding, the address table of the current
+    // unit starts at addressTableStart
+    private final DwarfBuffer addresses;
+    private int addressTableStart;
+    private int addressCount;
+
+    public JavaDwarfEngine(int pointerSize, ByteOrder byteOrder)
+    {
+	this(pointerSize, byteOrder, null, null, false);
+    }
+
+    public JavaDwarfEngine(int pointerSize, ByteOrder byteOrder, String sourceName, FrameConvention frameConvention,
+	    boolean useStringPool)
+    {
+	this(pointerSize, byteOrder, sourceName, frameConvention, useStringPool, false);
+    }
+
+    // The line table maps each address given to addLines to a pseudo-line of
+    // sourceName, the call frames given to addFrame follow frameConvention
+    public JavaDwarfEngine(int pointerSize, ByteOrder byteOrder, String sourceName, FrameConvention frameConvention,
+	    boolean useStringPool, boolean compact)
+    {
+	this.pointerSize = pointerSize;
+	this.is64Bit = pointerSize > 4;
+	info = new DwarfBuffer(byteOrder, 1 << 16);
+	unitLengthSize = is64Bit ? 12 : 4;
+	this.sourceName = sourceName;
+	lines = sourceName != null ? new DwarfBuffer(byteOrder, 1 << 16) : null;
+	this.frameConvention = frameConvention;
+	frames = frameConvention != null ? new DwarfBuffer(byteOrder, 1 << 16) : null;
+	if (frames != null)
+	    putCommonInformationEntry();
+	stringPool = useStringPool ? new StringPool() : null;
+	stringForm = useStringPool ? LibdwarfLibrary.DW_FORM_strp : LibdwarfLibrary.DW_FORM_string;
+	addresses = compact ? new DwarfBuffer(byteOrder, 1 << 16) : null;
+    }
+
+    // The CIE shared by every FDE, at offset 0 of .debug_frame
+    private void putCommonInformationEntry()
+    {
+	putUnitLength(frames);
+	// CIE id
+	if (is64Bit)
+	    frames.put64(-1);
+	else
+	    frames.put32(0xFFFFFFFFL);
+	frames.put8(4);
+	// empty augmentation string, address size and segment selector size
+	frames.put8(0);
+	frames.put8(pointerSize);
+	frames.put8(0);
+	frames.putUleb128(FrameConvention.codeAlignmentFactor);
+	frames.putSleb128(FrameConvention.dataAlignmentFactor);
+	frames.putUleb128(frameConvention.returnAddressRegister);
+	frames.putBytes(frameConvention.getInitialInstructions());
+	endFrameEntry(0);
+    }
+
+    private void endFrameEntry(int start)
+    {
+	while ((frames.size() - start) % pointerSize != 0)
+	    frames.put8(LibdwarfLibrary.DW_CFA_nop);
+	setUnitLength(frames, start);
+    }
+
+    public boolean hasLines()
+    {
+	return lines != null;
+    }
+
+    // Starts a new compile unit, returns its offset in .debug_info
+    public int beginCompileUnit()
+    {
+	if (unitStart >= 0)
+	    endCompileUnit();
+
+	unitStart = info.size();
+	putUnitLength(info);
+	info.put16(5);
+	info.put8(LibdwarfLibrary.DW_UT_compile);
+	info.put8(pointerSize);
+	// abbreviation table offset, there is only one table
+	info.putFixed(0, is64Bit ? 8 : 4);
+	info.putUleb128(abbrevCompileUnit);
+	if (lines != null)
+	{
+	    // DW_AT_stmt_list and DW_AT_name
+	    info.putFixed(lines.size(), is64Bit ? 8 : 4);
+	    putString(sourceName);
+	    beginLineProgram();
+	}
+	if (addresses != null)
+	{
+	    // DW_AT_addr_base, the first address after the header of the table
+	    beginAddressTable();
+	    info.putFixed(addresses.size(), is64Bit ? 8 : 4);
+	}
+	return unitStart;
+    }
+
+    private void beginAddressTable()
+    {
+	addressTableStart = addresses.size();
+	addressCount = 0;
+	putUnitLength(addresses);
+	addresses.put16(5);
+	addresses.put8(pointerSize);
+	// segment selector size
+	addresses.put8(0);
+    }
+
+    // Returns the index of the address in the table of the unit
+    private long addAddress(long address)
+    {
+	addresses.putFixed(address, pointerSize);
+	return addressCount++;
+    }
+
+    private void beginLineProgram()
+    {
+	lineUnitStart = lines.size();
+	lineNumber = 0;
+	putUnitLength(lines);
+	lines.put16(5);
+	lines.put8(pointerSize);
+	// segment selector size
+	lines.put8(0);
+	lineHeaderLengthPosition = lines.size();
+	lines.putFixed(0, is64Bit ? 8 : 4);
+	// minimum instruction length, maximum operations per instruction and default is_stmt
+	lines.put8(1);
+	lines.put8(1);
+	lines.put8(1);
+	lines.put8(lineBase);
+	lines.put8(lineRange);
+	lines.put8(lineOpcodeBase);
+	// operand count of each standard opcode
+	for (int operands : new int[] { 0, 1, 1, 1, 1, 0, 0, 0, 1, 0, 0, 1 })
+	    lines.put8(operands);
+	// one directory
+	lines.put8(1);
+	lines.putUleb128(LibdwarfLibrary.DW_LNCT_path);
+	lines.putUleb128(LibdwarfLibrary.DW_FORM_string);
+	lines.putUleb128(1);
+	lines.putCString(".");
+	// the pseudo source, as file 0 and as file 1 which is the default of the line programs
+	lines.put8(2);
+	lines.putUleb128(LibdwarfLibrary.DW_LNCT_path);
+	lines.putUleb128(LibdwarfLibrary.DW_FORM_string);
+	lines.putUleb128(LibdwarfLibrary.DW_LNCT_directory_index);
+	lines.putUleb128(LibdwarfLibrary.DW_FORM_udata);
+	lines.putUleb128(2);
+	for (int i = 0; i < 2; i++)
+	{
+	    lines.putCString(sourceName);
+	    lines.putUleb128(0);
+	}
+	int offsetSize = is64Bit ? 8 : 4;
+	lines.setFixed(lineHeaderLengthPosition, lines.size() - lineHeaderLengthPosition - offsetSize, offsetSize);
+    }
+
+    private void putUnitLength(DwarfBuffer buffer)
+    {
+	// patched once the unit is complete
+	if (is64Bit)
+	{
+	    buffer.put32(0xFFFFFFFFL);
+	    buffer.put64(0);
+	}
+	else
+	{
+	    buffer.put32(0);
+	}
+    }
+
+    private void setUnitLength(DwarfBuffer buffer, int start)
+    {
+	long unitLength = buffer.size() - start - unitLengthSize;
+	if (is64Bit)
+	    buffer.setFixed(start + 4, unitLength, 8);
+	else
+	    buffer.setFixed(start, unitLength, 4);
+    }
+
+    // Ends the current compile unit, returns its size in .debug_info
+    public int endCompileUnit()
+    {
+	endSubprogram();
+	// close the compile unit's children list
+	info.put8(0);
+	setUnitLength(info, unitStart);
+	if (lines != null)
+	    setUnitLength(lines, lineUnitStart);
+	if (addresses != null)
+	    setUnitLength(addresses, addressTableStart);
+
+	int size = info.size() - unitStart;
+	unitStart = -1;
+	compileUnitCount++;
+	return size;
+    }
+
+    // Adds a compile unit previously encoded by an engine with the same
+    // configuration along with its line program when there is a line table,
+    // returns its offset in .debug_info
+    public int addEncodedCompileUnit(ByteBuffer unit, ByteBuffer lineProgram)
+    {
+	if (stringPool != null)
+	    throw new IllegalStateException("Encoded compile units can't refer to the string pool");
+	if (addresses != null)
+	    throw new IllegalStateException("Encoded compile units can't refer to an address table");
+	if (unitStart >= 0)
+	    endCompileUnit();
+
+	int offset = info.size();
+	info.putBytes(unit);
+	if (lines != null)
+	{
+	    // the DW_AT_stmt_list right after the unit header and abbreviation code
+	    info.setFixed(offset + unitLengthSize + 4 + (is64Bit ? 8 : 4) + 1, lines.size(), is64Bit ? 8 : 4);
+	    lines.putBytes(lineProgram);
+	}
+	compileUnitCount++;
+	return offset;
+    }
+
+    // Checks that the bytes look like a whole unit encoded with this configuration
+    public boolean isEncodedCompileUnit(ByteBuffer unit)
+    {
+	ByteBuffer view = unit.duplicate().order(info.byteOrder());
+	if (view.remaining() < unitLengthSize + 4)
+	    return false;
+	int start = view.position();
+	long unitLength = is64Bit ? view.getLong(start + 4) : (view.getInt(start) & 0xFFFFFFFFL);
+	if (is64Bit && view.getInt(start) != 0xFFFFFFFF)
+	    return false;
+	return unitLength == view.remaining() - unitLengthSize && view.getShort(start + unitLengthSize) == 5
+		&& view.get(start + unitLengthSize + 3) == pointerSize;
+    }
+
+    public int getInfoSize()
+    {
+	return info.size();
+    }
+
+    public int getLineSize()
+    {
+	return lines != null ? lines.size() : 0;
+    }
+
+    @Override
+    public void addFunction(String name, long start, long end)
+    {
+	if (unitStart < 0)
+	    beginCompileUnit();
+	endSubprogram();
+
+	subprogramPosition = info.size();
+	info.putUleb128(abbrevSubprogram);
+	// DW_AT_frame_base
+	info.putUleb128(1);
+	info.put8(LibdwarfLibrary.DW_OP_call_frame_cfa);
+	// DW_AT_name and DW_AT_linkage_name
+	putString(name);
+	putString(name);
+	// DW_AT_low_pc and DW_AT_high_pc, end is the last byte of the function
+	if (addresses != null)
+	{
+	    info.putUleb128(addAddress(start));
+	    info.putUleb128(end + 1 - start);
+	}
+	else
+	{
+	    info.putFixed(start, pointerSize);
+	    info.putFixed(end + 1, pointerSize);
+	}
+    }
+
+    // The locals are the children of the subprogram, its abbreviation code is
+    // switched to the one with children on the first of them
+    @Override
+    public void addLocal(String name, boolean parameter, int typeId, int register, long frameOffset)
+    {
+	if (subprogramPosition < 0)
+	    throw new IllegalStateException("Locals must follow their function");
+	if (!subprogramHasLocals)
+	{
+	    info.setFixed(subprogramPosition, abbrevSubprogramWithLocals, 1);
+	    subprogramHasLocals = true;
+	}
+
+	boolean typed = typeId >= 0 && unitStart == typesUnitStart;
+	boolean externalType = typeId >= 0 && !typed && externalTypeOffsets != null;
+	if (parameter)
+	    info.putUleb128(typed ? abbrevParameter : externalType ? abbrevExternalTypeParameter : abbrevUntypedParameter);
+	else
+	    info.putUleb128(typed ? abbrevLocal : externalType ? abbrevExternalTypeLocal : abbrevUntypedLocal);
+	putString(name);
+	// DW_AT_location, the expression is always shorter than 128 bytes
+	int lengthPosition = info.size();
+	info.put8(0);
+	if (register >= 0 && register < 32)
+	{
+	    info.put8(LibdwarfLibrary.DW_OP_reg0 + register);
+	}
+	else if (register >= 0)
+	{
+	    info.put8(LibdwarfLibrary.DW_OP_regx);
+	    info.putUleb128(register);
+	}
+	else
+	{
+	    info.put8(LibdwarfLibrary.DW_OP_fbreg);
+	    info.putSleb128(frameOffset);
+	}
+	info.setFixed(lengthPosition, info.size() - lengthPosition - 1, 1);
+	putTypeReference(typeId, typed, externalType);
+    }
+
+    // A reference to the type of a variable, local or parameter, unit
+    // relative when typed and section relative when the type is external
+    private void putTypeReference(int typeId, boolean typed, boolean externalType)
+    {
+	if (typed)
+	    info.put32(typeOffsets[typeId]);
+	else if (externalType)
+	    info.putFixed(externalTypeOffsets[typeId], is64Bit ? 8 : 4);
+    }
+
+    // Closes the children list of the last subprogram if it got locals
+    private void endSubprogram()
+    {
+	if (subprogramHasLocals)
+	    info.put8(0);
+	subprogramPosition = -1;
+	subprogramHasLocals = false;
+    }
+
+    // Adds a line sequence numbering each address with the next pseudo-line of
+    // the unit, the addresses must be increasing and end is the last byte
+    @Override
+    public void addLines(long[] addresses, int offset, int count, long end)
+    {
+	if (lines == null || count == 0)
+	    return;
+	if (unitStart < 0)
+	    beginCompileUnit();
+
+	long address = addresses[offset];
+	lines.put8(0);
+	lines.putUleb128(1 + pointerSize);
+	lines.put8(LibdwarfLibrary.DW_LNE_set_address);
+	lines.putFixed(address, pointerSize);
+	// every sequence starts at line 1
+	lineNumber++;
+	if (lineNumber != 1)
+	{
+	    lines.put8(LibdwarfLibrary.DW_LNS_advance_line);
+	    lines.putSleb128(lineNumber - 1);
+	}
+	lines.put8(LibdwarfLibrary.DW_LNS_copy);
+
+	for (int i = offset + 1; i < offset + count; i++)
+	{
+	    long addressAdvance = addresses[i] - address;
+	    if (addressAdvance <= 0)
+		continue;
+	    if (addressAdvance > maxSpecialAddressAdvance)
+	    {
+		lines.put8(LibdwarfLibrary.DW_LNS_advance_pc);
+		lines.putUleb128(addressAdvance);
+		addressAdvance = 0;
+	    }
+	    lines.put8((int) ((1 - lineBase) + lineRange * addressAdvance + lineOpcodeBase));
+	    address = addresses[i];
+	    lineNumber++;
+	}
+
+	if (end >= address)
+	{
+	    lines.put8(LibdwarfLibrary.DW_LNS_advance_pc);
+	    lines.putUleb128(end + 1 - address);
+	}
+	lines.put8(0);
+	lines.putUleb128(1);
+	lines.put8(LibdwarfLibrary.DW_LNE_end_sequence);
+    }
+
+    // Adds the FDE of the code in [start, end], the CFA offset from the stack
+    // pointer changes to cfaOffsets[i] at addresses[i]
+    @Override
+    public void addFrame(long start, long end, long[] addresses, int[] cfaOffsets, int offset, int count)
+    {
+	if (frames == null)
+	    return;
+
+	int entryStart = frames.size();
+	putUnitLength(frames);
+	// the CIE is at the start of the section
+	frames.putFixed(0, is64Bit ? 8 : 4);
+	frames.putFixed(start, pointerSize);
+	frames.putFixed(end + 1 - start, pointerSize);
+	long location = start;
+	for (int i = offset; i < offset + count; i++)
+	{
+	    if (addresses[i] < location || addresses[i] > end)
+		continue;
+	    putAdvanceLocation(addresses[i] - location);
+	    location = addresses[i];
+	    frames.put8(LibdwarfLibrary.DW_CFA_def_cfa_offset);
+	    frames.putUleb128(cfaOffsets[i]);
+	}
+	endFrameEntry(entryStart);
+    }
+
+    private void putAdvanceLocation(long delta)
+    {
+	if (delta == 0)
+	    return;
+	if (delta < 0x40)
+	{
+	    frames.put8(LibdwarfLibrary.DW_CFA_advance_loc | (int) delta);
+	}
+	else if (delta <= 0xFF)
+	{
+	    frames.put8(LibdwarfLibrary.DW_CFA_advance_loc1);
+	    frames.put8((int) delta);
+	}
+	else if (delta <= 0xFFFF)
+	{
+	    frames.put8(LibdwarfLibrary.DW_CFA_advance_loc2);
+	    frames.put16((int) delta);
+	}
+	else
+	{
+	    frames.put8(LibdwarfLibrary.DW_CFA_advance_loc4);
+	    frames.put32(delta);
+	}
+    }
+
+    @Override
+    public void addTypes(TypeTable types)
+    {
+	if (unitStart < 0)
+	    beginCompileUnit();
+	endSubprogram();
+
+	// references are unit relative and may point forward, they are
+	// patched once every type DIE has been written
+	typeOffsets = new int[types.size()];
+	typesUnitStart = unitStart;
+	ArrayList<int[]> fixups = new ArrayList<int[]>();
+	for (int id = 0; id < types.size(); id++)
+	{
+	    TypeTable.Type type = types.get(id);
+	    typeOffsets[id] = info.size() - unitStart;
+	    switch (type.tag)
+	    {
+	    case LibdwarfLibrary.DW_TAG_base_type:
+		info.putUleb128(abbrevBaseType);
+		putString(type.name);
+		info.putUleb128(type.byteSize);
+		info.put8(type.encoding);
+		break;
+	    case LibdwarfLibrary.DW_TAG_pointer_type:
+		if (addresses != null && type.byteSize == pointerSize)
+		{
+		    info.putUleb128(type.typeId < 0 ? abbrevVoidTargetPointerType : abbrevTargetPointerType);
+		}
+		else
+		{
+		    info.putUleb128(type.typeId < 0 ? abbrevVoidPointerType : abbrevPointerType);
+		    info.putUleb128(type.byteSize);
+		}
+		putTypeReference(type.typeId, fixups);
+		break;
+	    case LibdwarfLibrary.DW_TAG_typedef:
+		info.putUleb128(type.typeId < 0 ? abbrevVoidTypedef : abbrevTypedef);
+		putString(type.name);
+		putTypeReference(type.typeId, fixups);
+		break;
+	    case LibdwarfLibrary.DW_TAG_structure_type:
+	    case LibdwarfLibrary.DW_TAG_union_type:
+		info.putUleb128(type.tag == LibdwarfLibrary.DW_TAG_union_type ? abbrevUnionType : abbrevStructureType);
+		putString(type.name);
+		info.putUleb128(type.byteSize);
+		for (TypeTable.Member member : type.members)
+		{
+		    info.putUleb128(abbrevMember);
+		    putString(member.name);
+		    putTypeReference(member.typeId, fixups);
+		    info.putUleb128(member.offset);
+		}
+		info.put8(0);
+		break;
+	    case LibdwarfLibrary.DW_TAG_array_type:
+		info.putUleb128(abbrevArrayType);
+		putTypeReference(type.typeId, fixups);
+		info.putUleb128(abbrevSubrange);
+		info.putUleb128(type.count);
+		info.put8(0);
+		break;
+	    case LibdwarfLibrary.DW_TAG_enumeration_type:
+		info.putUleb128(abbrevEnumerationType);
+		putString(type.name);
+		info.putUleb128(type.byteSize);
+		for (int i = 0; i < type.enumeratorNames.size(); i++)
+		{
+		    info.putUleb128(abbrevEnumerator);
+		    putString(type.enumeratorNames.get(i));
+		    info.putSleb128(type.enumeratorValues.get(i));
+		}
+		info.put8(0);
+		break;
+	    default:
+		throw new IllegalArgumentException("Unsupported type tag " + type.tag);
+	    }
+	}
+
+	for (int[] fixup : fixups)
+	    info.setFixed(fixup[0], typeOffsets[fixup[1]], 4);
+    }
+
+    // The section offsets of the type DIEs in .debug_info, which are only
+    // the offsets in the final file if this engine's sections come first
+    public long[] getTypeInfoOffsets()
+    {
+	long[] offsets = new long[typeOffsets != null ? typeOffsets.length : 0];
+	for (int id = 0; id < offsets.length; id++)
+	    offsets[id] = typesUnitStart + typeOffsets[id];
+	return offsets;
+    }
+
+    // The types added to another engine, at the given offsets of the final
+    // .debug_info, instead of being added to this one
+    public void setExternalTypes(long[] typeInfoOffsets)
+    {
+	externalTypeOffsets = typeInfoOffsets;
+    }
+
+    // The type is left out when the variable isn't in the unit of the types,
+    // unless the types are external
+    @Override
+    public void addVariable(String name, long address, int typeId)
+    {
+	if (unitStart < 0)
+	    beginCompileUnit();
+	endSubprogram();
+
+	boolean typed = typeId >= 0 && unitStart == typesUnitStart;
+	boolean externalType = typeId >= 0 && !typed && externalTypeOffsets != null;
+	info.putUleb128(typed ? abbrevVariable : externalType ? abbrevExternalTypeVariable : abbrevUntypedVariable);
+	putString(name);
+	// DW_AT_location, the expression is always shorter than 128 bytes
+	if (addresses != null)
+	{
+	    int lengthPosition = info.size();
+	    info.put8(0);
+	    info.put8(LibdwarfLibrary.DW_OP_addrx);
+	    info.putUleb128(addAddress(address));
+	    info.setFixed(lengthPosition, info.size() - lengthPosition - 1, 1);
+	}
+	else
+	{
+	    info.putUleb128(1 + pointerSize);
+	    info.put8(LibdwarfLibrary.DW_OP_addr);
+	    info.putFixed(address, pointerSize);
+	}
+	putTypeReference(typeId, typed, externalType);
+    }
+
+    // A name, inline or as a reference into the string pool patched once the pool is built
+    private void putString(String str)
+    {
+	if (stringPool == null)
+	{
+	    info.putCString(str);
+	    return;
+	}
+	stringPool.addReference(info.size(), str);
+	info.putFixed(0, is64Bit ? 8 : 4);
+    }
+
+    private void putTypeReference(int typeId, ArrayList<int[]> fixups)
+    {
+	// void is encoded by leaving the attribute out, see the void abbreviations
+	if (typeId < 0)
+	    return;
+	fixups.add(new int[] { info.size(), typeId });
+	info.put32(0);
+    }
+
+    private byte[] buildAbbreviations()
+    {
+	DwarfBuffer abbrev = new DwarfBuffer(ByteOrder.LITTLE_ENDIAN);
+	abbrev.putUleb128(abbrevCompileUnit);
+	abbrev.putUleb128(LibdwarfLibrary.DW_TAG_compile_unit);
+	abbrev.put8(LibdwarfLibrary.DW_CHILDREN_yes);
+	if (lines != null)
+	{
+	    putAttributeSpec(abbrev, LibdwarfLibrary.DW_AT_stmt_list, LibdwarfLibrary.DW_FORM_sec_offset);
+	    putAttributeSpec(abbrev, LibdwarfLibrary.DW_AT_name, stringForm);
+	}
+	if (addresses != null)
+	    putAttributeSpec(abbrev, LibdwarfLibrary.DW_AT_addr_base, LibdwarfLibrary.DW_FORM_sec_offset);
+	abbrev.put8(0);
+	abbrev.put8(0);
+
+	int lowPcForm = addresses != null ? LibdwarfLibrary.DW_FORM_addrx : LibdwarfLibrary.DW_FORM_addr;
+	int highPcForm = addresses != null ? LibdwarfLibrary.DW_FORM_udata : LibdwarfLibrary.DW_FORM_addr;
+	putAbbreviation(abbrev, abbrevSubprogram, LibdwarfLibrary.DW_TAG_subprogram, false,
+		LibdwarfLibrary.DW_AT_frame_base, LibdwarfLibrary.DW_FORM_exprloc,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_linkage_name, stringForm,
+		LibdwarfLibrary.DW_AT_low_pc, lowPcForm,
+		LibdwarfLibrary.DW_AT_high_pc, highPcForm);
+	putAbbreviation(abbrev, abbrevSubprogramWithLocals, LibdwarfLibrary.DW_TAG_subprogram, true,
+		LibdwarfLibrary.DW_AT_frame_base, LibdwarfLibrary.DW_FORM_exprloc,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_linkage_name, stringForm,
+		LibdwarfLibrary.DW_AT_low_pc, lowPcForm,
+		LibdwarfLibrary.DW_AT_high_pc, highPcForm);
+
+	putAbbreviation(abbrev, abbrevBaseType, LibdwarfLibrary.DW_TAG_base_type, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_byte_size, LibdwarfLibrary.DW_FORM_udata,
+		LibdwarfLibrary.DW_AT_encoding, LibdwarfLibrary.DW_FORM_data1);
+	putAbbreviation(abbrev, abbrevPointerType, LibdwarfLibrary.DW_TAG_pointer_type, false,
+		LibdwarfLibrary.DW_AT_byte_size, LibdwarfLibrary.DW_FORM_udata,
+		LibdwarfLibrary.DW_AT_type, LibdwarfLibrary.DW_FORM_ref4);
+	putAbbreviation(abbrev, abbrevVoidPointerType, LibdwarfLibrary.DW_TAG_pointer_type, false,
+		LibdwarfLibrary.DW_AT_byte_size, LibdwarfLibrary.DW_FORM_udata);
+	if (addresses != null)
+	{
+	    putImplicitConstAbbreviation(abbrev, abbrevTargetPointerType, LibdwarfLibrary.DW_TAG_pointer_type,
+		    LibdwarfLibrary.DW_AT_byte_size, pointerSize,
+		    LibdwarfLibrary.DW_AT_type, LibdwarfLibrary.DW_FORM_ref4);
+	    putImplicitConstAbbreviation(abbrev, abbrevVoidTargetPointerType, LibdwarfLibrary.DW_TAG_pointer_type,
+		    LibdwarfLibrary.DW_AT_byte_size, pointerSize);
+	}
+	putAbbreviation(abbrev, abbrevTypedef, LibdwarfLibrary.DW_TAG_typedef, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_type, LibdwarfLibrary.DW_FORM_ref4);
+	putAbbreviation(abbrev, abbrevVoidTypedef, LibdwarfLibrary.DW_TAG_typedef, false,
+		LibdwarfLibrary.DW_AT_name, stringForm);
+	putAbbreviation(abbrev, abbrevStructureType, LibdwarfLibrary.DW_TAG_structure_type, true,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_byte_size, LibdwarfLibrary.DW_FORM_udata);
+	putAbbreviation(abbrev, abbrevUnionType, LibdwarfLibrary.DW_TAG_union_type, true,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_byte_size, LibdwarfLibrary.DW_FORM_udata);
+	putAbbreviation(abbrev, abbrevMember, LibdwarfLibrary.DW_TAG_member, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_type, LibdwarfLibrary.DW_FORM_ref4,
+		LibdwarfLibrary.DW_AT_data_member_location, LibdwarfLibrary.DW_FORM_udata);
+	putAbbreviation(abbrev, abbrevArrayType, LibdwarfLibrary.DW_TAG_array_type, true,
+		LibdwarfLibrary.DW_AT_type, LibdwarfLibrary.DW_FORM_ref4);
+	putAbbreviation(abbrev, abbrevSubrange, LibdwarfLibrary.DW_TAG_subrange_type, false,
+		LibdwarfLibrary.DW_AT_count, LibdwarfLibrary.DW_FORM_udata);
+	putAbbreviation(abbrev, abbrevEnumerationType, LibdwarfLibrary.DW_TAG_enumeration_type, true,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_byte_size, LibdwarfLibrary.DW_FORM_udata);
+	putAbbreviation(abbrev, abbrevEnumerator, LibdwarfLibrary.DW_TAG_enumerator, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_const_value, LibdwarfLibrary.DW_FORM_sdata);
+	putAbbreviation(abbrev, abbrevVariable, LibdwarfLibrary.DW_TAG_variable, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_external, LibdwarfLibrary.DW_FORM_flag_present,
+		LibdwarfLibrary.DW_AT_location, LibdwarfLibrary.DW_FORM_exprloc,
+		LibdwarfLibrary.DW_AT_type, LibdwarfLibrary.DW_FORM_ref4);
+	putAbbreviation(abbrev, abbrevUntypedVariable, LibdwarfLibrary.DW_TAG_variable, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_external, LibdwarfLibrary.DW_FORM_flag_present,
+		LibdwarfLibrary.DW_AT_location, LibdwarfLibrary.DW_FORM_exprloc);
+	putAbbreviation(abbrev, abbrevParameter, LibdwarfLibrary.DW_TAG_formal_parameter, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_location, LibdwarfLibrary.DW_FORM_exprloc,
+		LibdwarfLibrary.DW_AT_type, LibdwarfLibrary.DW_FORM_ref4);
+	putAbbreviation(abbrev, abbrevUntypedParameter, LibdwarfLibrary.DW_TAG_formal_parameter, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_location, LibdwarfLibrary.DW_FORM_exprloc);
+	putAbbreviation(abbrev, abbrevLocal, LibdwarfLibrary.DW_TAG_variable, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_location, LibdwarfLibrary.DW_FORM_exprloc,
+		LibdwarfLibrary.DW_AT_type, LibdwarfLibrary.DW_FORM_ref4);
+	putAbbreviation(abbrev, abbrevUntypedLocal, LibdwarfLibrary.DW_TAG_variable, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_location, LibdwarfLibrary.DW_FORM_exprloc);
+	putAbbreviation(abbrev, abbrevExternalTypeVariable, LibdwarfLibrary.DW_TAG_variable, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_external, LibdwarfLibrary.DW_FORM_flag_present,
+		LibdwarfLibrary.DW_AT_location, LibdwarfLibrary.DW_FORM_exprloc,
+		LibdwarfLibrary.DW_AT_type, LibdwarfLibrary.DW_FORM_ref_addr);
+	putAbbreviation(abbrev, abbrevExternalTypeParameter, LibdwarfLibrary.DW_TAG_formal_parameter, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_location, LibdwarfLibrary.DW_FORM_exprloc,
+		LibdwarfLibrary.DW_AT_type, LibdwarfLibrary.DW_FORM_ref_addr);
+	putAbbreviation(abbrev, abbrevExternalTypeLocal, LibdwarfLibrary.DW_TAG_variable, false,
+		LibdwarfLibrary.DW_AT_name, stringForm,
+		LibdwarfLibrary.DW_AT_location, LibdwarfLibrary.DW_FORM_exprloc,
+		LibdwarfLibrary.DW_AT_type, LibdwarfLibrary.DW_FORM_ref_addr);
+
+	// end of the abbreviation table
+	abbrev.put8(0);
+	return abbrev.toByteArray();
+    }
+
+    // attributesAndForms holds pairs of attribute and form
+    private static void putAbbreviation(DwarfBuffer abbrev, int code, int tag, boolean hasChildren,
+	    int... attributesAndForms)
+    {
+	abbrev.putUleb128(code);
+	abbrev.putUleb128(tag);
+	abbrev.put8(hasChildren ? LibdwarfLibrary.DW_CHILDREN_yes : LibdwarfLibrary.DW_CHILDREN_no);
+	for (int i = 0; i < attributesAndForms.length; i += 2)
+	    putAttributeSpec(abbrev, attributesAndForms[i], attributesAndForms[i + 1]);
+	abbrev.put8(0);
+	abbrev.put8(0);
+    }
+
+    // An abbreviation without children whose first attribute is the same
+    // constant in every DIE, attributesAndForms holds the other ones
+    private static void putImplicitConstAbbreviation(DwarfBuffer abbrev, int code, int tag, int constAttribute,
+	    long constValue, int... attributesAndForms)
+    {
+	abbrev.putUleb128(code);
+	abbrev.putUleb128(tag);
+	abbrev.put8(LibdwarfLibrary.DW_CHILDREN_no);
+	putAttributeSpec(abbrev, constAttribute, LibdwarfLibrary.DW_FORM_implicit_const);
+	abbrev.putSleb128(constValue);
+	for (int i = 0; i < attributesAndForms.length; i += 2)
+	    putAttributeSpec(abbrev, attributesAndForms[i], attributesAndForms[i + 1]);
+	abbrev.put8(0);
+	abbrev.put8(0);
+    }
+
+    private static void putAttributeSpec(DwarfBuffer abbrev, int attribute, int form)
+    {
+	abbrev.putUleb128(attribute);
+	abbrev.putUleb128(form);
+    }
+
+    @Override
+    public ArrayList<SectionInfo> generateSections()
+    {
+	if (unitStart >= 0 || compileUnitCount == 0)
+	{
+	    if (unitStart < 0)
+		beginCompileUnit();
+	    endCompileUnit();
+	}
+
+	byte[] str = null;
+	if (stringPool != null)
+	{
+	    str = stringPool.build();
+	    stringPool.patch(info, is64Bit ? 8 : 4);
+	}
+
+	ArrayList<SectionInfo> sections = new ArrayList<SectionInfo>();
+	sections.add(new SectionInfo(".debug_info", info.toByteArray()));
+	sections.add(new SectionInfo(".debug_abbrev", buildAbbreviations()));
+	if (str != null)
+	    sections.add(new SectionInfo(".debug_str", str));
+	if (lines != null)
+	    sections.add(new SectionInfo(".debug_line", lines.toByteArray()));
+	if (frames != null)
+	    sections.add(new SectionInfo(".debug_frame", frames.toByteArray()));
+	if (addresses != null)
+	    sections.add(new SectionInfo(".debug_addr", addresses.toByteArray()));
+	return sections;
+    }
+
+    @Override
+    public void finish()
+    {
+    }
+}
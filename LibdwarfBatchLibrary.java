@@ -0,0 +1,47 @@
+import com.sun.jna.Library;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.LongByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+// Binding to the dwarfbatch shim bundled next to libdwarf which adds a whole
+// block of subprograms in one native call (see libdwarf/src/main/c/dwarf_batch.c)
+public interface LibdwarfBatchLibrary extends Library
+{
+    // must match the order of struct dwarf_batch_api
+    public static final String[] apiFunctions = { "dwarf_new_die_a", "dwarf_new_expr_a", "dwarf_add_expr_gen_a",
+	    "dwarf_add_AT_location_expr_a", "dwarf_add_AT_name_a", "dwarf_add_AT_string_a",
+	    "dwarf_add_AT_targ_address_c", "dwarf_add_AT_unsigned_const" };
+
+    // functions
+    // highPcs holds the lengths of the functions when highPcIsLength isn't 0
+    int dwarf_batch_add_subprograms(Pointer api, LibdwarfLibrary.Dwarf_P_Debug Dwarf_P_Debug1,
+	    LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die1, long count, Pointer lowPcs, Pointer highPcs, int highPcIsLength,
+	    Pointer names, LongByReference failedIndex, PointerByReference Dwarf_ErrorPtr1);
+
+    // Returns null if the shim wasn't built for this platform, it is extracted
+    // in the cache of LibdwarfLoader like libdwarf
+    public static LibdwarfBatchLibrary load()
+    {
+	try
+	{
+	    return Native.load(LibdwarfLoader.resolve("dwarfbatch"), LibdwarfBatchLibrary.class);
+	}
+	catch (UnsatisfiedLinkError e)
+	{
+	    return null;
+	}
+    }
+
+    // The table of libdwarf entry points the shim calls through
+    public static Memory createApiTable() throws Exception
+    {
+	NativeLibrary libdwarf = NativeLibrary.getInstance(LibdwarfLoader.getLibraryName());
+	Memory table = new Memory((long) Native.POINTER_SIZE * apiFunctions.length);
+	for (int i = 0; i < apiFunctions.length; i++)
+	    table.setPointer((long) i * Native.POINTER_SIZE, libdwarf.getFunction(apiFunctions[i]));
+	return table;
+    }
+}
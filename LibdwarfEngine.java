@@ -0,0 +1,428 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
+
+// DWARF producer backed by the native libdwarf library. Its compact encoding
+// writes DW_AT_high_pc as the length of the function and the size of the
+// pointers of the target size as an implicit constant, libdwarf doesn't
+// produce the .debug_addr table the addresses would need to be indexes.
+public class LibdwarfEngine implements DwarfEngine
+{
+    class SectionsCallback implements LibdwarfLibrary.Dwarf_Callback_Func
+    {
+	public ArrayList<String> sections = new ArrayList<>();
+
+	@Override
+	public int apply(Pointer charPtr1, int int1, long Dwarf_Unsigned1, long Dwarf_Unsigned2, long Dwarf_Unsigned3,
+		long Dwarf_Unsigned4, LongByReference Dwarf_UnsignedPtr1, Pointer voidPtr1, IntByReference intPtr1)
+	{
+	    String name = new String(charPtr1.getString(0));
+	    sections.add(name);
+	    return sections.size() - 1;
+	}
+    }
+
+    SectionsCallback sectionsCallback = new SectionsCallback();
+    final int pointerSize;
+    final boolean compact;
+    // every native call goes through the producer but the batches
+    final LibdwarfProducer producer;
+    LibdwarfLibrary.Dwarf_P_Die cu;
+    // file index of the pseudo source of the line table, 0 without line table
+    long sourceFileIndex;
+    long lineNumber;
+    // index of the CIE of the call frames, -1 without call frame information
+    long cieIndex = -1;
+    // the initial instructions of the CIE, libdwarf keeps the pointer without
+    // copying them so they must stay allocated until finish
+    Memory cieInstructions;
+    // the DIEs of the types given to addTypes, null without types
+    LibdwarfLibrary.Dwarf_P_Die[] typeDies;
+    // the DIE of the last function when it was added directly, the parent of its locals
+    LibdwarfLibrary.Dwarf_P_Die functionDie;
+
+    // Functions are queued in a native buffer and added by the batch shim when
+    // it is available: the low pcs, then the high pcs, then the packed names
+    private static final int batchCapacity = 4096;
+    private static final int batchNamesCapacity = 256 * 1024;
+    private static final int batchHighPcsOffset = batchCapacity * 8;
+    private static final int batchNamesOffset = batchCapacity * 16;
+    LibdwarfBatchLibrary batchLib;
+    Memory batchApi;
+    Memory batchMemory;
+    ByteBuffer batchBuffer;
+    LongByReference batchFailedIndex = new LongByReference();
+    String[] batchNames;
+    int batchCount;
+    int batchNamesSize;
+    // the last function isn't queued until the next one is added as it may
+    // still get locals, which need its DIE
+    String pendingName;
+    long pendingStart;
+    long pendingEnd;
+
+    public LibdwarfEngine(int pointerSize, boolean bigEndian, String abiName) throws Exception
+    {
+	this(pointerSize, bigEndian, abiName, null, null, false, false);
+    }
+
+    public LibdwarfEngine(int pointerSize, boolean bigEndian, String abiName, String sourceName,
+	    FrameConvention frameConvention, boolean useStringPool) throws Exception
+    {
+	this(pointerSize, bigEndian, abiName, sourceName, frameConvention, useStringPool, false);
+    }
+
+    // The line table maps each address given to addLines to a pseudo-line of
+    // sourceName, the call frames given to addFrame follow frameConvention.
+    // With the string pool, libdwarf stores each distinct name once in .debug_str.
+    public LibdwarfEngine(int pointerSize, boolean bigEndian, String abiName, String sourceName,
+	    FrameConvention frameConvention, boolean useStringPool, boolean compact) throws Exception
+    {
+	this.pointerSize = pointerSize;
+	this.compact = compact;
+	boolean is64Bit = pointerSize > 4;
+	int bitNessFlags = LibdwarfLibrary.DW_DLC_POINTER32 | LibdwarfLibrary.DW_DLC_OFFSET32;
+	if (is64Bit)
+	    bitNessFlags = LibdwarfLibrary.DW_DLC_POINTER64 | LibdwarfLibrary.DW_DLC_OFFSET64;
+	int endiannessFlag = LibdwarfLibrary.DW_DLC_TARGET_LITTLEENDIAN;
+	if (bigEndian)
+	    endiannessFlag = LibdwarfLibrary.DW_DLC_TARGET_BIGENDIAN;
+
+	producer = new LibdwarfProducer(LibdwarfLibrary.DW_DLC_WRITE | LibdwarfLibrary.DW_DLC_SYMBOLIC_RELOCATIONS
+		| bitNessFlags | endiannessFlag, sectionsCallback, abiName);
+	producer.setDefaultStringForm(useStringPool ? LibdwarfLibrary.DW_FORM_strp : LibdwarfLibrary.DW_FORM_string);
+
+	cu = producer.newDie(LibdwarfLibrary.DW_TAG_compile_unit, null);
+
+	if (sourceName != null)
+	{
+	    producer.addName(cu, sourceName);
+	    producer.addDirectory(".");
+	    sourceFileIndex = producer.addFile(sourceName, 0);
+	}
+
+	if (frameConvention != null)
+	{
+	    byte[] initialInstructions = frameConvention.getInitialInstructions();
+	    cieInstructions = new Memory(initialInstructions.length);
+	    cieInstructions.write(0, initialInstructions, 0, initialInstructions.length);
+	    cieIndex = producer.addCie(FrameConvention.codeAlignmentFactor, FrameConvention.dataAlignmentFactor,
+		    frameConvention.returnAddressRegister, cieInstructions, initialInstructions.length);
+	}
+
+	batchLib = LibdwarfBatchLibrary.load();
+	if (batchLib != null)
+	{
+	    batchApi = LibdwarfBatchLibrary.createApiTable();
+	    batchMemory = new Memory(batchNamesOffset + batchNamesCapacity);
+	    batchBuffer = batchMemory.getByteBuffer(0, batchMemory.size()).order(ByteOrder.nativeOrder());
+	    batchNames = new String[batchCapacity];
+	}
+    }
+
+    public boolean isBatching()
+    {
+	return batchLib != null;
+    }
+
+    // The native calls made by this engine, a batch of functions counting as one
+    public long getNativeCallCount()
+    {
+	return producer.getNativeCallCount();
+    }
+
+    @Override
+    public void addFunction(String fname, long fstart, long fend) throws Exception
+    {
+	functionDie = null;
+	if (batchLib == null)
+	{
+	    functionDie = addFunctionDirect(fname, fstart, fend);
+	    return;
+	}
+
+	queuePendingFunction();
+	pendingName = fname;
+	pendingStart = fstart;
+	pendingEnd = fend;
+    }
+
+    private void queuePendingFunction() throws Exception
+    {
+	if (pendingName == null)
+	    return;
+	String fname = pendingName;
+	long fstart = pendingStart;
+	long fend = pendingEnd;
+	pendingName = null;
+
+	byte[] nameBytes = Native.toByteArray(fname);
+	if (batchCount == batchCapacity || batchNamesSize + nameBytes.length > batchNamesCapacity)
+	    flushBatch();
+	// a name too big for the batch goes through the regular path
+	if (nameBytes.length > batchNamesCapacity)
+	{
+	    addFunctionDirect(fname, fstart, fend);
+	    return;
+	}
+
+	batchBuffer.putLong(batchCount * 8, fstart);
+	batchBuffer.putLong(batchHighPcsOffset + batchCount * 8, compact ? fend + 1 - fstart : fend + 1);
+	batchBuffer.position(batchNamesOffset + batchNamesSize);
+	batchBuffer.put(nameBytes);
+	batchNames[batchCount] = fname;
+	batchNamesSize += nameBytes.length;
+	batchCount++;
+    }
+
+    private void flushBatch() throws Exception
+    {
+	if (batchCount == 0)
+	    return;
+
+	int err = batchLib.dwarf_batch_add_subprograms(batchApi, producer.getDebug(), cu, batchCount, batchMemory,
+		batchMemory.share(batchHighPcsOffset), compact ? 1 : 0, batchMemory.share(batchNamesOffset),
+		batchFailedIndex, producer.getErrorReference());
+	producer.check(err, err == LibdwarfLibrary.DW_DLV_OK ? "dwarf_batch_add_subprograms"
+		: "dwarf_batch_add_subprograms function " + batchNames[(int) batchFailedIndex.getValue()]);
+
+	batchCount = 0;
+	batchNamesSize = 0;
+    }
+
+    // The frame base of every function is the same shared expression, fend is
+    // the last byte of the function
+    LibdwarfLibrary.Dwarf_P_Die addFunctionDirect(String fname, long fstart, long fend) throws Exception
+    {
+	try
+	{
+	    LibdwarfLibrary.Dwarf_P_Die die = producer.newDie(LibdwarfLibrary.DW_TAG_subprogram, cu);
+	    producer.addLocation(die, LibdwarfLibrary.DW_AT_frame_base,
+		    producer.getExpression(LibdwarfLibrary.DW_OP_call_frame_cfa));
+	    producer.addName(die, fname);
+	    producer.addString(die, LibdwarfLibrary.DW_AT_linkage_name, fname);
+	    producer.addAddress(die, LibdwarfLibrary.DW_AT_low_pc, fstart);
+	    if (compact)
+		producer.addUnsigned(die, LibdwarfLibrary.DW_AT_high_pc, fend + 1 - fstart);
+	    else
+		producer.addAddress(die, LibdwarfLibrary.DW_AT_high_pc, fend + 1);
+	    return die;
+	}
+	catch (Exception e)
+	{
+	    throw new Exception(e.getMessage() + " for function " + fname, e);
+	}
+    }
+
+    @Override
+    public void addLocal(String name, boolean parameter, int typeId, int register, long frameOffset)
+	    throws Exception
+    {
+	if (pendingName != null)
+	{
+	    // the queued functions come first to keep the DIEs in order
+	    flushBatch();
+	    functionDie = addFunctionDirect(pendingName, pendingStart, pendingEnd);
+	    pendingName = null;
+	}
+	if (functionDie == null)
+	    throw new Exception("Error with local " + name + ": it doesn't follow a function");
+
+	try
+	{
+	    LibdwarfLibrary.Dwarf_P_Die die = producer.newDie(
+		    parameter ? LibdwarfLibrary.DW_TAG_formal_parameter : LibdwarfLibrary.DW_TAG_variable,
+		    functionDie);
+	    producer.addName(die, name);
+
+	    LibdwarfLibrary.Dwarf_P_Expr expr;
+	    if (register >= 0 && register < 32)
+		expr = producer.getExpression(LibdwarfLibrary.DW_OP_reg0 + register);
+	    else if (register >= 0)
+		expr = producer.getExpression(LibdwarfLibrary.DW_OP_regx, register);
+	    else
+		expr = producer.getExpression(LibdwarfLibrary.DW_OP_fbreg, frameOffset);
+	    producer.addLocation(die, LibdwarfLibrary.DW_AT_location, expr);
+
+	    if (typeDies != null)
+		addTypeReference(die, typeId, typeDies);
+	}
+	catch (Exception e)
+	{
+	    throw new Exception(e.getMessage() + " for local " + name, e);
+	}
+    }
+
+    @Override
+    public void addLines(long[] addresses, int offset, int count, long end) throws Exception
+    {
+	if (sourceFileIndex == 0 || count == 0)
+	    return;
+
+	producer.setLineAddress(addresses[offset]);
+	long previous = -1;
+	for (int i = offset; i < offset + count; i++)
+	{
+	    // the addresses of a sequence must be increasing
+	    if (previous != -1 && addresses[i] <= previous)
+		continue;
+	    previous = addresses[i];
+	    lineNumber++;
+	    producer.addLineEntry(sourceFileIndex, addresses[i], lineNumber);
+	}
+	producer.endLineSequence(Math.max(end + 1, previous + 1));
+    }
+
+    @Override
+    public void addFrame(long start, long end, long[] addresses, int[] cfaOffsets, int offset, int count)
+	    throws Exception
+    {
+	if (cieIndex < 0)
+	    return;
+
+	LibdwarfLibrary.Dwarf_P_Fde fde = producer.newFde();
+	long location = start;
+	for (int i = offset; i < offset + count; i++)
+	{
+	    if (addresses[i] < location || addresses[i] > end)
+		continue;
+	    if (addresses[i] > location)
+	    {
+		producer.addFdeInstruction(fde, LibdwarfLibrary.DW_CFA_advance_loc, addresses[i] - location);
+		location = addresses[i];
+	    }
+	    producer.addFdeInstruction(fde, LibdwarfLibrary.DW_CFA_def_cfa_offset, cfaOffsets[i]);
+	}
+	producer.addFde(fde, cieIndex, start, end + 1 - start);
+    }
+
+    @Override
+    public void addTypes(TypeTable types) throws Exception
+    {
+	// every type DIE is created first so references can point forward
+	typeDies = new LibdwarfLibrary.Dwarf_P_Die[types.size()];
+	for (int id = 0; id < types.size(); id++)
+	    typeDies[id] = producer.newDie(types.get(id).tag, cu);
+
+	for (int id = 0; id < types.size(); id++)
+	{
+	    TypeTable.Type type = types.get(id);
+	    LibdwarfLibrary.Dwarf_P_Die die = typeDies[id];
+	    if (type.name != null)
+		producer.addName(die, type.name);
+	    switch (type.tag)
+	    {
+	    case LibdwarfLibrary.DW_TAG_base_type:
+		producer.addUnsigned(die, LibdwarfLibrary.DW_AT_byte_size, type.byteSize);
+		producer.addUnsigned(die, LibdwarfLibrary.DW_AT_encoding, type.encoding);
+		break;
+	    case LibdwarfLibrary.DW_TAG_pointer_type:
+		if (compact && type.byteSize == pointerSize)
+		    producer.addImplicitConst(die, LibdwarfLibrary.DW_AT_byte_size, type.byteSize);
+		else
+		    producer.addUnsigned(die, LibdwarfLibrary.DW_AT_byte_size, type.byteSize);
+		addTypeReference(die, type.typeId, typeDies);
+		break;
+	    case LibdwarfLibrary.DW_TAG_typedef:
+		addTypeReference(die, type.typeId, typeDies);
+		break;
+	    case LibdwarfLibrary.DW_TAG_structure_type:
+	    case LibdwarfLibrary.DW_TAG_union_type:
+		producer.addUnsigned(die, LibdwarfLibrary.DW_AT_byte_size, type.byteSize);
+		for (TypeTable.Member member : type.members)
+		{
+		    LibdwarfLibrary.Dwarf_P_Die memberDie = producer.newDie(LibdwarfLibrary.DW_TAG_member, die);
+		    producer.addName(memberDie, member.name);
+		    addTypeReference(memberDie, member.typeId, typeDies);
+		    producer.addUnsigned(memberDie, LibdwarfLibrary.DW_AT_data_member_location, member.offset);
+		}
+		break;
+	    case LibdwarfLibrary.DW_TAG_array_type:
+		addTypeReference(die, type.typeId, typeDies);
+		producer.addUnsigned(producer.newDie(LibdwarfLibrary.DW_TAG_subrange_type, die),
+			LibdwarfLibrary.DW_AT_count, type.count);
+		break;
+	    case LibdwarfLibrary.DW_TAG_enumeration_type:
+		producer.addUnsigned(die, LibdwarfLibrary.DW_AT_byte_size, type.byteSize);
+		for (int i = 0; i < type.enumeratorNames.size(); i++)
+		{
+		    LibdwarfLibrary.Dwarf_P_Die enumeratorDie = producer.newDie(LibdwarfLibrary.DW_TAG_enumerator, die);
+		    producer.addName(enumeratorDie, type.enumeratorNames.get(i));
+		    producer.addSigned(enumeratorDie, LibdwarfLibrary.DW_AT_const_value, type.enumeratorValues.get(i));
+		}
+		break;
+	    default:
+		throw new Exception("Error with type tag " + type.tag + ": unsupported");
+	    }
+	}
+    }
+
+    @Override
+    public void addVariable(String name, long address, int typeId) throws Exception
+    {
+	try
+	{
+	    LibdwarfLibrary.Dwarf_P_Die die = producer.newDie(LibdwarfLibrary.DW_TAG_variable, cu);
+	    producer.addName(die, name);
+	    producer.addFlag(die, LibdwarfLibrary.DW_AT_external, true);
+	    producer.addLocation(die, LibdwarfLibrary.DW_AT_location, producer.newAddressExpression(address));
+	    if (typeDies != null)
+		addTypeReference(die, typeId, typeDies);
+	}
+	catch (Exception e)
+	{
+	    throw new Exception(e.getMessage() + " for variable " + name, e);
+	}
+    }
+
+    private void addTypeReference(LibdwarfLibrary.Dwarf_P_Die die, int typeId, LibdwarfLibrary.Dwarf_P_Die[] typeDies)
+	    throws Exception
+    {
+	// void is encoded by leaving the attribute out
+	if (typeId < 0)
+	    return;
+	producer.addReference(die, LibdwarfLibrary.DW_AT_type, typeDies[typeId]);
+    }
+
+    @Override
+    public ArrayList<SectionInfo> generateSections() throws Exception
+    {
+	if (batchLib != null)
+	{
+	    queuePendingFunction();
+	    flushBatch();
+	}
+
+	producer.addDieToDebug(cu);
+	long sectionCount = producer.transformToDiskForm();
+
+	// The chunks stay in libdwarf's memory and are only referenced here, they
+	// remain valid until finish() so the ELF must be written before calling it
+	LinkedHashMap<String, SectionInfo> sections = new LinkedHashMap<String, SectionInfo>();
+	for (long i = 0; i < sectionCount; i++)
+	{
+	    ArrayList<ByteBuffer> views = new ArrayList<ByteBuffer>();
+	    producer.getSectionBytes(i, views);
+	    String section_name = sectionsCallback.sections.get(producer.getSectionIndex());
+	    SectionInfo section = sections.computeIfAbsent(section_name, SectionInfo::new);
+	    section.chunks.addAll(views);
+	}
+
+	return new ArrayList<SectionInfo>(sections.values());
+    }
+
+    @Override
+    public void finish() throws Exception
+    {
+	producer.finish();
+	// only released once libdwarf is done with them
+	cieInstructions = null;
+    }
+}
@@ -1,18 +1,14 @@
 import com.sun.jna.Callback;
 import com.sun.jna.Library;
-import com.sun.jna.Native;
-import com.sun.jna.Platform;
 import com.sun.jna.Pointer;
 import com.sun.jna.PointerType;
 import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.ptr.LongByReference;
 import com.sun.jna.ptr.PointerByReference;
 
+// The instance is loaded by LibdwarfLoader.getLibrary, only when the libdwarf engine is used
 public interface LibdwarfLibrary extends Library
 {
-    public static final LibdwarfLibrary INSTANCE = Native.load(Platform.isWindows() ? "libdwarf" : "dwarf",
-	    LibdwarfLibrary.class);
-
     // functions
     String dwarf_errmsg(LibdwarfLibrary.Dwarf_Error Dwarf_Error1);
 
@@ -45,10 +41,21 @@ public interface LibdwarfLibrary extends Library
 	    LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die1, short Dwarf_Half1, long Dwarf_Unsigned1,
 	    PointerByReference Dwarf_ErrorPtr1);
 
+    LibdwarfLibrary.Dwarf_P_Attribute dwarf_add_AT_signed_const(LibdwarfLibrary.Dwarf_P_Debug Dwarf_P_Debug1,
+	    LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die1, short Dwarf_Half1, long Dwarf_Signed1,
+	    PointerByReference Dwarf_ErrorPtr1);
+
+    int dwarf_add_AT_implicit_const(LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die1, short Dwarf_Half1, long Dwarf_Signed1,
+	    PointerByReference Dwarf_AttributePtr1, PointerByReference Dwarf_ErrorPtr1);
+
     LibdwarfLibrary.Dwarf_P_Attribute dwarf_add_AT_reference(LibdwarfLibrary.Dwarf_P_Debug Dwarf_P_Debug1,
 	    LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die1, short Dwarf_Half1, LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die2,
 	    PointerByReference Dwarf_ErrorPtr1);
 
+    int dwarf_add_AT_flag_a(LibdwarfLibrary.Dwarf_P_Debug Dwarf_P_Debug1, LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die1,
+	    short Dwarf_Half1, byte Dwarf_Small1, PointerByReference Dwarf_AttributePtr1,
+	    PointerByReference Dwarf_ErrorPtr1);
+
     int dwarf_add_AT_location_expr_a(LibdwarfLibrary.Dwarf_P_Debug Dwarf_P_Debug1,
 	    LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die1, short Dwarf_Half1, LibdwarfLibrary.Dwarf_P_Expr Dwarf_P_Expr1,
 	    PointerByReference Dwarf_AttributePtr1, PointerByReference Dwarf_ErrorPtr1);
@@ -76,6 +83,24 @@ public interface LibdwarfLibrary extends Library
     long dwarf_lne_set_address(LibdwarfLibrary.Dwarf_P_Debug Dwarf_P_Debug1, long Dwarf_Unsigned1, long Dwarf_Unsigned2,
 	    PointerByReference Dwarf_ErrorPtr1);
 
+    int dwarf_add_frame_cie_a(LibdwarfLibrary.Dwarf_P_Debug Dwarf_P_Debug1, String charPtr1, byte Dwarf_Small1,
+	    byte Dwarf_Small2, byte Dwarf_Small3, Pointer Dwarf_Ptr1, long Dwarf_Unsigned1,
+	    LongByReference Dwarf_UnsignedPtr1, PointerByReference Dwarf_ErrorPtr1);
+
+    int dwarf_new_fde_a(LibdwarfLibrary.Dwarf_P_Debug Dwarf_P_Debug1, PointerByReference Dwarf_P_FdePtr1,
+	    PointerByReference Dwarf_ErrorPtr1);
+
+    int dwarf_add_fde_inst_a(LibdwarfLibrary.Dwarf_P_Fde Dwarf_P_Fde1, byte Dwarf_Small1, long Dwarf_Unsigned1,
+	    long Dwarf_Unsigned2, PointerByReference Dwarf_ErrorPtr1);
+
+    int dwarf_add_frame_fde_c(LibdwarfLibrary.Dwarf_P_Debug Dwarf_P_Debug1, LibdwarfLibrary.Dwarf_P_Fde Dwarf_P_Fde1,
+	    LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die1, long Dwarf_Unsigned1, long Dwarf_Addr1, long Dwarf_Unsigned2,
+	    long Dwarf_Unsigned3, long Dwarf_Unsigned4, long Dwarf_Addr2, LongByReference Dwarf_UnsignedPtr1,
+	    PointerByReference Dwarf_ErrorPtr1);
+
+    long dwarf_lne_end_sequence(LibdwarfLibrary.Dwarf_P_Debug Dwarf_P_Debug1, long Dwarf_Addr1,
+	    PointerByReference Dwarf_ErrorPtr1);
+
     int dwarf_new_die_a(LibdwarfLibrary.Dwarf_P_Debug Dwarf_P_Debug1, long Dwarf_Tag1,
 	    LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die1, LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die2,
 	    LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die3, LibdwarfLibrary.Dwarf_P_Die Dwarf_P_Die4,
@@ -158,6 +183,19 @@ public interface LibdwarfLibrary extends Library
 	}
     }
 
+    public static class Dwarf_P_Fde extends PointerType
+    {
+	public Dwarf_P_Fde(Pointer address)
+	{
+	    super(address);
+	}
+
+	public Dwarf_P_Fde()
+	{
+	    super();
+	}
+    }
+
     public static class Dwarf_P_Attribute extends PointerType
     {
 	public Dwarf_P_Attribute(Pointer address)
@@ -180,19 +218,39 @@ public interface LibdwarfLibrary extends Library
     public static final int DW_ATE_signed_char = 0x06;
     public static final int DW_ATE_unsigned = 0x07;
     public static final int DW_ATE_unsigned_char = 0x08;
+    public static final int DW_AT_addr_base = 0x73;
     public static final int DW_AT_byte_size = 0x0b;
     public static final int DW_AT_const_value = 0x1c;
     public static final int DW_AT_count = 0x37;
     public static final int DW_AT_data_member_location = 0x38;
     public static final int DW_AT_decl_file = 0x3a;
     public static final int DW_AT_decl_line = 0x3b;
+    public static final int DW_AT_declaration = 0x3c;
     public static final int DW_AT_encoding = 0x3e;
+    public static final int DW_AT_external = 0x3f;
     public static final int DW_AT_frame_base = 0x40;
     public static final int DW_AT_high_pc = 0x12;
     public static final int DW_AT_linkage_name = 0x6e;
     public static final int DW_AT_location = 0x02;
+    public static final int DW_AT_loclists_base = 0x8c;
     public static final int DW_AT_low_pc = 0x11;
+    public static final int DW_AT_name = 0x03;
+    public static final int DW_AT_ranges = 0x55;
+    public static final int DW_AT_rnglists_base = 0x74;
+    public static final int DW_AT_stmt_list = 0x10;
     public static final int DW_AT_type = 0x49;
+    public static final int DW_CFA_advance_loc = 0x40;
+    public static final int DW_CFA_advance_loc1 = 0x02;
+    public static final int DW_CFA_advance_loc2 = 0x03;
+    public static final int DW_CFA_advance_loc4 = 0x04;
+    public static final int DW_CFA_def_cfa = 0x0c;
+    public static final int DW_CFA_def_cfa_offset = 0x0e;
+    public static final int DW_CFA_nop = 0x00;
+    public static final int DW_CFA_offset = 0x80;
+    public static final int DW_CFA_offset_extended = 0x05;
+    public static final int DW_CFA_same_value = 0x08;
+    public static final int DW_CHILDREN_no = 0x00;
+    public static final int DW_CHILDREN_yes = 0x01;
     public static final int DW_DLC_OFFSET32 = 0x00010000;
     public static final int DW_DLC_OFFSET64 = 0x10000000;
     public static final int DW_DLC_POINTER32 = 0x20000000;
@@ -204,9 +262,55 @@ public interface LibdwarfLibrary extends Library
     public static final Pointer DW_DLV_BADADDR = new Pointer((~0));
     public static final long DW_DLV_NOCOUNT = -1;
     public static final int DW_DLV_OK = 0;
+    public static final int DW_FORM_addr = 0x01;
+    public static final int DW_FORM_addrx = 0x1b;
+    public static final int DW_FORM_addrx1 = 0x29;
+    public static final int DW_FORM_addrx2 = 0x2a;
+    public static final int DW_FORM_addrx3 = 0x2b;
+    public static final int DW_FORM_addrx4 = 0x2c;
+    public static final int DW_FORM_block = 0x09;
+    public static final int DW_FORM_block1 = 0x0a;
+    public static final int DW_FORM_block2 = 0x03;
+    public static final int DW_FORM_block4 = 0x04;
+    public static final int DW_FORM_data1 = 0x0b;
+    public static final int DW_FORM_data16 = 0x1e;
+    public static final int DW_FORM_data2 = 0x05;
+    public static final int DW_FORM_data4 = 0x06;
+    public static final int DW_FORM_data8 = 0x07;
+    public static final int DW_FORM_exprloc = 0x18;
+    public static final int DW_FORM_flag = 0x0c;
+    public static final int DW_FORM_flag_present = 0x19;
+    public static final int DW_FORM_implicit_const = 0x21;
+    public static final int DW_FORM_line_strp = 0x1f;
+    public static final int DW_FORM_ref1 = 0x11;
+    public static final int DW_FORM_ref2 = 0x12;
+    public static final int DW_FORM_ref4 = 0x13;
+    public static final int DW_FORM_ref8 = 0x14;
+    public static final int DW_FORM_ref_addr = 0x10;
+    public static final int DW_FORM_ref_udata = 0x15;
+    public static final int DW_FORM_sdata = 0x0d;
+    public static final int DW_FORM_sec_offset = 0x17;
     public static final int DW_FORM_string = 0x08;
+    public static final int DW_FORM_strp = 0x0e;
+    public static final int DW_FORM_strx = 0x1a;
+    public static final int DW_FORM_strx1 = 0x25;
+    public static final int DW_FORM_strx2 = 0x26;
+    public static final int DW_FORM_strx3 = 0x27;
+    public static final int DW_FORM_strx4 = 0x28;
+    public static final int DW_FORM_udata = 0x0f;
     public static final int DW_FRAME_HIGHEST_NORMAL_REGISTER = 188;
     public static final int DW_FRAME_LAST_REG_NUM = DW_FRAME_HIGHEST_NORMAL_REGISTER + 3;
+    public static final int DW_IDX_compile_unit = 0x1;
+    public static final int DW_IDX_die_offset = 0x3;
+    public static final int DW_LNCT_directory_index = 0x2;
+    public static final int DW_LNCT_path = 0x1;
+    public static final int DW_LNE_end_sequence = 0x01;
+    public static final int DW_LNE_set_address = 0x02;
+    public static final int DW_LNS_advance_line = 0x03;
+    public static final int DW_LNS_advance_pc = 0x02;
+    public static final int DW_LNS_copy = 0x01;
+    public static final int DW_OP_addr = 0x03;
+    public static final int DW_OP_addrx = 0xa1;
     public static final int DW_OP_breg0 = 0x70;
     public static final int DW_OP_breg1 = 0x71;
     public static final int DW_OP_breg2 = 0x72;
@@ -242,6 +346,7 @@ public interface LibdwarfLibrary extends Library
     public static final int DW_OP_call_frame_cfa = 0x9c;
     public static final int DW_OP_fbreg = 0x91;
     public static final int DW_OP_plus_uconst = 0x23;
+    public static final int DW_OP_reg0 = 0x50;
     public static final int DW_OP_regx = 0x90;
     public static final int DW_TAG_array_type = 0x01;
     public static final int DW_TAG_base_type = 0x24;
@@ -254,5 +359,8 @@ public interface LibdwarfLibrary extends Library
     public static final int DW_TAG_structure_type = 0x13;
     public static final int DW_TAG_subprogram = 0x2e;
     public static final int DW_TAG_subrange_type = 0x21;
+    public static final int DW_TAG_typedef = 0x16;
+    public static final int DW_TAG_union_type = 0x17;
     public static final int DW_TAG_variable = 0x34;
+    public static final int DW_UT_compile = 0x01;
 }
@@ -0,0 +1,166 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.jar.JarEntry;
+
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+
+// Loads libdwarf the first time the libdwarf engine needs it. The libraries
+// bundled in libdwarf.jar are extracted once into a cache directory named
+// after the size and CRC-32 recorded in the jar, and later runs load them from
+// there instead of JNA extracting them again into a temporary directory. The
+// extracted copy is checked against the SHA-256 of the bundled library, which
+// is written next to it, and checked again each time it is reused so a
+// truncated or modified copy is extracted again instead of being loaded. A
+// library that isn't bundled is searched by JNA in the system paths.
+public class LibdwarfLoader
+{
+    private static final File cacheDirectory = new File(System.getProperty("user.home"),
+	    ".cache" + File.separator + "ExportDwarfELFSymbols" + File.separator + "native");
+
+    private static LibdwarfLibrary library;
+    // the name JNA loaded libdwarf with, the path of the cached copy when it's bundled
+    private static String libraryName;
+    private static String loadDescription;
+
+    public static synchronized LibdwarfLibrary getLibrary() throws Exception
+    {
+	if (library != null)
+	    return library;
+
+	long start = System.nanoTime();
+	String name = Platform.isWindows() ? "libdwarf" : "dwarf";
+	StringBuilder source = new StringBuilder();
+	String resolvedName = resolve(name, source);
+	try
+	{
+	    library = Native.load(resolvedName, LibdwarfLibrary.class);
+	}
+	catch (UnsatisfiedLinkError e)
+	{
+	    throw new Exception("Error with libdwarf: " + e.getMessage());
+	}
+	libraryName = resolvedName;
+	loadDescription = "Loaded libdwarf " + source + " in " + (System.nanoTime() - start) / 1000000 + " ms";
+	return library;
+    }
+
+    // The name to give JNA for libdwarf, once it is loaded
+    public static synchronized String getLibraryName() throws Exception
+    {
+	getLibrary();
+	return libraryName;
+    }
+
+    // Where libdwarf was loaded from and how long it took
+    public static synchronized String getLoadDescription() throws Exception
+    {
+	getLibrary();
+	return loadDescription;
+    }
+
+    // The name to give JNA for the library, the path of its cached copy when
+    // it's bundled. The cache being an optimisation, JNA extracts the library
+    // itself when it can't be used.
+    public static String resolve(String name)
+    {
+	return resolve(name, new StringBuilder());
+    }
+
+    private static synchronized String resolve(String name, StringBuilder source)
+    {
+	String fileName = System.mapLibraryName(name);
+	ClassLoader loader = LibdwarfLoader.class.getClassLoader();
+	URL resource = loader.getResource(Platform.RESOURCE_PREFIX + "/" + fileName);
+	if (resource == null && Platform.isMac())
+	    resource = loader.getResource("darwin/" + fileName);
+	if (resource == null)
+	{
+	    source.append("from the system paths");
+	    return name;
+	}
+
+	try
+	{
+	    // the stamp is read from the jar's directory, without reading the library
+	    long size;
+	    String stamp;
+	    URLConnection connection = resource.openConnection();
+	    if (connection instanceof JarURLConnection)
+	    {
+		JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+		size = entry.getSize();
+		stamp = size + "-" + Long.toHexString(entry.getCrc());
+	    }
+	    else
+	    {
+		size = connection.getContentLengthLong();
+		stamp = size + "-" + Long.toHexString(connection.getLastModified());
+	    }
+	    File directory = new File(new File(cacheDirectory, Platform.RESOURCE_PREFIX), stamp);
+	    File file = new File(directory, fileName);
+	    File checksumFile = new File(directory, fileName + ".sha256");
+	    if (checksumFile.isFile() && file.length() == size)
+	    {
+		String expected = new String(Files.readAllBytes(checksumFile.toPath()), StandardCharsets.US_ASCII).trim();
+		if (toHex(sha256(Files.readAllBytes(file.toPath()))).equals(expected))
+		{
+		    source.append("from the cache " + file.getPath());
+		    return file.getAbsolutePath();
+		}
+	    }
+
+	    byte[] bytes;
+	    try (InputStream in = connection.getInputStream())
+	    {
+		bytes = in.readAllBytes();
+	    }
+	    String checksum = toHex(sha256(bytes));
+	    directory.mkdirs();
+	    writeAtomically(file, bytes);
+	    if (!toHex(sha256(Files.readAllBytes(file.toPath()))).equals(checksum))
+		throw new IOException("the extracted copy doesn't have the SHA-256 " + checksum);
+	    // written last, it marks a complete extraction
+	    writeAtomically(checksumFile, checksum.getBytes(StandardCharsets.US_ASCII));
+	    source.append("extracted to the cache " + file.getPath());
+	    return file.getAbsolutePath();
+	}
+	catch (Exception e)
+	{
+	    source.append("extracted by JNA, the cache isn't available: " + e.getMessage());
+	    return name;
+	}
+    }
+
+    // Written next to its final path then moved, for the concurrent runs
+    private static void writeAtomically(File file, byte[] bytes) throws IOException
+    {
+	ElfWriter.writeAtomically(file, channel ->
+	{
+	    ByteBuffer content = ByteBuffer.wrap(bytes);
+	    while (content.hasRemaining())
+		channel.write(content);
+	});
+    }
+
+    private static byte[] sha256(byte[] bytes) throws Exception
+    {
+	return MessageDigest.getInstance("SHA-256").digest(bytes);
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+	StringBuilder hex = new StringBuilder();
+	for (byte b : bytes)
+	    hex.append(String.format("%02x", b));
+	return hex.toString();
+    }
+}
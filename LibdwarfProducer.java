@@ -0,0 +1,288 @@
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.LongByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+// Typed facade over the producer calls of LibdwarfLibrary for one
+// Dwarf_P_Debug. The out-parameters are scratch references reused by every
+// call, the location expressions are created once and shared since libdwarf
+// copies their bytes into each attribute, and every status goes through
+// check, which counts the native calls and throws with libdwarf's message.
+public class LibdwarfProducer
+{
+    private final LibdwarfLibrary lib;
+    private final PointerByReference errRef = new PointerByReference();
+    private final PointerByReference resultRef = new PointerByReference();
+    private final PointerByReference attrRef = new PointerByReference();
+    private final LongByReference offsetRef = new LongByReference();
+    private final LongByReference indexRef = new LongByReference();
+    private final LongByReference lengthRef = new LongByReference();
+    private final LibdwarfLibrary.Dwarf_P_Debug dbg;
+    private long nativeCallCount;
+
+    // the shared expressions of the operations without operand, by opcode
+    private final LibdwarfLibrary.Dwarf_P_Expr[] expressions = new LibdwarfLibrary.Dwarf_P_Expr[256];
+    // the shared expressions of the operations with one operand, by operand and opcode
+    private final HashMap<Long, LibdwarfLibrary.Dwarf_P_Expr> operandExpressions = new HashMap<Long, LibdwarfLibrary.Dwarf_P_Expr>();
+
+    public LibdwarfProducer(long flags, LibdwarfLibrary.Dwarf_Callback_Func sectionsCallback, String abiName)
+	    throws Exception
+    {
+	lib = LibdwarfLoader.getLibrary();
+	check(lib.dwarf_producer_init(flags, sectionsCallback, null, null, null, abiName, "V5", null, resultRef,
+		errRef), "dwarf_producer_init");
+	dbg = new LibdwarfLibrary.Dwarf_P_Debug(resultRef.getValue());
+    }
+
+    public LibdwarfLibrary.Dwarf_P_Debug getDebug()
+    {
+	return dbg;
+    }
+
+    // The native calls made through the facade
+    public long getNativeCallCount()
+    {
+	return nativeCallCount;
+    }
+
+    // The single status path of the native calls
+    private void check(boolean ok, String function) throws Exception
+    {
+	nativeCallCount++;
+	if (!ok)
+	    throw error(function);
+    }
+
+    // The status of a call made outside the facade with getErrorReference
+    public void check(int status, String function) throws Exception
+    {
+	check(status == LibdwarfLibrary.DW_DLV_OK, function);
+    }
+
+    // The functions returning a count or an index return DW_DLV_NOCOUNT on failure
+    private long checkCount(long result, String function) throws Exception
+    {
+	check(result != LibdwarfLibrary.DW_DLV_NOCOUNT, function);
+	return result;
+    }
+
+    // The older attribute functions return DW_DLV_BADADDR instead of a status
+    private void checkAttribute(LibdwarfLibrary.Dwarf_P_Attribute attr, String function) throws Exception
+    {
+	check(attr != null && !LibdwarfLibrary.DW_DLV_BADADDR.equals(attr.getPointer()), function);
+    }
+
+    private Exception error(String function)
+    {
+	var dErr = new LibdwarfLibrary.Dwarf_Error(errRef.getValue());
+	long errno = lib.dwarf_errno(dErr);
+	String errStr = lib.dwarf_errmsg_by_number(errno);
+	return new Exception("Error with " + function + ": " + errStr);
+    }
+
+    public PointerByReference getErrorReference()
+    {
+	return errRef;
+    }
+
+    public void setDefaultStringForm(int form) throws Exception
+    {
+	check(lib.dwarf_pro_set_default_string_form(dbg, form, errRef), "dwarf_pro_set_default_string_form");
+    }
+
+    public LibdwarfLibrary.Dwarf_P_Die newDie(int tag, LibdwarfLibrary.Dwarf_P_Die parent) throws Exception
+    {
+	check(lib.dwarf_new_die_a(dbg, tag, parent, null, null, null, resultRef, errRef), "dwarf_new_die_a");
+	return new LibdwarfLibrary.Dwarf_P_Die(resultRef.getValue());
+    }
+
+    public void addName(LibdwarfLibrary.Dwarf_P_Die die, String name) throws Exception
+    {
+	check(lib.dwarf_add_AT_name_a(die, name, attrRef, errRef), "dwarf_add_AT_name_a");
+    }
+
+    public void addString(LibdwarfLibrary.Dwarf_P_Die die, int attribute, String value) throws Exception
+    {
+	check(lib.dwarf_add_AT_string_a(dbg, die, (short) attribute, value, attrRef, errRef), "dwarf_add_AT_string_a");
+    }
+
+    public void addAddress(LibdwarfLibrary.Dwarf_P_Die die, int attribute, long address) throws Exception
+    {
+	check(lib.dwarf_add_AT_targ_address_c(dbg, die, (short) attribute, address, 0, attrRef, errRef),
+		"dwarf_add_AT_targ_address_c");
+    }
+
+    public void addUnsigned(LibdwarfLibrary.Dwarf_P_Die die, int attribute, long value) throws Exception
+    {
+	checkAttribute(lib.dwarf_add_AT_unsigned_const(dbg, die, (short) attribute, value, errRef),
+		"dwarf_add_AT_unsigned_const");
+    }
+
+    public void addSigned(LibdwarfLibrary.Dwarf_P_Die die, int attribute, long value) throws Exception
+    {
+	checkAttribute(lib.dwarf_add_AT_signed_const(dbg, die, (short) attribute, value, errRef),
+		"dwarf_add_AT_signed_const");
+    }
+
+    public void addFlag(LibdwarfLibrary.Dwarf_P_Die die, int attribute, boolean value) throws Exception
+    {
+	check(lib.dwarf_add_AT_flag_a(dbg, die, (short) attribute, (byte) (value ? 1 : 0), attrRef, errRef),
+		"dwarf_add_AT_flag_a");
+    }
+
+    // An attribute whose value is in the abbreviation, shared by the DIEs with the same value
+    public void addImplicitConst(LibdwarfLibrary.Dwarf_P_Die die, int attribute, long value) throws Exception
+    {
+	check(lib.dwarf_add_AT_implicit_const(die, (short) attribute, value, attrRef, errRef),
+		"dwarf_add_AT_implicit_const");
+    }
+
+    public void addReference(LibdwarfLibrary.Dwarf_P_Die die, int attribute, LibdwarfLibrary.Dwarf_P_Die target)
+	    throws Exception
+    {
+	checkAttribute(lib.dwarf_add_AT_reference(dbg, die, (short) attribute, target, errRef),
+		"dwarf_add_AT_reference");
+    }
+
+    public void addLocation(LibdwarfLibrary.Dwarf_P_Die die, int attribute, LibdwarfLibrary.Dwarf_P_Expr expr)
+	    throws Exception
+    {
+	check(lib.dwarf_add_AT_location_expr_a(dbg, die, (short) attribute, expr, attrRef, errRef),
+		"dwarf_add_AT_location_expr_a");
+    }
+
+    // The shared expression of a single operation without operand
+    public LibdwarfLibrary.Dwarf_P_Expr getExpression(int operation) throws Exception
+    {
+	LibdwarfLibrary.Dwarf_P_Expr expr = expressions[operation];
+	if (expr == null)
+	{
+	    expr = newExpression(operation, 0);
+	    expressions[operation] = expr;
+	}
+	return expr;
+    }
+
+    // The shared expression of a single operation with an operand, which
+    // isn't shared when it doesn't fit in 56 bits
+    public LibdwarfLibrary.Dwarf_P_Expr getExpression(int operation, long operand) throws Exception
+    {
+	if (operand != (operand << 8) >> 8)
+	    return newExpression(operation, operand);
+	Long key = operand << 8 | operation;
+	LibdwarfLibrary.Dwarf_P_Expr expr = operandExpressions.get(key);
+	if (expr == null)
+	{
+	    expr = newExpression(operation, operand);
+	    operandExpressions.put(key, expr);
+	}
+	return expr;
+    }
+
+    private LibdwarfLibrary.Dwarf_P_Expr newExpression(int operation, long operand) throws Exception
+    {
+	check(lib.dwarf_new_expr_a(dbg, resultRef, errRef), "dwarf_new_expr_a");
+	var expr = new LibdwarfLibrary.Dwarf_P_Expr(resultRef.getValue());
+	check(lib.dwarf_add_expr_gen_a(expr, (byte) operation, operand, 0, offsetRef, errRef), "dwarf_add_expr_gen_a");
+	return expr;
+    }
+
+    // A DW_OP_addr expression, which is relocated so it's never shared
+    public LibdwarfLibrary.Dwarf_P_Expr newAddressExpression(long address) throws Exception
+    {
+	check(lib.dwarf_new_expr_a(dbg, resultRef, errRef), "dwarf_new_expr_a");
+	var expr = new LibdwarfLibrary.Dwarf_P_Expr(resultRef.getValue());
+	checkCount(lib.dwarf_add_expr_addr_b(expr, address, 0, errRef), "dwarf_add_expr_addr_b");
+	return expr;
+    }
+
+    public void addDirectory(String name) throws Exception
+    {
+	checkCount(lib.dwarf_add_directory_decl(dbg, name, errRef), "dwarf_add_directory_decl");
+    }
+
+    // Returns the index of the file
+    public long addFile(String name, long directoryIndex) throws Exception
+    {
+	return checkCount(lib.dwarf_add_file_decl(dbg, name, directoryIndex, 0, 0, errRef), "dwarf_add_file_decl");
+    }
+
+    public void setLineAddress(long address) throws Exception
+    {
+	checkCount(lib.dwarf_lne_set_address(dbg, address, 0, errRef), "dwarf_lne_set_address");
+    }
+
+    public void addLineEntry(long fileIndex, long address, long line) throws Exception
+    {
+	checkCount(lib.dwarf_add_line_entry(dbg, fileIndex, address, line, 0, 1, 0, errRef), "dwarf_add_line_entry");
+    }
+
+    public void endLineSequence(long address) throws Exception
+    {
+	checkCount(lib.dwarf_lne_end_sequence(dbg, address, errRef), "dwarf_lne_end_sequence");
+    }
+
+    // Returns the index of the CIE
+    public long addCie(int codeAlignmentFactor, int dataAlignmentFactor, int returnAddressRegister,
+	    Pointer initialInstructions, long length) throws Exception
+    {
+	check(lib.dwarf_add_frame_cie_a(dbg, "", (byte) codeAlignmentFactor, (byte) dataAlignmentFactor,
+		(byte) returnAddressRegister, initialInstructions, length, indexRef, errRef), "dwarf_add_frame_cie_a");
+	return indexRef.getValue();
+    }
+
+    public LibdwarfLibrary.Dwarf_P_Fde newFde() throws Exception
+    {
+	check(lib.dwarf_new_fde_a(dbg, resultRef, errRef), "dwarf_new_fde_a");
+	return new LibdwarfLibrary.Dwarf_P_Fde(resultRef.getValue());
+    }
+
+    public void addFdeInstruction(LibdwarfLibrary.Dwarf_P_Fde fde, int operation, long operand) throws Exception
+    {
+	check(lib.dwarf_add_fde_inst_a(fde, (byte) operation, operand, 0, errRef), "dwarf_add_fde_inst_a");
+    }
+
+    public void addFde(LibdwarfLibrary.Dwarf_P_Fde fde, long cieIndex, long start, long length) throws Exception
+    {
+	check(lib.dwarf_add_frame_fde_c(dbg, fde, null, cieIndex, start, length, 0, 0, 0, indexRef, errRef),
+		"dwarf_add_frame_fde_c");
+    }
+
+    public void addDieToDebug(LibdwarfLibrary.Dwarf_P_Die die) throws Exception
+    {
+	check(lib.dwarf_add_die_to_debug_a(dbg, die, errRef), "dwarf_add_die_to_debug_a");
+    }
+
+    // Returns the number of section chunks
+    public long transformToDiskForm() throws Exception
+    {
+	check(lib.dwarf_transform_to_disk_form_a(dbg, indexRef, errRef), "dwarf_transform_to_disk_form_a");
+	return indexRef.getValue();
+    }
+
+    // Adds the bytes of a section chunk to views, in buffers of at most 2 GB
+    // which stay in libdwarf's memory until finish, getSectionIndex then gives
+    // the index of its section
+    public void getSectionBytes(long chunk, List<ByteBuffer> views) throws Exception
+    {
+	check(lib.dwarf_get_section_bytes_a(dbg, chunk, indexRef, lengthRef, resultRef, errRef),
+		"dwarf_get_section_bytes_a");
+	Pointer bytes = resultRef.getValue();
+	long length = lengthRef.getValue();
+	for (long offset = 0; offset < length; offset += Integer.MAX_VALUE)
+	    views.add(bytes.getByteBuffer(offset, Math.min(length - offset, Integer.MAX_VALUE)));
+    }
+
+    public int getSectionIndex()
+    {
+	return (int) indexRef.getValue();
+    }
+
+    public void finish() throws Exception
+    {
+	check(lib.dwarf_producer_finish_a(dbg, errRef), "dwarf_producer_finish_a");
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import ghidra.framework.model.DomainObjectChangedEvent;
+import ghidra.framework.model.DomainObjectEvent;
+import ghidra.framework.model.DomainObjectListener;
+import ghidra.program.model.listing.Program;
+import ghidra.program.util.ProgramEvent;
+import ghidra.util.Msg;
+import ghidra.util.task.TaskMonitor;
+import ghidra.util.task.TaskMonitorAdapter;
+
+// Exports a program again in the background each time its functions are
+// added, removed, renamed or resized, until the program is closed. The change
+// events only wake up a worker thread which waits for them to settle before
+// exporting, so the UI is never blocked. The script that started the live
+// export has returned by then, so the exports have their own task monitor and
+// log to Ghidra's application log. The running live exports are kept by output
+// file so a later run of the script can stop them.
+public class LiveExport implements DomainObjectListener, Runnable
+{
+    public static final long defaultDelayMillis = 1000;
+
+    // The export of the program, which must only read it through the given
+    // monitor and log
+    public interface Export
+    {
+	boolean export(TaskMonitor monitor, Consumer<String> log) throws Exception;
+    }
+
+    private static final ConcurrentHashMap<File, LiveExport> running = new ConcurrentHashMap<File, LiveExport>();
+
+    private final Program program;
+    private final File outputFile;
+    private final Export export;
+    private final long delayMillis;
+    private final Thread thread;
+    private final TaskMonitor monitor = new TaskMonitorAdapter(true);
+    private boolean changed;
+    private long lastChangeTime;
+
+    private LiveExport(Program program, File outputFile, Export export, long delayMillis)
+    {
+	this.program = program;
+	this.outputFile = outputFile;
+	this.export = export;
+	this.delayMillis = delayMillis;
+	thread = new Thread(this, "ExportDwarfELFSymbols live export to " + outputFile.getPath());
+	thread.setDaemon(true);
+    }
+
+    // Starts exporting the program to outputFile with export each time it
+    // changes, once no change happened for delayMillis. A live export already
+    // running to outputFile is stopped.
+    public static void start(Program program, File outputFile, Export export, long delayMillis)
+    {
+	File key = getKey(outputFile);
+	LiveExport liveExport = new LiveExport(program, key, export, delayMillis);
+	LiveExport previous = running.put(key, liveExport);
+	if (previous != null)
+	    previous.cancel();
+	program.addListener(liveExport);
+	liveExport.thread.start();
+    }
+
+    // Stops the live export to outputFile, returns whether there was one. An
+    // export in progress is cancelled, leaving the previous output file.
+    public static boolean stop(File outputFile)
+    {
+	LiveExport liveExport = running.remove(getKey(outputFile));
+	if (liveExport == null)
+	    return false;
+	liveExport.cancel();
+	return true;
+    }
+
+    // The same file for the different paths to it
+    private static File getKey(File outputFile)
+    {
+	return outputFile.toPath().toAbsolutePath().normalize().toFile();
+    }
+
+    private void cancel()
+    {
+	monitor.cancel();
+	thread.interrupt();
+    }
+
+    private void log(String msg)
+    {
+	Msg.info(this, "Live export to " + outputFile.getPath() + ": " + msg);
+    }
+
+    @Override
+    public void domainObjectChanged(DomainObjectChangedEvent ev)
+    {
+	if (ev.contains(DomainObjectEvent.CLOSED))
+	{
+	    running.remove(outputFile, this);
+	    cancel();
+	    return;
+	}
+	if (ev.contains(ProgramEvent.FUNCTION_ADDED, ProgramEvent.FUNCTION_REMOVED, ProgramEvent.FUNCTION_BODY_CHANGED,
+		ProgramEvent.SYMBOL_RENAMED))
+	{
+	    synchronized (this)
+	    {
+		changed = true;
+		lastChangeTime = System.currentTimeMillis();
+		notifyAll();
+	    }
+	}
+    }
+
+    @Override
+    public void run()
+    {
+	try
+	{
+	    while (true)
+	    {
+		synchronized (this)
+		{
+		    while (!changed)
+			wait();
+		    long remaining;
+		    while ((remaining = lastChangeTime + delayMillis - System.currentTimeMillis()) > 0)
+			wait(remaining);
+		    changed = false;
+		}
+		// the program can't be modified while it is read, the lock is
+		// refused while a transaction is open so the export is retried
+		// once it is done
+		if (!program.lock("Live export to " + outputFile.getPath()))
+		{
+		    synchronized (this)
+		    {
+			changed = true;
+			lastChangeTime = System.currentTimeMillis();
+		    }
+		    continue;
+		}
+		try
+		{
+		    if (!export.export(monitor, this::log))
+			log("Failed, the previous ELF file is kept");
+		}
+		catch (Exception e)
+		{
+		    log(e.getMessage());
+		}
+		finally
+		{
+		    program.unlock();
+		}
+		if (monitor.isCancelled() || Thread.interrupted())
+		    break;
+	    }
+	}
+	catch (InterruptedException e)
+	{
+	}
+	finally
+	{
+	    program.removeListener(this);
+	    running.remove(outputFile, this);
+	}
+    }
+}
@@ -0,0 +1,131 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+// Compresses the DWARF sections as SHF_COMPRESSED sections: an ELF
+// compression header followed by the zlib stream of the content. Each section
+// is compressed on its own worker thread and kept as is if that doesn't make
+// it smaller. The stream is kept in blocks, it may be over 2 GB too.
+public class SectionCompressor
+{
+    private static final int blockSize = 1 << 24;
+    public static final int elfCompressZlib = 1;
+    private static final int compressionHeaderSize32Bit = 0x0C;
+    private static final int compressionHeaderSize64Bit = 0x18;
+
+    public static ArrayList<SectionInfo> compress(List<SectionInfo> sections, boolean is64Bit, ByteOrder byteOrder,
+	    int threadCount) throws Exception
+    {
+	ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, sections.size())));
+	try
+	{
+	    ArrayList<Future<SectionInfo>> results = new ArrayList<Future<SectionInfo>>();
+	    for (SectionInfo section : sections)
+	    {
+		if (section.name.startsWith(".debug_") && section.size() > 0)
+		    results.add(pool.submit(() -> compress(section, is64Bit, byteOrder)));
+		else
+		    results.add(null);
+	    }
+
+	    ArrayList<SectionInfo> compressed = new ArrayList<SectionInfo>(sections.size());
+	    for (int i = 0; i < sections.size(); i++)
+	    {
+		Future<SectionInfo> result = results.get(i);
+		if (result == null)
+		{
+		    compressed.add(sections.get(i));
+		    continue;
+		}
+		try
+		{
+		    compressed.add(result.get());
+		}
+		catch (ExecutionException e)
+		{
+		    if (e.getCause() instanceof Exception)
+			throw (Exception) e.getCause();
+		    throw e;
+		}
+	    }
+	    return compressed;
+	}
+	finally
+	{
+	    pool.shutdownNow();
+	}
+    }
+
+    private static SectionInfo compress(SectionInfo section, boolean is64Bit, ByteOrder byteOrder)
+    {
+	long size = section.size();
+	int headerSize = is64Bit ? compressionHeaderSize64Bit : compressionHeaderSize32Bit;
+	DwarfBuffer header = new DwarfBuffer(byteOrder, headerSize);
+	header.put32(elfCompressZlib);
+	if (is64Bit)
+	{
+	    // reserved
+	    header.put32(0);
+	    header.put64(size);
+	    header.put64(section.alignment);
+	}
+	else
+	{
+	    header.put32(size);
+	    header.put32(section.alignment);
+	}
+	SectionInfo compressed = new SectionInfo(section.name, header.toByteArray());
+
+	// the compression stops as soon as the result isn't smaller
+	Deflater deflater = new Deflater();
+	byte[] block = new byte[(int) Math.min(blockSize, size / 2 + 64)];
+	int blockUsed = 0;
+	long compressedSize = headerSize;
+	try
+	{
+	    // the input ends with the finish of the stream
+	    for (int i = 0; i <= section.chunks.size() && compressedSize < size; i++)
+	    {
+		boolean isLast = i == section.chunks.size();
+		if (isLast)
+		    deflater.finish();
+		else
+		    deflater.setInput(section.chunks.get(i).duplicate());
+		while ((isLast ? !deflater.finished() : !deflater.needsInput()) && compressedSize < size)
+		{
+		    int count = deflater.deflate(block, blockUsed, block.length - blockUsed);
+		    blockUsed += count;
+		    compressedSize += count;
+		    if (blockUsed == block.length)
+		    {
+			compressed.chunks.add(ByteBuffer.wrap(block));
+			block = new byte[block.length];
+			blockUsed = 0;
+		    }
+		}
+	    }
+	}
+	finally
+	{
+	    deflater.end();
+	}
+	if (compressedSize >= size)
+	    return section;
+	compressed.chunks.add(ByteBuffer.wrap(block, 0, blockUsed));
+
+	compressed.type = section.type;
+	compressed.flags = section.flags | ElfWriter.elfSectionFlagCompressed;
+	// the alignment of the compression header, the content's is in the header
+	compressed.alignment = is64Bit ? 8 : 4;
+	compressed.link = section.link;
+	compressed.info = section.info;
+	compressed.entrySize = section.entrySize;
+	return compressed;
+    }
+}
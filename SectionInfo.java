@@ -0,0 +1,54 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+public class SectionInfo
+{
+    public String name;
+    // The content as laid out in the file, the chunks may be views on native memory
+    public ArrayList<ByteBuffer> chunks = new ArrayList<>();
+    public int type = ElfWriter.elfSectionTypeProgBits;
+    public long flags;
+    // no requirements in particular by default
+    public long alignment = 1;
+    // sh_link as the name of the linked section, sh_info and sh_entsize, only
+    // set for tables such as .symtab
+    public String link;
+    public int info;
+    public long entrySize;
+    // sh_addr, and the size of a SHT_NOBITS section which has no content in the file
+    public long address;
+    public long noBitsSize;
+
+    public SectionInfo(String name)
+    {
+	this.name = name;
+    }
+
+    public SectionInfo(String name, byte[] content)
+    {
+	this(name);
+	if (content != null)
+	    chunks.add(ByteBuffer.wrap(content));
+    }
+
+    public long size()
+    {
+	long size = 0;
+	for (ByteBuffer chunk : chunks)
+	    size += chunk.remaining();
+	return size;
+    }
+
+    public void writeTo(FileChannel channel) throws IOException
+    {
+	ByteBuffer[] views = new ByteBuffer[chunks.size()];
+	for (int i = 0; i < views.length; i++)
+	    views[i] = chunks.get(i).duplicate();
+
+	long remaining = size();
+	while (remaining > 0)
+	    remaining -= channel.write(views);
+    }
+}
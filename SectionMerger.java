@@ -0,0 +1,341 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Merges the DWARF sections produced separately for several compile units
+// into a single set of sections. Identical abbreviation tables are only kept
+// once and the other sections are concatenated. The units of .debug_info are
+// patched to point to their table, to their line program in .debug_line, to
+// their strings in .debug_str and .debug_line_str, to their address table in
+// .debug_addr and to their lists in .debug_rnglists and .debug_loclists. The
+// line programs are patched to point to their strings in .debug_line_str and
+// the FDEs of .debug_frame to their CIE. The references between units aren't
+// patched, the DW_FORM_ref_addr only refer to the first unit which stays at
+// the start of .debug_info. The patched sections are copied in blocks of whole
+// units or frame entries, so none of them needs to fit in a single array.
+public class SectionMerger
+{
+    private static final int blockSize = 1 << 26;
+
+    private final ByteOrder byteOrder;
+    private final LinkedHashMap<String, SectionInfo> merged = new LinkedHashMap<String, SectionInfo>();
+    private final ArrayList<byte[]> abbrevTables = new ArrayList<byte[]>();
+    private final ArrayList<Long> abbrevOffsets = new ArrayList<Long>();
+    private long abbrevSize = 0;
+    // the size of each concatenated section, where the next unit's part starts
+    private final HashMap<String, Long> sizes = new HashMap<String, Long>();
+
+    public SectionMerger(ByteOrder byteOrder)
+    {
+	this.byteOrder = byteOrder;
+    }
+
+    public static ArrayList<SectionInfo> merge(List<? extends List<SectionInfo>> units, ByteOrder byteOrder) throws Exception
+    {
+	if (units.size() == 1)
+	    return new ArrayList<SectionInfo>(units.get(0));
+
+	SectionMerger merger = new SectionMerger(byteOrder);
+	for (List<SectionInfo> unit : units)
+	    merger.add(unit);
+	return merger.getSections();
+    }
+
+    // Appends the sections of a unit to the merged ones. The chunks added may
+    // still reference the unit's memory, they can be taken out of the merged
+    // sections between two units as the offsets don't depend on them.
+    public void add(List<SectionInfo> unit) throws Exception
+    {
+	// place this unit's abbreviations first, the info refers to them
+	long abbrevBase = 0;
+	byte[] table = null;
+	SectionInfo abbrev = DwarfReader.find(unit, ".debug_abbrev");
+	if (abbrev != null)
+	{
+	    table = DwarfReader.toByteArray(abbrev);
+	    int existing = -1;
+	    for (int i = 0; i < abbrevTables.size() && existing < 0; i++)
+	    {
+		if (Arrays.equals(abbrevTables.get(i), table))
+		    existing = i;
+	    }
+	    if (existing >= 0)
+	    {
+		abbrevBase = abbrevOffsets.get(existing);
+	    }
+	    else
+	    {
+		abbrevBase = abbrevSize;
+		abbrevTables.add(table);
+		abbrevOffsets.add(abbrevBase);
+		abbrevSize += table.length;
+		merged.computeIfAbsent(abbrev.name, SectionInfo::new).chunks.add(ByteBuffer.wrap(table));
+	    }
+	}
+
+	// where this unit's part of every other section starts
+	HashMap<String, Long> bases = new HashMap<String, Long>();
+	for (SectionInfo section : unit)
+	{
+	    if (section == abbrev)
+		continue;
+	    long base = sizes.getOrDefault(section.name, 0L);
+	    bases.put(section.name, base);
+	    sizes.put(section.name, base + section.size());
+	}
+	boolean relocateInfo = bases.getOrDefault(".debug_line", 0L) != 0 || bases.getOrDefault(".debug_addr", 0L) != 0
+		|| hasStringsOrLists(bases);
+
+	for (SectionInfo section : unit)
+	{
+	    if (section == abbrev)
+		continue;
+
+	    SectionInfo target = merged.get(section.name);
+	    if (target == null)
+	    {
+		target = new SectionInfo(section.name);
+		target.type = section.type;
+		target.alignment = section.alignment;
+		merged.put(section.name, target);
+	    }
+
+	    long lineStrBase = bases.getOrDefault(".debug_line_str", 0L);
+	    if (section.name.equals(".debug_info") && (abbrevBase != 0 || relocateInfo))
+	    {
+		for (byte[] info : copyBlocks(section, byteOrder))
+		{
+		    if (relocateInfo && table != null)
+			relocateAttributes(info, table, bases, byteOrder);
+		    if (abbrevBase != 0)
+			relocateAbbrevOffsets(info, abbrevBase, byteOrder);
+		    target.chunks.add(ByteBuffer.wrap(info));
+		}
+	    }
+	    else if (section.name.equals(".debug_line") && lineStrBase != 0)
+	    {
+		for (byte[] lines : copyBlocks(section, byteOrder))
+		    target.chunks.add(ByteBuffer.wrap(relocateLineStrings(lines, lineStrBase, byteOrder)));
+	    }
+	    else if (section.name.equals(".debug_frame") && bases.get(section.name) != 0)
+	    {
+		for (byte[] frames : copyBlocks(section, byteOrder))
+		    target.chunks.add(ByteBuffer.wrap(relocateCiePointers(frames, bases.get(section.name), byteOrder)));
+	    }
+	    else
+	    {
+		target.chunks.addAll(section.chunks);
+	    }
+	}
+    }
+
+    // Whether offsets into the sections referred to from any DIE change, so
+    // every DIE must be read and not only the unit DIEs
+    private static boolean hasStringsOrLists(HashMap<String, Long> bases)
+    {
+	return bases.getOrDefault(".debug_str", 0L) != 0 || bases.getOrDefault(".debug_line_str", 0L) != 0
+		|| bases.getOrDefault(".debug_rnglists", 0L) != 0 || bases.getOrDefault(".debug_loclists", 0L) != 0;
+    }
+
+    // The merged sections, in the order they first appeared in the units
+    public ArrayList<SectionInfo> getSections()
+    {
+	return new ArrayList<SectionInfo>(merged.values());
+    }
+
+    // Copies the section in blocks of whole units, CIEs or FDEs of about
+    // blockSize bytes, a single entry over 2 GB can't be copied
+    private static ArrayList<byte[]> copyBlocks(SectionInfo section, ByteOrder byteOrder) throws Exception
+    {
+	SectionReader reader = new SectionReader(section, byteOrder);
+	ArrayList<byte[]> blocks = new ArrayList<byte[]>();
+	long start = 0;
+	long offset = 0;
+	while (offset < reader.size())
+	{
+	    offset = reader.getEntryEnd(offset);
+	    if (offset - start >= blockSize || offset >= reader.size())
+	    {
+		blocks.add(reader.copy(start, offset - start));
+		start = offset;
+	    }
+	}
+	return blocks;
+    }
+
+    // Adds base to the offset of size bytes at position, the offsets of the
+    // 32-bit DWARF format can't go beyond 4 GB
+    private static void relocate(ByteBuffer buf, int position, long base, int size) throws Exception
+    {
+	long value = DwarfReader.readFixed(buf, position, size) + base;
+	if (size < 8 && value >>> (size * 8) != 0)
+	    throw new Exception("Error with the merged sections: the offset " + value
+		    + " is beyond the 4 GB of the 32-bit DWARF format");
+	DwarfReader.writeFixed(buf, position, value, size);
+    }
+
+    // Adds the bases of .debug_line and .debug_addr to the DW_AT_stmt_list and
+    // DW_AT_addr_base of the unit DIE of every unit, the bases of .debug_str
+    // and .debug_line_str to every DW_FORM_strp and DW_FORM_line_strp attribute
+    // and the bases of .debug_rnglists and .debug_loclists to the section
+    // offsets of the ranges and locations. Only the unit DIEs are read when
+    // there are no strings or lists to relocate.
+    private static void relocateAttributes(byte[] info, byte[] abbrev, HashMap<String, Long> bases,
+	    ByteOrder byteOrder) throws Exception
+    {
+	long lineBase = bases.getOrDefault(".debug_line", 0L);
+	long addrBase = bases.getOrDefault(".debug_addr", 0L);
+	long strBase = bases.getOrDefault(".debug_str", 0L);
+	long lineStrBase = bases.getOrDefault(".debug_line_str", 0L);
+	long rangesBase = bases.getOrDefault(".debug_rnglists", 0L);
+	long locationsBase = bases.getOrDefault(".debug_loclists", 0L);
+	boolean allDies = hasStringsOrLists(bases);
+	ByteBuffer buf = ByteBuffer.wrap(info).order(byteOrder);
+	ByteBuffer abbrevBuf = ByteBuffer.wrap(abbrev).order(byteOrder);
+	HashMap<Long, HashMap<Long, DwarfReader.Abbreviation>> abbrevTables = new HashMap<>();
+	int offset = 0;
+	while (offset < info.length)
+	{
+	    DwarfReader.UnitHeader header = DwarfReader.readUnitHeader(buf, offset);
+	    HashMap<Long, DwarfReader.Abbreviation> abbreviations = abbrevTables.computeIfAbsent(header.abbrevOffset,
+		    tableOffset -> DwarfReader.readAbbreviations(abbrevBuf, (int) (long) tableOffset));
+	    buf.position(header.dieOffset);
+	    boolean isUnitDie = true;
+	    while (buf.position() < header.end && (isUnitDie || allDies))
+	    {
+		long code = DwarfReader.readUleb128(buf);
+		if (code == 0)
+		    continue;
+		DwarfReader.Abbreviation decl = abbreviations.get(code);
+		if (decl == null)
+		    throw new Exception("Cannot merge the compile units: abbreviation " + code + " not found");
+		for (int i = 0; i < decl.attributes.length; i++)
+		{
+		    int form = decl.forms[i];
+		    int attribute = decl.attributes[i];
+		    int position = buf.position();
+		    if (isUnitDie && decl.attributes[i] == LibdwarfLibrary.DW_AT_stmt_list)
+		    {
+			int size = form == LibdwarfLibrary.DW_FORM_data4 ? 4
+				: form == LibdwarfLibrary.DW_FORM_data8 ? 8 : header.offsetSize;
+			relocate(buf, position, lineBase, size);
+		    }
+		    else if (isUnitDie && decl.attributes[i] == LibdwarfLibrary.DW_AT_addr_base)
+		    {
+			relocate(buf, position, addrBase, header.offsetSize);
+		    }
+		    else if (form == LibdwarfLibrary.DW_FORM_strp && strBase != 0)
+		    {
+			relocate(buf, position, strBase, header.offsetSize);
+		    }
+		    else if (form == LibdwarfLibrary.DW_FORM_line_strp && lineStrBase != 0)
+		    {
+			relocate(buf, position, lineStrBase, header.offsetSize);
+		    }
+		    else if (form == LibdwarfLibrary.DW_FORM_sec_offset && rangesBase != 0
+			    && (attribute == LibdwarfLibrary.DW_AT_ranges || attribute == LibdwarfLibrary.DW_AT_rnglists_base))
+		    {
+			relocate(buf, position, rangesBase, header.offsetSize);
+		    }
+		    else if (form == LibdwarfLibrary.DW_FORM_sec_offset && locationsBase != 0
+			    && (attribute == LibdwarfLibrary.DW_AT_location || attribute == LibdwarfLibrary.DW_AT_frame_base
+				    || attribute == LibdwarfLibrary.DW_AT_loclists_base))
+		    {
+			relocate(buf, position, locationsBase, header.offsetSize);
+		    }
+		    DwarfReader.skipAttribute(buf, form, header.addressSize, header.offsetSize);
+		}
+		isUnitDie = false;
+	    }
+	    offset = header.end;
+	}
+    }
+
+    // Adds base to the DW_FORM_line_strp of the directory and file entries in
+    // the header of every DWARF 5 line program, the earlier versions only have
+    // inline strings
+    private static byte[] relocateLineStrings(byte[] lines, long base, ByteOrder byteOrder) throws Exception
+    {
+	ByteBuffer buf = ByteBuffer.wrap(lines).order(byteOrder);
+	int offset = 0;
+	while (offset < lines.length)
+	{
+	    boolean is64BitFormat = buf.getInt(offset) == 0xFFFFFFFF;
+	    long length = is64BitFormat ? buf.getLong(offset + 4) : buf.getInt(offset) & 0xFFFFFFFFL;
+	    int offsetSize = is64BitFormat ? 8 : 4;
+	    int versionPosition = offset + (is64BitFormat ? 12 : 4);
+	    int end = versionPosition + (int) length;
+	    int version = buf.getShort(versionPosition) & 0xFFFF;
+	    if (version >= 5)
+	    {
+		int addressSize = buf.get(versionPosition + 2) & 0xFF;
+		// after the segment selector size, header length, minimum
+		// instruction length, maximum operations per instruction, default
+		// is_stmt, line base and line range
+		int opcodeBasePosition = versionPosition + 4 + offsetSize + 5;
+		buf.position(opcodeBasePosition + (buf.get(opcodeBasePosition) & 0xFF));
+		// the directories then the files
+		for (int table = 0; table < 2; table++)
+		{
+		    int formatCount = buf.get() & 0xFF;
+		    int[] forms = new int[formatCount];
+		    for (int i = 0; i < formatCount; i++)
+		    {
+			DwarfReader.readUleb128(buf);
+			forms[i] = (int) DwarfReader.readUleb128(buf);
+		    }
+		    long entryCount = DwarfReader.readUleb128(buf);
+		    for (long entry = 0; entry < entryCount; entry++)
+		    {
+			for (int form : forms)
+			{
+			    if (form == LibdwarfLibrary.DW_FORM_line_strp)
+				relocate(buf, buf.position(), base, offsetSize);
+			    DwarfReader.skipAttribute(buf, form, addressSize, offsetSize);
+			}
+		    }
+		}
+	    }
+	    offset = end;
+	}
+	return lines;
+    }
+
+    // Adds base to the CIE pointer of every FDE
+    private static byte[] relocateCiePointers(byte[] frame, long base, ByteOrder byteOrder) throws Exception
+    {
+	ByteBuffer buf = ByteBuffer.wrap(frame).order(byteOrder);
+	int offset = 0;
+	while (offset < frame.length)
+	{
+	    boolean is64BitFormat = buf.getInt(offset) == 0xFFFFFFFF;
+	    long length = is64BitFormat ? buf.getLong(offset + 4) : buf.getInt(offset) & 0xFFFFFFFFL;
+	    int idPosition = offset + (is64BitFormat ? 12 : 4);
+	    int idSize = is64BitFormat ? 8 : 4;
+	    long id = DwarfReader.readFixed(buf, idPosition, idSize);
+	    boolean isCie = is64BitFormat ? id == -1 : id == 0xFFFFFFFFL;
+	    if (!isCie)
+		relocate(buf, idPosition, base, idSize);
+	    offset = idPosition + (int) length;
+	}
+	return frame;
+    }
+
+    // Adds base to the abbreviation offset in the header of every unit
+    private static byte[] relocateAbbrevOffsets(byte[] info, long base, ByteOrder byteOrder) throws Exception
+    {
+	ByteBuffer buf = ByteBuffer.wrap(info).order(byteOrder);
+	int offset = 0;
+	while (offset < info.length)
+	{
+	    DwarfReader.UnitHeader header = DwarfReader.readUnitHeader(buf, offset);
+	    relocate(buf, header.abbrevOffsetPosition, base, header.offsetSize);
+	    offset = header.end;
+	}
+	return info;
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Random access to the content of a section at 64-bit offsets, without
+// gathering its chunks in a single array so sections over 2 GB can be read:
+// a range within a chunk is a view on it, only a range spanning several
+// chunks is copied
+public class SectionReader
+{
+    private final SectionInfo section;
+    private final ByteOrder byteOrder;
+    // the offset of each chunk in the section, then the section's size
+    private final long[] starts;
+
+    public SectionReader(SectionInfo section, ByteOrder byteOrder)
+    {
+	this.section = section;
+	this.byteOrder = byteOrder;
+	starts = new long[section.chunks.size() + 1];
+	for (int i = 0; i < section.chunks.size(); i++)
+	    starts[i + 1] = starts[i] + section.chunks.get(i).remaining();
+    }
+
+    public long size()
+    {
+	return starts[starts.length - 1];
+    }
+
+    // The index of the chunk holding the byte at offset
+    private int findChunk(long offset)
+    {
+	int index = Arrays.binarySearch(starts, offset);
+	if (index < 0)
+	    index = -index - 2;
+	// the empty chunks start where the next one does
+	while (index < starts.length - 2 && starts[index + 1] <= offset)
+	    index++;
+	return index;
+    }
+
+    private void checkRange(long offset, long length) throws Exception
+    {
+	if (offset < 0 || length < 0 || offset + length > size())
+	    throw new Exception("Error with the " + section.name + " section: " + length + " bytes at " + offset
+		    + " are beyond its " + size() + " bytes");
+	if (length > Integer.MAX_VALUE)
+	    throw new Exception("Error with the " + section.name + " section: the " + length + " bytes at " + offset
+		    + " can't be read at once, more than 2 GB");
+    }
+
+    // The length bytes at offset, positioned at 0 in the returned buffer
+    public ByteBuffer slice(long offset, long length) throws Exception
+    {
+	checkRange(offset, length);
+	if (length > 0)
+	{
+	    int index = findChunk(offset);
+	    if (offset + length <= starts[index + 1])
+	    {
+		ByteBuffer chunk = section.chunks.get(index);
+		ByteBuffer view = chunk.duplicate();
+		int position = chunk.position() + (int) (offset - starts[index]);
+		view.limit(position + (int) length).position(position);
+		return view.slice().order(byteOrder);
+	    }
+	}
+	return ByteBuffer.wrap(copy(offset, length)).order(byteOrder);
+    }
+
+    // A copy of the length bytes at offset, which may be modified
+    public byte[] copy(long offset, long length) throws Exception
+    {
+	checkRange(offset, length);
+	byte[] content = new byte[(int) length];
+	int copied = 0;
+	for (int index = findChunk(offset); copied < length; index++)
+	{
+	    ByteBuffer view = section.chunks.get(index).duplicate();
+	    long skipped = offset + copied - starts[index];
+	    view.position(view.position() + (int) skipped);
+	    int count = (int) Math.min(view.remaining(), length - copied);
+	    view.get(content, copied, count);
+	    copied += count;
+	}
+	return content;
+    }
+
+    public long readFixed(long offset, int size) throws Exception
+    {
+	return DwarfReader.readFixed(slice(offset, size), 0, size);
+    }
+
+    // The end of the unit, CIE or FDE at offset, from its initial length
+    public long getEntryEnd(long offset) throws Exception
+    {
+	long length = readFixed(offset, 4);
+	if (length == 0xFFFFFFFFL)
+	    return offset + 12 + readFixed(offset + 4, 8);
+	return offset + 4 + length;
+    }
+
+    // The null terminated string at offset, which may span several chunks
+    public String readCString(long offset) throws Exception
+    {
+	checkRange(offset, 1);
+	int first = findChunk(offset);
+	ByteBuffer chunk = section.chunks.get(first);
+	int start = chunk.position() + (int) (offset - starts[first]);
+	for (int i = start; i < chunk.limit(); i++)
+	{
+	    if (chunk.get(i) == 0)
+	    {
+		byte[] bytes = new byte[i - start];
+		chunk.duplicate().position(start).get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	    }
+	}
+
+	// the string continues in the next chunks
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	for (int index = first; index < section.chunks.size(); index++)
+	{
+	    ByteBuffer part = section.chunks.get(index);
+	    for (int i = part.position() + (int) Math.max(offset - starts[index], 0); i < part.limit(); i++)
+	    {
+		byte b = part.get(i);
+		if (b == 0)
+		    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		bytes.write(b);
+	    }
+	}
+	throw new Exception("Error with the " + section.name + " section: the string at " + offset + " isn't terminated");
+    }
+}
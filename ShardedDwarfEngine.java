@@ -0,0 +1,162 @@
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Splits the functions in contiguous address ranges, each encoded as its own
+// compile unit by its own engine on a pool of worker threads, then merges the
+// sections of every unit. Functions must be added in address order.
+public class ShardedDwarfEngine implements DwarfEngine
+{
+    public interface EngineFactory
+    {
+	DwarfEngine createEngine() throws Exception;
+    }
+
+    private static final int minFunctionsPerShard = 1024;
+
+    private final EngineFactory factory;
+    private final ByteOrder byteOrder;
+    private final int threadCount;
+    private final FunctionTable functions = new FunctionTable(1 << 12);
+    private final VariableTable variables = new VariableTable();
+    private DwarfEngine[] engines = new DwarfEngine[0];
+    private TypeTable types;
+
+    public ShardedDwarfEngine(EngineFactory factory, ByteOrder byteOrder, int threadCount)
+    {
+	this.factory = factory;
+	this.byteOrder = byteOrder;
+	this.threadCount = Math.max(threadCount, 1);
+    }
+
+    @Override
+    public void addFunction(String name, long start, long end)
+    {
+	functions.add(name, start, end);
+    }
+
+    @Override
+    public void addLines(long[] addresses, int offset, int count, long end)
+    {
+	functions.addLines(addresses, offset, count);
+    }
+
+    @Override
+    public void addFrame(long start, long end, long[] addresses, int[] cfaOffsets, int offset, int count)
+    {
+	functions.setFrame(start, end, addresses, cfaOffsets, offset, count);
+    }
+
+    // The types are only added to the first compile unit, which comes first
+    // in the merged .debug_info. The variables and locals of the other units
+    // refer to them with DW_FORM_ref_addr when the engine can, the libdwarf
+    // engines can't refer to another unit and leave their type out.
+    @Override
+    public void addTypes(TypeTable types)
+    {
+	this.types = types;
+    }
+
+    // The variables are added to the first compile unit along with their types
+    @Override
+    public void addVariable(String name, long address, int typeId)
+    {
+	variables.add(name, address, typeId);
+    }
+
+    @Override
+    public void addLocal(String name, boolean parameter, int typeId, int register, long frameOffset)
+    {
+	functions.addLocal(name, parameter, typeId, register, frameOffset);
+    }
+
+    @Override
+    public ArrayList<SectionInfo> generateSections() throws Exception
+    {
+	int shardCount = Math.max(1, Math.min(threadCount * 4, functions.size() / minFunctionsPerShard));
+	engines = new DwarfEngine[shardCount];
+	// the types of the first shard are encoded before the others start to know their offsets
+	engines[0] = factory.createEngine();
+	long[] typeOffsets = null;
+	if (types != null)
+	{
+	    engines[0].addTypes(types);
+	    if (engines[0] instanceof JavaDwarfEngine)
+		typeOffsets = ((JavaDwarfEngine) engines[0]).getTypeInfoOffsets();
+	}
+	long[] externalTypeOffsets = typeOffsets;
+
+	ExecutorService pool = Executors.newFixedThreadPool(Math.min(threadCount, shardCount));
+	try
+	{
+	    ArrayList<Future<ArrayList<SectionInfo>>> results = new ArrayList<Future<ArrayList<SectionInfo>>>();
+	    for (int i = 0; i < shardCount; i++)
+	    {
+		int shard = i;
+		int from = (int) ((long) functions.size() * shard / shardCount);
+		int to = (int) ((long) functions.size() * (shard + 1) / shardCount);
+		results.add(pool.submit(() ->
+		{
+		    DwarfEngine engine = shard == 0 ? engines[0] : factory.createEngine();
+		    engines[shard] = engine;
+		    if (shard == 0)
+			variables.addTo(engine);
+		    else if (externalTypeOffsets != null)
+			((JavaDwarfEngine) engine).setExternalTypes(externalTypeOffsets);
+		    functions.addTo(engine, from, to);
+		    return engine.generateSections();
+		}));
+	    }
+
+	    ArrayList<ArrayList<SectionInfo>> shardSections = new ArrayList<ArrayList<SectionInfo>>();
+	    for (Future<ArrayList<SectionInfo>> result : results)
+	    {
+		try
+		{
+		    shardSections.add(result.get());
+		}
+		catch (ExecutionException e)
+		{
+		    if (e.getCause() instanceof Exception)
+			throw (Exception) e.getCause();
+		    throw e;
+		}
+	    }
+	    return SectionMerger.merge(shardSections, byteOrder);
+	}
+	finally
+	{
+	    pool.shutdownNow();
+	}
+    }
+
+    public int getShardCount()
+    {
+	return engines.length;
+    }
+
+    // The native calls made by the libdwarf engines of the shards
+    public long getNativeCallCount()
+    {
+	long count = 0;
+	for (DwarfEngine engine : engines)
+	{
+	    if (engine instanceof LibdwarfEngine)
+		count += ((LibdwarfEngine) engine).getNativeCallCount();
+	}
+	return count;
+    }
+
+    @Override
+    public void finish() throws Exception
+    {
+	for (DwarfEngine engine : engines)
+	{
+	    if (engine != null)
+		engine.finish();
+	}
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+// Encodes the functions and the variables in compile units of a fixed number
+// of them, one at a time: as soon as a unit is full its engine generates its
+// sections, which are merged into spill files, one per section, and the
+// engine is finished. Only a single unit is in memory at any time, the sections
+// returned by generateSections are mapped from the spill files.
+public class StreamingDwarfEngine implements DwarfEngine
+{
+    public static final int defaultFunctionsPerUnit = 1 << 15;
+
+    private final ShardedDwarfEngine.EngineFactory factory;
+    private final int functionsPerUnit;
+    private final File spillDirectory;
+    private final SectionMerger merger;
+    private final FunctionTable functions;
+    private final VariableTable variables = new VariableTable();
+    private final LinkedHashMap<String, File> spillFiles = new LinkedHashMap<String, File>();
+    private final LinkedHashMap<String, FileChannel> spillChannels = new LinkedHashMap<String, FileChannel>();
+    private TypeTable types;
+    // the offsets of the type DIEs of the first unit, null if they can't be referred to
+    private long[] typeOffsets;
+    private int unitCount;
+    private long nativeCallCount;
+
+    public StreamingDwarfEngine(ShardedDwarfEngine.EngineFactory factory, ByteOrder byteOrder, int functionsPerUnit,
+	    File spillDirectory)
+    {
+	this.factory = factory;
+	this.functionsPerUnit = Math.max(functionsPerUnit, 1);
+	this.spillDirectory = spillDirectory;
+	merger = new SectionMerger(byteOrder);
+	functions = new FunctionTable(this.functionsPerUnit);
+    }
+
+    @Override
+    public void addFunction(String name, long start, long end) throws Exception
+    {
+	// the lines and the frame of the last function are still to come
+	if (functions.size() + variables.size() == functionsPerUnit)
+	    flushUnit();
+	functions.add(name, start, end);
+    }
+
+    @Override
+    public void addLines(long[] addresses, int offset, int count, long end)
+    {
+	functions.addLines(addresses, offset, count);
+    }
+
+    @Override
+    public void addFrame(long start, long end, long[] addresses, int[] cfaOffsets, int offset, int count)
+    {
+	functions.setFrame(start, end, addresses, cfaOffsets, offset, count);
+    }
+
+    // The types are only added to the first compile unit, which comes first
+    // in the merged .debug_info. The variables and locals of the other units
+    // refer to them with DW_FORM_ref_addr when the engine can, the libdwarf
+    // engines can't refer to another unit and leave their type out.
+    @Override
+    public void addTypes(TypeTable types)
+    {
+	this.types = types;
+    }
+
+    @Override
+    public void addVariable(String name, long address, int typeId) throws Exception
+    {
+	if (functions.size() + variables.size() == functionsPerUnit)
+	    flushUnit();
+	variables.add(name, address, typeId);
+    }
+
+    @Override
+    public void addLocal(String name, boolean parameter, int typeId, int register, long frameOffset)
+    {
+	functions.addLocal(name, parameter, typeId, register, frameOffset);
+    }
+
+    private void flushUnit() throws Exception
+    {
+	DwarfEngine engine = factory.createEngine();
+	try
+	{
+	    if (types != null && unitCount == 0)
+	    {
+		engine.addTypes(types);
+		if (engine instanceof JavaDwarfEngine)
+		    typeOffsets = ((JavaDwarfEngine) engine).getTypeInfoOffsets();
+	    }
+	    else if (typeOffsets != null)
+	    {
+		((JavaDwarfEngine) engine).setExternalTypes(typeOffsets);
+	    }
+	    variables.addTo(engine);
+	    functions.addTo(engine, 0, functions.size());
+	    merger.add(engine.generateSections());
+	    for (SectionInfo section : merger.getSections())
+	    {
+		spill(section);
+		section.chunks.clear();
+	    }
+	}
+	finally
+	{
+	    engine.finish();
+	    if (engine instanceof LibdwarfEngine)
+		nativeCallCount += ((LibdwarfEngine) engine).getNativeCallCount();
+	}
+	functions.clear();
+	variables.clear();
+	unitCount++;
+    }
+
+    private void spill(SectionInfo section) throws IOException
+    {
+	FileChannel channel = spillChannels.get(section.name);
+	if (channel == null)
+	{
+	    File file = File.createTempFile("dwarf", ".spill", spillDirectory);
+	    file.deleteOnExit();
+	    spillFiles.put(section.name, file);
+	    channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ);
+	    spillChannels.put(section.name, channel);
+	}
+	section.writeTo(channel);
+    }
+
+    @Override
+    public ArrayList<SectionInfo> generateSections() throws Exception
+    {
+	if (functions.size() + variables.size() > 0 || unitCount == 0)
+	    flushUnit();
+
+	ArrayList<SectionInfo> sections = new ArrayList<SectionInfo>();
+	for (SectionInfo merged : merger.getSections())
+	{
+	    SectionInfo section = new SectionInfo(merged.name);
+	    section.type = merged.type;
+	    section.alignment = merged.alignment;
+	    FileChannel channel = spillChannels.get(merged.name);
+	    long size = channel.size();
+	    for (long position = 0; position < size; position += Integer.MAX_VALUE)
+		section.chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, position,
+			Math.min(size - position, Integer.MAX_VALUE)));
+	    sections.add(section);
+	}
+	closeChannels();
+	return sections;
+    }
+
+    public int getUnitCount()
+    {
+	return unitCount;
+    }
+
+    // The native calls made by the libdwarf engines of the units
+    public long getNativeCallCount()
+    {
+	return nativeCallCount;
+    }
+
+    private void closeChannels() throws IOException
+    {
+	for (FileChannel channel : spillChannels.values())
+	    channel.close();
+	spillChannels.clear();
+    }
+
+    // The spill files are deleted, the mappings of the sections being released
+    // by the garbage collector they may only go away when the JVM exits on
+    // systems not deleting mapped files
+    @Override
+    public void finish() throws Exception
+    {
+	closeChannels();
+	for (File file : spillFiles.values())
+	    file.delete();
+	spillFiles.clear();
+    }
+}
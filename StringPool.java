@@ -0,0 +1,112 @@
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// The strings of .debug_str, each distinct string is stored once and a
+// string ending another one points into it. As the offsets are only known
+// once every string has been added, the references are recorded with their
+// position in the referencing buffer and patched afterwards.
+public class StringPool
+{
+    private HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    private ArrayList<byte[]> strings = new ArrayList<byte[]>();
+    private long[] offsets;
+    // reference i is at referencePositions[i] and points to string referenceIds[i]
+    private int[] referencePositions = new int[256];
+    private int[] referenceIds = new int[256];
+    private int referenceCount;
+
+    public int size()
+    {
+	return strings.size();
+    }
+
+    // Returns the id of the string, adding it if it's new
+    public int intern(String str)
+    {
+	Integer id = ids.get(str);
+	if (id == null)
+	{
+	    id = strings.size();
+	    ids.put(str, id);
+	    strings.add(str.getBytes(StandardCharsets.UTF_8));
+	}
+	return id;
+    }
+
+    // Records a reference to the string at position of the referencing buffer
+    public void addReference(int position, String str)
+    {
+	if (referenceCount == referencePositions.length)
+	{
+	    referencePositions = Arrays.copyOf(referencePositions, referenceCount * 2);
+	    referenceIds = Arrays.copyOf(referenceIds, referenceCount * 2);
+	}
+	referencePositions[referenceCount] = position;
+	referenceIds[referenceCount] = intern(str);
+	referenceCount++;
+    }
+
+    // Lays the strings out and returns the content of .debug_str
+    public byte[] build()
+    {
+	// sorted on their reversed bytes, the strings ending with a given one
+	// come right after it
+	int count = strings.size();
+	Integer[] order = new Integer[count];
+	for (int i = 0; i < count; i++)
+	    order[i] = i;
+	Arrays.sort(order, (a, b) -> compareReversed(strings.get(a), strings.get(b)));
+
+	offsets = new long[count];
+	DwarfBuffer content = new DwarfBuffer(ByteOrder.LITTLE_ENDIAN);
+	int stored = -1;
+	for (int i = count - 1; i >= 0; i--)
+	{
+	    byte[] str = strings.get(order[i]);
+	    if (stored >= 0 && isSuffix(str, strings.get(stored)))
+	    {
+		offsets[order[i]] = offsets[stored] + strings.get(stored).length - str.length;
+		continue;
+	    }
+	    offsets[order[i]] = content.size();
+	    content.putBytes(str);
+	    content.put8(0);
+	    stored = order[i];
+	}
+	return content.toByteArray();
+    }
+
+    // Writes the offsets of the referenced strings, once built
+    public void patch(DwarfBuffer buffer, int offsetSize)
+    {
+	for (int i = 0; i < referenceCount; i++)
+	    buffer.setFixed(referencePositions[i], offsets[referenceIds[i]], offsetSize);
+    }
+
+    private static int compareReversed(byte[] a, byte[] b)
+    {
+	int length = Math.min(a.length, b.length);
+	for (int i = 1; i <= length; i++)
+	{
+	    int difference = (a[a.length - i] & 0xFF) - (b[b.length - i] & 0xFF);
+	    if (difference != 0)
+		return difference;
+	}
+	return a.length - b.length;
+    }
+
+    private static boolean isSuffix(byte[] suffix, byte[] str)
+    {
+	if (suffix.length > str.length)
+	    return false;
+	for (int i = 1; i <= suffix.length; i++)
+	{
+	    if (suffix[suffix.length - i] != str[str.length - i])
+		return false;
+	}
+	return true;
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Canonical set of the DWARF types to export. Types are hash consed on a key
+// describing their structure so every structurally identical type is only
+// added once and all references share its id.
+public class TypeTable
+{
+    public static class Member
+    {
+	public String name;
+	public long offset;
+	public int typeId;
+    }
+
+    public static class Type
+    {
+	public int tag;
+	public String name;
+	public long byteSize;
+	public int encoding;
+	// the referenced type, -1 for void
+	public int typeId = -1;
+	// number of elements of an array
+	public long count;
+	public ArrayList<Member> members = new ArrayList<Member>();
+	public ArrayList<String> enumeratorNames = new ArrayList<String>();
+	public ArrayList<Long> enumeratorValues = new ArrayList<Long>();
+    }
+
+    private final ArrayList<Type> types = new ArrayList<Type>();
+    private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    private long fingerprint;
+
+    // Returns the id of the type with this key or -1
+    public int find(String key)
+    {
+	Integer id = ids.get(key);
+	return id == null ? -1 : id;
+    }
+
+    // The type may still be completed after being added, which lets it be
+    // referenced by its own members
+    public int add(String key, Type type)
+    {
+	int id = types.size();
+	types.add(type);
+	ids.put(key, id);
+	fingerprint = CompileUnitCache.hashString(fingerprint, key);
+	return id;
+    }
+
+    public int size()
+    {
+	return types.size();
+    }
+
+    public Type get(int id)
+    {
+	return types.get(id);
+    }
+
+    public long getFingerprint()
+    {
+	return fingerprint;
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.Arrays;
+
+// Compact table of global variables to export, kept as parallel arrays
+public class VariableTable
+{
+    private String[] names;
+    private long[] addresses;
+    private int[] typeIds;
+    private int size;
+
+    public VariableTable()
+    {
+	this(64);
+    }
+
+    public VariableTable(int initialCapacity)
+    {
+	int capacity = Math.max(initialCapacity, 1);
+	names = new String[capacity];
+	addresses = new long[capacity];
+	typeIds = new int[capacity];
+    }
+
+    public void add(String name, long address, int typeId)
+    {
+	if (size == names.length)
+	{
+	    int capacity = size * 2;
+	    names = Arrays.copyOf(names, capacity);
+	    addresses = Arrays.copyOf(addresses, capacity);
+	    typeIds = Arrays.copyOf(typeIds, capacity);
+	}
+	names[size] = name;
+	addresses[size] = address;
+	typeIds[size] = typeId;
+	size++;
+    }
+
+    public int size()
+    {
+	return size;
+    }
+
+    public void clear()
+    {
+	Arrays.fill(names, 0, size, null);
+	size = 0;
+    }
+
+    public void addTo(DwarfEngine engine) throws Exception
+    {
+	for (int i = 0; i < size; i++)
+	    engine.addVariable(names[i], addresses[i], typeIds[i]);
+    }
+}
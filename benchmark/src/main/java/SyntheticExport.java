@@ -0,0 +1,90 @@
+import java.io.File;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+import exportbench.ExportWorkload;
+
+// A synthetic x86-64 program exported the way ExportDwarfELFSymbols does:
+// functions of 64 bytes laid out back to back, with an instruction every 4
+// bytes and a prologue and an epilogue moving the stack pointer.
+public class SyntheticExport implements ExportWorkload
+{
+    private static final int pointerSize = 8;
+    private static final ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
+    private static final short machine = 0x3E;
+    private static final long baseAddress = 0x400000;
+    private static final int functionSize = 0x40;
+    private static final int instructionSize = 4;
+
+    private final FrameConvention frameConvention = new FrameConvention(7, 16, 8, -8);
+    private FunctionTable functions;
+    private boolean fullDebugInfo;
+
+    @Override
+    public void setup(int functionCount, boolean fullDebugInfo)
+    {
+	this.fullDebugInfo = fullDebugInfo;
+	functions = new FunctionTable(functionCount);
+	long[] lineAddresses = new long[functionSize / instructionSize];
+	long[] rowAddresses = new long[2];
+	int[] cfaOffsets = { 0x28, frameConvention.initialCfaOffset };
+	for (int i = 0; i < functionCount; i++)
+	{
+	    long start = baseAddress + (long) i * functionSize;
+	    long end = start + functionSize - 1;
+	    functions.add(String.format("FUN_%08x", start), start, end);
+	    if (!fullDebugInfo)
+		continue;
+	    for (int j = 0; j < lineAddresses.length; j++)
+		lineAddresses[j] = start + j * instructionSize;
+	    functions.addLines(lineAddresses, 0, lineAddresses.length);
+	    rowAddresses[0] = start + instructionSize;
+	    rowAddresses[1] = end + 1 - instructionSize;
+	    functions.setFrame(start, end, rowAddresses, cfaOffsets, 0, rowAddresses.length);
+	}
+    }
+
+    @Override
+    public Object createEngine(String engineName) throws Exception
+    {
+	if (engineName.equals("Parallel"))
+	    return new ShardedDwarfEngine(() -> createSingleEngine("Java"), byteOrder,
+		    Runtime.getRuntime().availableProcessors());
+	return createSingleEngine(engineName);
+    }
+
+    private DwarfEngine createSingleEngine(String engineName) throws Exception
+    {
+	String sourceName = fullDebugInfo ? "synthetic.lst" : null;
+	FrameConvention convention = fullDebugInfo ? frameConvention : null;
+	if (engineName.equals("libdwarf"))
+	    return new LibdwarfEngine(pointerSize, false, "x86_64", sourceName, convention, false);
+	return new JavaDwarfEngine(pointerSize, byteOrder, sourceName, convention, false);
+    }
+
+    @Override
+    public void addFunctions(Object engine) throws Exception
+    {
+	functions.addTo((DwarfEngine) engine, 0, functions.size());
+    }
+
+    @Override
+    public Object generateSections(Object engine) throws Exception
+    {
+	return ((DwarfEngine) engine).generateSections();
+    }
+
+    @Override
+    public void finishEngine(Object engine) throws Exception
+    {
+	((DwarfEngine) engine).finish();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void writeElf(Object sections, File file) throws Exception
+    {
+	ElfWriter writer = new ElfWriter(pointerSize > 4, byteOrder, machine, baseAddress);
+	writer.write(file, (ArrayList<SectionInfo>) sections);
+    }
+}
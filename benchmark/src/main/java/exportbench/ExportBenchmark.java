@@ -0,0 +1,138 @@
+package exportbench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Each phase of an export is measured on its own: the engine setup and
+// teardown around the measured phase run outside of the measurement.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx8g" })
+public class ExportBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class Program
+    {
+	@Param({ "1000", "100000", "1000000" })
+	public int functions;
+
+	// functions only, or with the line table and the call frames
+	@Param({ "functions", "full" })
+	public String debugInfo;
+
+	ExportWorkload workload;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+	    workload = ExportWorkload.create();
+	    workload.setup(functions, debugInfo.equals("full"));
+	}
+    }
+
+    @State(Scope.Thread)
+    public static class NewEngine
+    {
+	@Param({ "Java", "libdwarf", "Parallel" })
+	public String engine;
+
+	Object instance;
+
+	@Setup(Level.Invocation)
+	public void setup(Program program) throws Exception
+	{
+	    instance = program.workload.createEngine(engine);
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDown(Program program) throws Exception
+	{
+	    program.workload.finishEngine(instance);
+	}
+    }
+
+    @State(Scope.Thread)
+    public static class FilledEngine
+    {
+	@Param({ "Java", "libdwarf", "Parallel" })
+	public String engine;
+
+	Object instance;
+
+	@Setup(Level.Invocation)
+	public void setup(Program program) throws Exception
+	{
+	    instance = program.workload.createEngine(engine);
+	    program.workload.addFunctions(instance);
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDown(Program program) throws Exception
+	{
+	    program.workload.finishEngine(instance);
+	}
+    }
+
+    // The sections of the Java engine, written over and over
+    @State(Scope.Thread)
+    public static class Sections
+    {
+	Object engine;
+	Object sections;
+	File file;
+
+	@Setup(Level.Trial)
+	public void setup(Program program) throws Exception
+	{
+	    engine = program.workload.createEngine("Java");
+	    program.workload.addFunctions(engine);
+	    sections = program.workload.generateSections(engine);
+	    file = File.createTempFile("benchmark", ".elf");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(Program program) throws Exception
+	{
+	    program.workload.finishEngine(engine);
+	    file.delete();
+	}
+    }
+
+    // DIE construction
+    @Benchmark
+    public Object addFunctions(Program program, NewEngine engine) throws Exception
+    {
+	program.workload.addFunctions(engine.instance);
+	return engine.instance;
+    }
+
+    // Section extraction
+    @Benchmark
+    public Object generateSections(Program program, FilledEngine engine) throws Exception
+    {
+	return program.workload.generateSections(engine.instance);
+    }
+
+    @Benchmark
+    public File writeElf(Program program, Sections sections) throws Exception
+    {
+	program.workload.writeElf(sections.sections, sections.file);
+	return sections.file;
+    }
+}
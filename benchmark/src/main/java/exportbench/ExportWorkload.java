@@ -0,0 +1,30 @@
+package exportbench;
+
+import java.io.File;
+
+// The export paths measured by the benchmarks. The exporter classes being in
+// the default package, which JMH benchmarks can't be in nor import from, they
+// are driven through this interface implemented by SyntheticExport and the
+// engines and the sections are passed around as opaque objects.
+public interface ExportWorkload
+{
+    // Builds the synthetic table of functionCount functions, with a line
+    // table and call frames when fullDebugInfo is set
+    void setup(int functionCount, boolean fullDebugInfo) throws Exception;
+
+    // engineName is Java, libdwarf or Parallel
+    Object createEngine(String engineName) throws Exception;
+
+    void addFunctions(Object engine) throws Exception;
+
+    Object generateSections(Object engine) throws Exception;
+
+    void finishEngine(Object engine) throws Exception;
+
+    void writeElf(Object sections, File file) throws Exception;
+
+    static ExportWorkload create() throws Exception
+    {
+	return (ExportWorkload) Class.forName("SyntheticExport").getDeclaredConstructor().newInstance();
+    }
+}
@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+public class AcceleratorTablesTest
+{
+    private static final ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
+
+    private static ArrayList<SectionInfo> generateSections(TestProgram program, DwarfEngine engine, boolean gdbIndex)
+	    throws Exception
+    {
+	program.addTo(engine);
+	ArrayList<SectionInfo> sections = new ArrayList<SectionInfo>(engine.generateSections());
+	AcceleratorTables.addTo(sections, byteOrder, gdbIndex);
+	return sections;
+    }
+
+    @Test
+    public void singleUnit() throws Exception
+    {
+	TestProgram program = new TestProgram(4, byteOrder, 100, 10);
+	JavaDwarfEngine engine = program.createEngine(false);
+	try
+	{
+	    ArrayList<SectionInfo> sections = generateSections(program, engine, false);
+	    assertNull(DwarfReader.find(sections, ".gdb_index"));
+
+	    // a single range covering the functions laid out back to back
+	    ByteBuffer aranges = DwarfReader.toByteBuffer(DwarfReader.find(sections, ".debug_aranges"), byteOrder);
+	    assertEquals(2, aranges.getShort(4));
+	    assertEquals(0, aranges.getInt(6));
+	    assertEquals(TestProgram.baseAddress, aranges.getInt(16));
+	    assertEquals(100 * TestProgram.functionSize, aranges.getInt(20));
+	    assertEquals(0, aranges.getLong(24));
+	    assertEquals(32, aranges.limit());
+
+	    // the functions, the variables and the named types
+	    ByteBuffer names = DwarfReader.toByteBuffer(DwarfReader.find(sections, ".debug_names"), byteOrder);
+	    assertEquals(5, names.getShort(4));
+	    assertEquals(1, names.getInt(8));
+	    assertEquals(100 + 10 + 2, names.getInt(24));
+	}
+	finally
+	{
+	    engine.finish();
+	}
+    }
+
+    @Test
+    public void shardedUnitsWithGdbIndex() throws Exception
+    {
+	TestProgram program = new TestProgram(8, byteOrder, 4096, 10);
+	ShardedDwarfEngine engine = new ShardedDwarfEngine(() -> program.createEngine(true), byteOrder, 2);
+	try
+	{
+	    ArrayList<SectionInfo> sections = generateSections(program, engine, true);
+	    int units = TestProgram.countUnits(DwarfReader.find(sections, ".debug_info"), byteOrder);
+	    assertEquals(engine.getShardCount(), units);
+
+	    // a set of ranges per unit
+	    SectionReader aranges = new SectionReader(DwarfReader.find(sections, ".debug_aranges"), byteOrder);
+	    int sets = 0;
+	    for (long offset = 0; offset < aranges.size(); offset = aranges.getEntryEnd(offset))
+		sets++;
+	    assertEquals(units, sets);
+
+	    ByteBuffer names = DwarfReader.toByteBuffer(DwarfReader.find(sections, ".debug_names"), byteOrder);
+	    // the 64-bit DWARF format, the counts are after the 12 bytes of the initial length
+	    assertEquals(0xFFFFFFFF, names.getInt(0));
+	    assertEquals(units, names.getInt(16));
+	    assertEquals(4096 + 10 + 2, names.getInt(32));
+
+	    SectionInfo gdbIndex = DwarfReader.find(sections, ".gdb_index");
+	    assertNotNull(gdbIndex);
+	    assertEquals(8, DwarfReader.toByteBuffer(gdbIndex, byteOrder).getInt(0));
+	}
+	finally
+	{
+	    engine.finish();
+	}
+    }
+}
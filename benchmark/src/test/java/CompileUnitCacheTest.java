@@ -0,0 +1,76 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CompileUnitCacheTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    public void saveAndLoad() throws Exception
+    {
+	File file = CompileUnitCache.getSidecarFile(directory.resolve("test.elf").toFile());
+	CompileUnitCache cache = new CompileUnitCache("Java 8 little");
+	cache.put("rom", 1, 0, 100, 0, 50);
+	cache.put("bank:1", -2, 100, 200, 50, 60);
+	cache.save(file);
+	// nothing is left next to the cache
+	assertEquals(1, directory.toFile().list().length);
+
+	CompileUnitCache loaded = CompileUnitCache.load(file, "Java 8 little");
+	CompileUnitCache.Entry entry = loaded.get("bank:1");
+	assertEquals(-2, entry.fingerprint);
+	assertEquals(100, entry.offset);
+	assertEquals(200, entry.length);
+	assertEquals(50, entry.lineOffset);
+	assertEquals(60, entry.lineLength);
+	assertEquals(0, loaded.get("rom").offset);
+	assertNull(loaded.get("data"));
+    }
+
+    // A missing or damaged cache, or one made with another configuration, is empty
+    @Test
+    public void ignoresInvalidCaches() throws Exception
+    {
+	File file = directory.resolve("test.elf.cucache").toFile();
+	assertTrue(CompileUnitCache.load(file, "Java 8 little").isEmpty());
+
+	CompileUnitCache cache = new CompileUnitCache("Java 8 little");
+	cache.put("rom", 1, 0, 100, 0, 50);
+	cache.save(file);
+	assertTrue(CompileUnitCache.load(file, "Java 4 big").isEmpty());
+
+	byte[] content = Files.readAllBytes(file.toPath());
+	Files.write(file.toPath(), Arrays.copyOf(content, content.length - 8));
+	assertTrue(CompileUnitCache.load(file, "Java 8 little").isEmpty());
+    }
+
+    // Any change to what ends up in a unit changes its fingerprint
+    @Test
+    public void fingerprints()
+    {
+	long function = CompileUnitCache.hashFunction(0, "FUN_00400000", 0x400000, 0x400000, 0x40003f, 0x40);
+	assertEquals(function, CompileUnitCache.hashFunction(0, "FUN_00400000", 0x400000, 0x400000, 0x40003f, 0x40));
+	assertNotEquals(function, CompileUnitCache.hashFunction(0, "renamed", 0x400000, 0x400000, 0x40003f, 0x40));
+	assertNotEquals(function, CompileUnitCache.hashFunction(0, "FUN_00400000", 0x400000, 0x400000, 0x40007f, 0x80));
+
+	long local = CompileUnitCache.hashLocal(0, "count", true, 0, 1, 5, 0);
+	assertNotEquals(local, CompileUnitCache.hashLocal(0, "count", true, 1, 1, 5, 0));
+	assertNotEquals(local, CompileUnitCache.hashLocal(0, "count", true, 0, 2, 5, 0));
+	assertNotEquals(local, CompileUnitCache.hashLocal(0, "count", false, 0, 1, 5, 0));
+
+	long[] addresses = { 0x400000, 0x400004, 0x400008 };
+	assertNotEquals(CompileUnitCache.hashAddresses(0, addresses, 0, 3),
+		CompileUnitCache.hashAddresses(0, addresses, 0, 2));
+    }
+}
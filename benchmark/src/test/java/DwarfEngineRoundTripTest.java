@@ -0,0 +1,110 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Writes the sections of each engine to an ELF file and reads them back,
+// every function must have its DIE and its FDE whichever way it was encoded
+public class DwarfEngineRoundTripTest
+{
+    private static final String[] dwarfSections = { ".debug_info", ".debug_abbrev", ".debug_line", ".debug_frame" };
+
+    @TempDir
+    Path directory;
+
+    // Exports the program with engine, then counts the units, the DIEs, the
+    // CIEs and the FDEs read back from the ELF file
+    private long[] roundTrip(TestProgram program, DwarfEngine engine) throws Exception
+    {
+	File file = directory.resolve("test.elf").toFile();
+	try
+	{
+	    program.addTo(engine);
+	    program.writeElf(file, engine.generateSections());
+	}
+	finally
+	{
+	    engine.finish();
+	}
+
+	ArrayList<SectionInfo> sections = program.readElf(file, dwarfSections);
+	long dies = DwarfReader.countDies(sections.get(0), sections.get(1), program.byteOrder);
+	long[] frameEntries = TestProgram.countFrameEntries(sections.get(3), program.byteOrder);
+	return new long[] { TestProgram.countUnits(sections.get(0), program.byteOrder), dies, frameEntries[0],
+		frameEntries[1] };
+    }
+
+    @Test
+    public void singleUnit() throws Exception
+    {
+	TestProgram program = new TestProgram(8, ByteOrder.LITTLE_ENDIAN, 500, 20);
+	long[] counts = roundTrip(program, program.createEngine(false));
+	assertEquals(1, counts[0]);
+	assertEquals(program.getDieCount(1), counts[1]);
+	assertEquals(1, counts[2]);
+	assertEquals(500, counts[3]);
+    }
+
+    @Test
+    public void singleUnit32BitBigEndian() throws Exception
+    {
+	TestProgram program = new TestProgram(4, ByteOrder.BIG_ENDIAN, 500, 20);
+	long[] counts = roundTrip(program, program.createEngine(true));
+	assertEquals(1, counts[0]);
+	assertEquals(program.getDieCount(1), counts[1]);
+	assertEquals(500, counts[3]);
+    }
+
+    @Test
+    public void sharded() throws Exception
+    {
+	TestProgram program = new TestProgram(8, ByteOrder.LITTLE_ENDIAN, 5000, 20);
+	ShardedDwarfEngine engine = new ShardedDwarfEngine(() -> program.createEngine(true), program.byteOrder, 4);
+	long[] counts = roundTrip(program, engine);
+	int shards = engine.getShardCount();
+	assertTrue(shards > 1);
+	assertEquals(shards, counts[0]);
+	// the types and the variables are only in the first unit
+	assertEquals(program.getDieCount(shards), counts[1]);
+	// each unit has its own CIE
+	assertEquals(shards, counts[2]);
+	assertEquals(5000, counts[3]);
+    }
+
+    @Test
+    public void streaming() throws Exception
+    {
+	TestProgram program = new TestProgram(4, ByteOrder.BIG_ENDIAN, 1000, 20);
+	StreamingDwarfEngine engine = new StreamingDwarfEngine(() -> program.createEngine(true), program.byteOrder,
+		300, directory.toFile());
+	long[] counts = roundTrip(program, engine);
+	// the variables fill the first unit along with the functions
+	assertEquals(4, engine.getUnitCount());
+	assertEquals(4, counts[0]);
+	assertEquals(program.getDieCount(4), counts[1]);
+	assertEquals(4, counts[2]);
+	assertEquals(1000, counts[3]);
+    }
+
+    // The same functions give the same DIEs and FDEs in a single unit or split
+    @Test
+    public void enginesAgree() throws Exception
+    {
+	TestProgram program = new TestProgram(8, ByteOrder.LITTLE_ENDIAN, 3000, 0);
+	long[] single = roundTrip(program, program.createEngine(false));
+	long[] sharded = roundTrip(program,
+		new ShardedDwarfEngine(() -> program.createEngine(false), program.byteOrder, 2));
+	long[] streaming = roundTrip(program,
+		new StreamingDwarfEngine(() -> program.createEngine(false), program.byteOrder, 1000, directory.toFile()));
+	assertEquals(single[1] - single[0], sharded[1] - sharded[0]);
+	assertEquals(single[1] - single[0], streaming[1] - streaming[0]);
+	assertEquals(single[3], sharded[3]);
+	assertEquals(single[3], streaming[3]);
+    }
+}
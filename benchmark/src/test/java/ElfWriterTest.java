@@ -0,0 +1,83 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ElfWriterTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    public void sectionsReadBack() throws Exception
+    {
+	File file = directory.resolve("test.elf").toFile();
+	byte[] content = new byte[3000];
+	for (int i = 0; i < content.length; i++)
+	    content[i] = (byte) i;
+	// a section given in several chunks
+	SectionInfo info = new SectionInfo(".debug_info");
+	info.chunks.add(ByteBuffer.wrap(content, 0, 1000));
+	info.chunks.add(ByteBuffer.wrap(content, 1000, 2000).slice());
+	SectionInfo str = new SectionInfo(".debug_str", "name\0".getBytes());
+	new ElfWriter(false, ByteOrder.BIG_ENDIAN, (short) 0x14, 0x80000000L).write(file, List.of(info, str));
+
+	SectionReader reader = ElfReader.readSection(file, ".debug_info");
+	assertArrayEquals(content, reader.copy(0, reader.size()));
+	assertEquals("name", ElfReader.readSection(file, ".debug_str").readCString(0));
+	assertNull(ElfReader.readSection(file, ".debug_line"));
+	// no prefix of a section name matches
+	assertNull(ElfReader.readSection(file, ".debug"));
+	assertNull(ElfReader.readSection(directory.resolve("missing.elf").toFile(), ".debug_info"));
+
+	// the file is replaced as a whole
+	new ElfWriter(false, ByteOrder.BIG_ENDIAN, (short) 0x14, 0x80000000L).write(file, List.of(str));
+	assertNull(ElfReader.readSection(file, ".debug_info"));
+	assertEquals(1, directory.toFile().list().length);
+    }
+
+    // The symbols are sorted by address, those in the code are in its section
+    // and the others are absolute
+    @Test
+    public void symbolTable() throws Exception
+    {
+	ElfSymbolTable symbols = new ElfSymbolTable(1);
+	symbols.addCode("bank_1", 0x2000, 0x2fff);
+	symbols.addCode("rom", 0x1000, 0x1fff);
+	symbols.add("third", 0x2010, 0x10);
+	symbols.add("first", 0x1000, 0x20);
+	symbols.add("outside", 0x5000, 0x4);
+	symbols.add("second", 0x1020, 0x20);
+	ArrayList<SectionInfo> sections = symbols.generateSections(true, ByteOrder.LITTLE_ENDIAN,
+		ElfWriter.getSectionIndex(0));
+	// adjacent code is covered by a single section
+	assertEquals(3, sections.size());
+	assertEquals(0x1000, sections.get(0).address);
+	assertEquals(0x2000, sections.get(0).noBitsSize);
+
+	File file = directory.resolve("symbols.elf").toFile();
+	new ElfWriter(true, ByteOrder.LITTLE_ENDIAN, (short) 0x3E, 0x1000).write(file, sections);
+	SectionReader symtab = ElfReader.readSection(file, ".symtab");
+	SectionReader strtab = ElfReader.readSection(file, ".strtab");
+	assertEquals(5 * 0x18, symtab.size());
+	String[] names = { "first", "second", "third", "outside" };
+	long[] values = { 0x1000, 0x1020, 0x2010, 0x5000 };
+	int[] sectionIndexes = { 2, 2, 2, 0xFFF1 };
+	for (int i = 0; i < names.length; i++)
+	{
+	    long entry = (i + 1) * 0x18L;
+	    assertEquals(names[i], strtab.readCString(symtab.readFixed(entry, 4)));
+	    assertEquals(sectionIndexes[i], symtab.readFixed(entry + 6, 2));
+	    assertEquals(values[i], symtab.readFixed(entry + 8, 8));
+	}
+    }
+}
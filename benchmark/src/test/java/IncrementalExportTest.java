@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IncrementalExportTest
+{
+    private static final int functionCount = 400;
+    private static final int functionsPerUnit = 100;
+    private static final String configuration = "test";
+
+    @TempDir
+    Path directory;
+
+    // Exports the program in units of functionsPerUnit functions, the
+    // function at renamedIndex is renamed, returns the reused units
+    private int export(TestProgram program, int variableCount, File file, int renamedIndex) throws Exception
+    {
+	JavaDwarfEngine engine = program.createEngine(false);
+	try
+	{
+	    IncrementalExport incrementalExport = new IncrementalExport(engine, file, configuration);
+	    incrementalExport.addTypes(program.types, true);
+	    for (int i = 0; i < variableCount; i++)
+		incrementalExport.addVariable(TestProgram.getVariableName(i), TestProgram.getVariableAddress(i),
+			program.getVariableTypeId(i));
+	    long[] lineAddresses = new long[TestProgram.functionSize / 4];
+	    long[] rowAddresses = new long[2];
+	    int[] cfaOffsets = { 0x28, TestProgram.frameConvention.initialCfaOffset };
+	    for (int i = 0; i < functionCount; i++)
+	    {
+		long start = program.functions.getStart(i);
+		long end = program.functions.getEnd(i);
+		String name = i == renamedIndex ? "renamed" : program.functions.getName(i);
+		incrementalExport.addFunction("unit" + i / functionsPerUnit, name, start, end, start, end - start + 1);
+		incrementalExport.addLocal("count", true, program.integerId, 5, 0);
+		incrementalExport.addLocal("list", false, program.pointerId, -1, -0x18);
+		for (int j = 0; j < lineAddresses.length; j++)
+		    lineAddresses[j] = start + j * 4;
+		incrementalExport.addLines(lineAddresses, lineAddresses.length);
+		rowAddresses[0] = start + 4;
+		rowAddresses[1] = end - 3;
+		incrementalExport.addFrame(start, end, rowAddresses, cfaOffsets, rowAddresses.length);
+	    }
+	    incrementalExport.finish();
+	    program.writeElf(file, engine.generateSections());
+	    incrementalExport.saveCache();
+	    assertEquals(functionCount / functionsPerUnit + 1, incrementalExport.getUnitCount());
+	    return incrementalExport.getReusedCount();
+	}
+	finally
+	{
+	    engine.finish();
+	}
+    }
+
+    private ArrayList<SectionInfo> read(TestProgram program, File file) throws Exception
+    {
+	return program.readElf(file, ".debug_info", ".debug_abbrev", ".debug_line", ".debug_frame");
+    }
+
+    @Test
+    public void reusesUnchangedUnits() throws Exception
+    {
+	TestProgram program = new TestProgram(8, ByteOrder.LITTLE_ENDIAN, functionCount, 10);
+	File file = directory.resolve("test.elf").toFile();
+	File cacheFile = CompileUnitCache.getSidecarFile(file);
+	assertEquals(0, export(program, 10, file, -1));
+	// the unit of the types is encoded again as the locals refer to them
+	assertEquals(functionCount / functionsPerUnit, export(program, 10, file, -1));
+	assertEquals(functionCount / functionsPerUnit - 1, export(program, 10, file, 150));
+	ArrayList<SectionInfo> reused = read(program, file);
+
+	// the same sections as a fresh export
+	File freshFile = directory.resolve("fresh.elf").toFile();
+	assertEquals(0, export(program, 10, freshFile, 150));
+	ArrayList<SectionInfo> fresh = read(program, freshFile);
+	for (int i = 0; i < fresh.size(); i++)
+	    assertArrayEquals(DwarfReader.toByteArray(fresh.get(i)), DwarfReader.toByteArray(reused.get(i)),
+		    fresh.get(i).name);
+	assertEquals(program.getDieCount(functionCount / functionsPerUnit + 1),
+		DwarfReader.countDies(reused.get(0), reused.get(1), program.byteOrder));
+
+	// a cache made with another configuration isn't reused
+	assertNull(CompileUnitCache.load(cacheFile, "other").get("unit0"));
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SectionCompressorTest
+{
+    @TempDir
+    Path directory;
+
+    // The compressed sections are inflated back to the same content by ElfReader
+    private void roundTrip(int pointerSize, ByteOrder byteOrder) throws Exception
+    {
+	TestProgram program = new TestProgram(pointerSize, byteOrder, 2000, 10);
+	JavaDwarfEngine engine = program.createEngine(true);
+	try
+	{
+	    program.addTo(engine);
+	    ArrayList<SectionInfo> sections = engine.generateSections();
+	    ArrayList<SectionInfo> compressed = SectionCompressor.compress(sections, pointerSize > 4, byteOrder, 4);
+	    assertEquals(sections.size(), compressed.size());
+	    File file = directory.resolve("compressed.elf").toFile();
+	    program.writeElf(file, compressed);
+
+	    for (int i = 0; i < sections.size(); i++)
+	    {
+		SectionInfo section = sections.get(i);
+		assertTrue((compressed.get(i).flags & ElfWriter.elfSectionFlagCompressed) != 0, section.name);
+		assertTrue(compressed.get(i).size() < section.size(), section.name);
+		SectionReader reader = ElfReader.readSection(file, section.name);
+		assertArrayEquals(DwarfReader.toByteArray(section), reader.copy(0, reader.size()), section.name);
+	    }
+	}
+	finally
+	{
+	    engine.finish();
+	}
+    }
+
+    @Test
+    public void roundTrip64Bit() throws Exception
+    {
+	roundTrip(8, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void roundTrip32BitBigEndian() throws Exception
+    {
+	roundTrip(4, ByteOrder.BIG_ENDIAN);
+    }
+
+    // The sections which wouldn't get smaller and those which aren't DWARF are kept as is
+    @Test
+    public void keepsIncompressibleSections() throws Exception
+    {
+	byte[] noise = new byte[4096];
+	new Random(1).nextBytes(noise);
+	SectionInfo random = new SectionInfo(".debug_str", noise);
+	SectionInfo symbols = new SectionInfo(".strtab", new byte[4096]);
+	ArrayList<SectionInfo> compressed = SectionCompressor.compress(List.of(random, symbols), true,
+		ByteOrder.LITTLE_ENDIAN, 2);
+	assertSame(random, compressed.get(0));
+	assertSame(symbols, compressed.get(1));
+    }
+}
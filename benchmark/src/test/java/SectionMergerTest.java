@@ -0,0 +1,236 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SectionMergerTest
+{
+    private static final ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
+
+    // The names of the DIEs in .debug_str and the offsets of the section
+    // offset attributes of the unit DIEs, by attribute
+    private static class Attributes
+    {
+	HashSet<String> names = new HashSet<String>();
+	HashMap<Integer, ArrayList<Long>> unitOffsets = new HashMap<Integer, ArrayList<Long>>();
+    }
+
+    private static Attributes readAttributes(List<SectionInfo> sections) throws Exception
+    {
+	ByteBuffer info = DwarfReader.toByteBuffer(DwarfReader.find(sections, ".debug_info"), byteOrder);
+	ByteBuffer abbrev = DwarfReader.toByteBuffer(DwarfReader.find(sections, ".debug_abbrev"), byteOrder);
+	SectionInfo str = DwarfReader.find(sections, ".debug_str");
+	SectionInfo lineStr = DwarfReader.find(sections, ".debug_line_str");
+	Attributes attributes = new Attributes();
+	for (int offset = 0; offset < info.limit();)
+	{
+	    DwarfReader.UnitHeader header = DwarfReader.readUnitHeader(info, offset);
+	    HashMap<Long, DwarfReader.Abbreviation> abbreviations = DwarfReader.readAbbreviations(abbrev,
+		    (int) header.abbrevOffset);
+	    info.position(header.dieOffset);
+	    boolean isUnitDie = true;
+	    while (info.position() < header.end)
+	    {
+		long code = DwarfReader.readUleb128(info);
+		if (code == 0)
+		    continue;
+		DwarfReader.Abbreviation decl = abbreviations.get(code);
+		for (int i = 0; i < decl.forms.length; i++)
+		{
+		    int form = decl.forms[i];
+		    long value = DwarfReader.readAttribute(info, form, header.addressSize, header.offsetSize);
+		    if (form == LibdwarfLibrary.DW_FORM_strp)
+			attributes.names.add(new SectionReader(str, byteOrder).readCString(value));
+		    else if (form == LibdwarfLibrary.DW_FORM_line_strp)
+			attributes.names.add(new SectionReader(lineStr, byteOrder).readCString(value));
+		    else if (form == LibdwarfLibrary.DW_FORM_sec_offset && isUnitDie)
+			attributes.unitOffsets.computeIfAbsent(decl.attributes[i], a -> new ArrayList<Long>())
+				.add(value);
+		}
+		isUnitDie = false;
+	    }
+	    offset = header.end;
+	}
+	return attributes;
+    }
+
+    @Test
+    public void mergedUnitsKeepTheirStrings() throws Exception
+    {
+	TestProgram program = new TestProgram(8, byteOrder, 200, 10);
+	JavaDwarfEngine first = program.createEngine(true);
+	JavaDwarfEngine second = program.createEngine(true);
+	try
+	{
+	    first.addTypes(program.types);
+	    program.variables.addTo(first);
+	    program.functions.addTo(first, 0, 100);
+	    program.functions.addTo(second, 100, 200);
+	    ArrayList<SectionInfo> firstSections = first.generateSections();
+	    ArrayList<SectionInfo> secondSections = second.generateSections();
+	    ArrayList<SectionInfo> merged = SectionMerger.merge(List.of(firstSections, secondSections), byteOrder);
+
+	    // both units share the same abbreviation table
+	    assertEquals(DwarfReader.find(firstSections, ".debug_abbrev").size(),
+		    DwarfReader.find(merged, ".debug_abbrev").size());
+	    for (String name : new String[] { ".debug_info", ".debug_line", ".debug_frame", ".debug_str" })
+		assertEquals(DwarfReader.find(firstSections, name).size() + DwarfReader.find(secondSections, name).size(),
+			DwarfReader.find(merged, name).size(), name);
+
+	    Attributes attributes = readAttributes(merged);
+	    for (int i = 0; i < 200; i++)
+		assertTrue(attributes.names.contains(TestProgram.getFunctionName(i)), TestProgram.getFunctionName(i));
+	    for (int i = 0; i < 10; i++)
+		assertTrue(attributes.names.contains(TestProgram.getVariableName(i)), TestProgram.getVariableName(i));
+	    assertEquals(List.of(0L, DwarfReader.find(firstSections, ".debug_line").size()),
+		    attributes.unitOffsets.get(LibdwarfLibrary.DW_AT_stmt_list));
+
+	    long[] frameEntries = TestProgram.countFrameEntries(DwarfReader.find(merged, ".debug_frame"), byteOrder);
+	    assertEquals(2, frameEntries[0]);
+	    assertEquals(200, frameEntries[1]);
+	}
+	finally
+	{
+	    first.finish();
+	    second.finish();
+	}
+    }
+
+    // A DWARF 5 unit naming itself and its line program's directory and file
+    // with strings of .debug_line_str, its ranges at the start of its own
+    // .debug_rnglists
+    private static ArrayList<SectionInfo> createLineStringUnit(int index)
+    {
+	DwarfBuffer lineStr = new DwarfBuffer(byteOrder);
+	lineStr.putCString("unit" + index);
+	int directoryName = lineStr.size();
+	lineStr.putCString("dir" + index);
+	int fileName = lineStr.size();
+	lineStr.putCString("file" + index + ".c");
+
+	DwarfBuffer abbrev = new DwarfBuffer(byteOrder);
+	abbrev.putUleb128(1);
+	abbrev.putUleb128(LibdwarfLibrary.DW_TAG_compile_unit);
+	abbrev.put8(0);
+	int[] attributes = { LibdwarfLibrary.DW_AT_name, LibdwarfLibrary.DW_FORM_line_strp,
+		LibdwarfLibrary.DW_AT_stmt_list, LibdwarfLibrary.DW_FORM_sec_offset, LibdwarfLibrary.DW_AT_ranges,
+		LibdwarfLibrary.DW_FORM_sec_offset, 0, 0 };
+	for (int value : attributes)
+	    abbrev.putUleb128(value);
+	abbrev.put8(0);
+
+	DwarfBuffer info = new DwarfBuffer(byteOrder);
+	info.put32(0);
+	info.put16(5);
+	info.put8(LibdwarfLibrary.DW_UT_compile);
+	info.put8(8);
+	info.put32(0);
+	info.putUleb128(1);
+	info.put32(0);
+	info.put32(0);
+	info.put32(0);
+	info.setFixed(0, info.size() - 4, 4);
+
+	DwarfBuffer line = new DwarfBuffer(byteOrder);
+	line.put32(0);
+	line.put16(5);
+	line.put8(8);
+	line.put8(0);
+	line.put32(0);
+	int headerStart = line.size();
+	// minimum instruction length, maximum operations per instruction,
+	// default is_stmt, line base, line range, opcode base and the standard
+	// opcode lengths
+	line.put8(1);
+	line.put8(1);
+	line.put8(1);
+	line.put8(-5);
+	line.put8(14);
+	line.put8(13);
+	line.putBytes(new byte[] { 0, 1, 1, 1, 1, 0, 0, 0, 1, 0, 0, 1 });
+	line.put8(1);
+	line.putUleb128(LibdwarfLibrary.DW_LNCT_path);
+	line.putUleb128(LibdwarfLibrary.DW_FORM_line_strp);
+	line.putUleb128(1);
+	line.put32(directoryName);
+	line.put8(2);
+	line.putUleb128(LibdwarfLibrary.DW_LNCT_path);
+	line.putUleb128(LibdwarfLibrary.DW_FORM_line_strp);
+	line.putUleb128(LibdwarfLibrary.DW_LNCT_directory_index);
+	line.putUleb128(LibdwarfLibrary.DW_FORM_udata);
+	line.putUleb128(1);
+	line.put32(fileName);
+	line.putUleb128(0);
+	line.setFixed(headerStart - 4, line.size() - headerStart, 4);
+	line.setFixed(0, line.size() - 4, 4);
+
+	ArrayList<SectionInfo> sections = new ArrayList<SectionInfo>();
+	sections.add(new SectionInfo(".debug_abbrev", abbrev.toByteArray()));
+	sections.add(new SectionInfo(".debug_info", info.toByteArray()));
+	sections.add(new SectionInfo(".debug_line", line.toByteArray()));
+	sections.add(new SectionInfo(".debug_line_str", lineStr.toByteArray()));
+	sections.add(new SectionInfo(".debug_rnglists", new byte[16 + index]));
+	return sections;
+    }
+
+    // The strings of the directory and file entries of the line programs
+    private static ArrayList<String> readLineStrings(List<SectionInfo> sections) throws Exception
+    {
+	ByteBuffer line = DwarfReader.toByteBuffer(DwarfReader.find(sections, ".debug_line"), byteOrder);
+	SectionReader lineStr = new SectionReader(DwarfReader.find(sections, ".debug_line_str"), byteOrder);
+	ArrayList<String> strings = new ArrayList<String>();
+	for (int offset = 0; offset < line.limit();)
+	{
+	    int end = offset + 4 + line.getInt(offset);
+	    // after the header length, the parameters and the opcode lengths
+	    line.position(offset + 8 + 4 + 6 + 12);
+	    for (int table = 0; table < 2; table++)
+	    {
+		int[] forms = new int[line.get()];
+		for (int i = 0; i < forms.length; i++)
+		{
+		    DwarfReader.readUleb128(line);
+		    forms[i] = (int) DwarfReader.readUleb128(line);
+		}
+		for (long entry = DwarfReader.readUleb128(line); entry > 0; entry--)
+		{
+		    for (int form : forms)
+		    {
+			long value = DwarfReader.readAttribute(line, form, 8, 4);
+			if (form == LibdwarfLibrary.DW_FORM_line_strp)
+			    strings.add(lineStr.readCString(value));
+		    }
+		}
+	    }
+	    offset = end;
+	}
+	return strings;
+    }
+
+    @Test
+    public void lineStringsAndListsAreRelocated() throws Exception
+    {
+	ArrayList<SectionInfo> first = createLineStringUnit(0);
+	ArrayList<SectionInfo> second = createLineStringUnit(1);
+	long lineSize = DwarfReader.find(first, ".debug_line").size();
+	ArrayList<SectionInfo> merged = SectionMerger.merge(List.of(first, second), byteOrder);
+
+	assertEquals(DwarfReader.find(first, ".debug_line_str").size()
+		+ DwarfReader.find(second, ".debug_line_str").size(),
+		DwarfReader.find(merged, ".debug_line_str").size());
+	assertEquals(16 + 17, DwarfReader.find(merged, ".debug_rnglists").size());
+
+	Attributes attributes = readAttributes(merged);
+	assertEquals(new HashSet<String>(List.of("unit0", "unit1")), attributes.names);
+	assertEquals(List.of(0L, lineSize), attributes.unitOffsets.get(LibdwarfLibrary.DW_AT_stmt_list));
+	assertEquals(List.of(0L, 16L), attributes.unitOffsets.get(LibdwarfLibrary.DW_AT_ranges));
+	assertEquals(List.of("dir0", "file0.c", "dir1", "file1.c"), readLineStrings(merged));
+    }
+}
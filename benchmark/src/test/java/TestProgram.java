@@ -0,0 +1,165 @@
+import java.io.File;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+// A synthetic program for the tests: functions of 64 bytes laid out back to
+// back with a line table, call frames and locals, a few types and global
+// variables referring to them
+public class TestProgram
+{
+    public static final long baseAddress = 0x400000;
+    public static final long dataAddress = 0x800000;
+    public static final int functionSize = 0x40;
+    public static final FrameConvention frameConvention = new FrameConvention(7, 16, 8, -8);
+
+    public final int pointerSize;
+    public final ByteOrder byteOrder;
+    public final FunctionTable functions;
+    public final VariableTable variables = new VariableTable();
+    public final TypeTable types = new TypeTable();
+    public final int integerId;
+    public final int nodeId;
+    public final int pointerId;
+
+    public TestProgram(int pointerSize, ByteOrder byteOrder, int functionCount, int variableCount)
+    {
+	this.pointerSize = pointerSize;
+	this.byteOrder = byteOrder;
+
+	TypeTable.Type integer = new TypeTable.Type();
+	integer.tag = LibdwarfLibrary.DW_TAG_base_type;
+	integer.name = "int";
+	integer.byteSize = 4;
+	integer.encoding = LibdwarfLibrary.DW_ATE_signed;
+	integerId = types.add("B int", integer);
+	TypeTable.Type node = new TypeTable.Type();
+	node.tag = LibdwarfLibrary.DW_TAG_structure_type;
+	node.name = "node";
+	node.byteSize = 4 + pointerSize;
+	nodeId = types.add("S /node", node);
+	TypeTable.Type pointer = new TypeTable.Type();
+	pointer.tag = LibdwarfLibrary.DW_TAG_pointer_type;
+	pointer.byteSize = pointerSize;
+	pointer.typeId = nodeId;
+	pointerId = types.add("P " + nodeId, pointer);
+	node.members.add(member("value", 0, integerId));
+	node.members.add(member("next", 4, pointerId));
+
+	functions = new FunctionTable(functionCount);
+	long[] lineAddresses = new long[functionSize / 4];
+	long[] rowAddresses = new long[2];
+	int[] cfaOffsets = { 0x28, frameConvention.initialCfaOffset };
+	for (int i = 0; i < functionCount; i++)
+	{
+	    long start = baseAddress + (long) i * functionSize;
+	    long end = start + functionSize - 1;
+	    functions.add(getFunctionName(i), start, end);
+	    functions.addLocal("count", true, integerId, 5, 0);
+	    functions.addLocal("list", false, pointerId, -1, -0x18);
+	    for (int j = 0; j < lineAddresses.length; j++)
+		lineAddresses[j] = start + j * 4;
+	    functions.addLines(lineAddresses, 0, lineAddresses.length);
+	    rowAddresses[0] = start + 4;
+	    rowAddresses[1] = end - 3;
+	    functions.setFrame(start, end, rowAddresses, cfaOffsets, 0, rowAddresses.length);
+	}
+	for (int i = 0; i < variableCount; i++)
+	    variables.add(getVariableName(i), getVariableAddress(i), getVariableTypeId(i));
+    }
+
+    private static TypeTable.Member member(String name, long offset, int typeId)
+    {
+	TypeTable.Member member = new TypeTable.Member();
+	member.name = name;
+	member.offset = offset;
+	member.typeId = typeId;
+	return member;
+    }
+
+    public static String getFunctionName(int index)
+    {
+	return String.format("FUN_%08x", baseAddress + (long) index * functionSize);
+    }
+
+    public static String getVariableName(int index)
+    {
+	return "g_var_" + index;
+    }
+
+    public static long getVariableAddress(int index)
+    {
+	return dataAddress + index * 16L;
+    }
+
+    public int getVariableTypeId(int index)
+    {
+	return index % 2 == 0 ? nodeId : integerId;
+    }
+
+    public JavaDwarfEngine createEngine(boolean useStringPool)
+    {
+	return new JavaDwarfEngine(pointerSize, byteOrder, "test.lst", frameConvention, useStringPool);
+    }
+
+    // Adds the types, the variables and the functions in the order of the script
+    public void addTo(DwarfEngine engine) throws Exception
+    {
+	engine.addTypes(types);
+	variables.addTo(engine);
+	functions.addTo(engine, 0, functions.size());
+    }
+
+    // The DIEs of every unit: the unit, the members of the structure, the
+    // types, the variables and the functions with their two locals
+    public long getDieCount(int unitCount)
+    {
+	return unitCount + 2 + types.size() + variables.size() + functions.size() * 3L;
+    }
+
+    public void writeElf(File file, ArrayList<SectionInfo> sections) throws Exception
+    {
+	new ElfWriter(pointerSize > 4, byteOrder, (short) 0x3E, baseAddress).write(file, sections);
+    }
+
+    // Reads back the named sections of the ELF file, they must all be there
+    public ArrayList<SectionInfo> readElf(File file, String... names) throws Exception
+    {
+	ArrayList<SectionInfo> sections = new ArrayList<SectionInfo>();
+	for (String name : names)
+	{
+	    SectionReader reader = ElfReader.readSection(file, name);
+	    if (reader == null)
+		throw new Exception("Error with " + file + ": no " + name + " section");
+	    SectionInfo section = new SectionInfo(name, reader.copy(0, reader.size()));
+	    sections.add(section);
+	}
+	return sections;
+    }
+
+    // Counts the CIEs then the FDEs of .debug_frame
+    public static long[] countFrameEntries(SectionInfo frame, ByteOrder byteOrder) throws Exception
+    {
+	SectionReader reader = new SectionReader(frame, byteOrder);
+	long[] counts = new long[2];
+	long offset = 0;
+	while (offset < reader.size())
+	{
+	    boolean is64BitFormat = reader.readFixed(offset, 4) == 0xFFFFFFFFL;
+	    long id = is64BitFormat ? reader.readFixed(offset + 12, 8) : reader.readFixed(offset + 4, 4);
+	    boolean isCie = is64BitFormat ? id == -1 : id == 0xFFFFFFFFL;
+	    counts[isCie ? 0 : 1]++;
+	    offset = reader.getEntryEnd(offset);
+	}
+	return counts;
+    }
+
+    // Counts the units of .debug_info
+    public static int countUnits(SectionInfo info, ByteOrder byteOrder) throws Exception
+    {
+	SectionReader reader = new SectionReader(info, byteOrder);
+	int count = 0;
+	for (long offset = 0; offset < reader.size(); offset = reader.getEntryEnd(offset))
+	    count++;
+	return count;
+    }
+}
@@ -9,4 +9,8 @@
 [ ! -f src/main/resources/darwin/libdwarf.dylib ] && \
     curl -o src/main/resources/darwin/libdwarf.dylib -L --create-dirs https://github.com/cesena/libdwarf-ghidra2dwarf/releases/download/latest/libdwarf.dylib
 
+# shim adding blocks of functions in a single call, see src/main/c/dwarf_batch.c
+mkdir -p src/main/resources/linux-x86-64
+gcc -shared -fPIC -O2 -o src/main/resources/linux-x86-64/libdwarfbatch.so src/main/c/dwarf_batch.c
+
 mvn package
\ No newline at end of file
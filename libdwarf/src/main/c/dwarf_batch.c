@@ -0,0 +1,111 @@
+/*
+ * Batched subprogram DIE creation for ExportDwarfELFSymbols.
+ *
+ * The script calls dwarf_batch_add_subprograms once per block of functions
+ * instead of doing every libdwarf producer call through JNA. The libdwarf
+ * entry points are handed over in a table since the shim and libdwarf are
+ * extracted separately by JNA, so the shim can't link against libdwarf.
+ */
+
+typedef unsigned long long Dwarf_Unsigned;
+typedef unsigned short Dwarf_Half;
+typedef unsigned char Dwarf_Small;
+typedef Dwarf_Half Dwarf_Tag;
+typedef struct Dwarf_P_Debug_s *Dwarf_P_Debug;
+typedef struct Dwarf_P_Die_s *Dwarf_P_Die;
+typedef struct Dwarf_P_Expr_s *Dwarf_P_Expr;
+typedef struct Dwarf_P_Attribute_s *Dwarf_P_Attribute;
+typedef struct Dwarf_Error_s *Dwarf_Error;
+
+#define DW_DLV_OK 0
+#define DW_DLV_ERROR 1
+#define DW_DLV_BADADDR ((Dwarf_P_Attribute) ~0)
+#define DW_TAG_subprogram 0x2e
+#define DW_AT_low_pc 0x11
+#define DW_AT_high_pc 0x12
+#define DW_AT_frame_base 0x40
+#define DW_AT_linkage_name 0x6e
+#define DW_OP_call_frame_cfa 0x9c
+
+/* Must match the order in LibdwarfBatchLibrary.apiFunctions */
+struct dwarf_batch_api
+{
+    int (*new_die_a)(Dwarf_P_Debug, Dwarf_Tag, Dwarf_P_Die, Dwarf_P_Die, Dwarf_P_Die, Dwarf_P_Die,
+                     Dwarf_P_Die *, Dwarf_Error *);
+    int (*new_expr_a)(Dwarf_P_Debug, Dwarf_P_Expr *, Dwarf_Error *);
+    int (*add_expr_gen_a)(Dwarf_P_Expr, Dwarf_Small, Dwarf_Unsigned, Dwarf_Unsigned, Dwarf_Unsigned *,
+                          Dwarf_Error *);
+    int (*add_AT_location_expr_a)(Dwarf_P_Debug, Dwarf_P_Die, Dwarf_Half, Dwarf_P_Expr, Dwarf_P_Attribute *,
+                                  Dwarf_Error *);
+    int (*add_AT_name_a)(Dwarf_P_Die, char *, Dwarf_P_Attribute *, Dwarf_Error *);
+    int (*add_AT_string_a)(Dwarf_P_Debug, Dwarf_P_Die, Dwarf_Half, char *, Dwarf_P_Attribute *, Dwarf_Error *);
+    int (*add_AT_targ_address_c)(Dwarf_P_Debug, Dwarf_P_Die, Dwarf_Half, Dwarf_Unsigned, Dwarf_Unsigned,
+                                 Dwarf_P_Attribute *, Dwarf_Error *);
+    Dwarf_P_Attribute (*add_AT_unsigned_const)(Dwarf_P_Debug, Dwarf_P_Die, Dwarf_Half, Dwarf_Unsigned,
+                                               Dwarf_Error *);
+};
+
+/*
+ * Adds count subprograms under cu. names holds count NUL terminated strings
+ * laid out back to back. high_pcs holds the addresses following the functions,
+ * or their lengths when high_pc_is_length isn't 0. On failure, failed_index receives the index of the
+ * function that couldn't be added and the libdwarf status is returned.
+ */
+int dwarf_batch_add_subprograms(const struct dwarf_batch_api *api, Dwarf_P_Debug dbg, Dwarf_P_Die cu,
+                                Dwarf_Unsigned count, const Dwarf_Unsigned *low_pcs, const Dwarf_Unsigned *high_pcs,
+                                int high_pc_is_length, char *names, Dwarf_Unsigned *failed_index, Dwarf_Error *error)
+{
+    Dwarf_P_Expr frame_base;
+    Dwarf_P_Attribute attr;
+    Dwarf_Unsigned offset;
+    Dwarf_Unsigned i;
+    int err;
+
+    *failed_index = 0;
+    /* libdwarf copies the expression bytes in the attribute so one is enough */
+    err = api->new_expr_a(dbg, &frame_base, error);
+    if (err != DW_DLV_OK)
+        return err;
+    err = api->add_expr_gen_a(frame_base, DW_OP_call_frame_cfa, 0, 0, &offset, error);
+    if (err != DW_DLV_OK)
+        return err;
+
+    for (i = 0; i < count; i++)
+    {
+        Dwarf_P_Die die;
+        char *name = names;
+        while (*names)
+            names++;
+        names++;
+
+        *failed_index = i;
+        err = api->new_die_a(dbg, DW_TAG_subprogram, cu, 0, 0, 0, &die, error);
+        if (err != DW_DLV_OK)
+            return err;
+        err = api->add_AT_location_expr_a(dbg, die, DW_AT_frame_base, frame_base, &attr, error);
+        if (err != DW_DLV_OK)
+            return err;
+        err = api->add_AT_name_a(die, name, &attr, error);
+        if (err != DW_DLV_OK)
+            return err;
+        err = api->add_AT_string_a(dbg, die, DW_AT_linkage_name, name, &attr, error);
+        if (err != DW_DLV_OK)
+            return err;
+        err = api->add_AT_targ_address_c(dbg, die, DW_AT_low_pc, low_pcs[i], 0, &attr, error);
+        if (err != DW_DLV_OK)
+            return err;
+        if (high_pc_is_length)
+        {
+            if (api->add_AT_unsigned_const(dbg, die, DW_AT_high_pc, high_pcs[i], error) == DW_DLV_BADADDR)
+                return DW_DLV_ERROR;
+        }
+        else
+        {
+            err = api->add_AT_targ_address_c(dbg, die, DW_AT_high_pc, high_pcs[i], 0, &attr, error);
+            if (err != DW_DLV_OK)
+                return err;
+        }
+    }
+
+    return DW_DLV_OK;
+}